@@ -2,6 +2,7 @@ package com.knemerzitski.isikreg;
 
 import com.knemerzitski.isikreg.beans.LockableValue;
 import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.diagnostics.MemoryDiagnostics;
 import com.knemerzitski.isikreg.exception.AppInfoException;
 import com.knemerzitski.isikreg.exception.AppQuitException;
 import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
@@ -17,12 +18,15 @@ import com.knemerzitski.isikreg.smartcard.TerminalsManager;
 import com.knemerzitski.isikreg.smartcard.records.CardRecords;
 import com.knemerzitski.isikreg.table.DateTableCell;
 import com.knemerzitski.isikreg.threading.TaskExecutor;
+import com.knemerzitski.isikreg.ui.BackgroundTaskPane;
 import com.knemerzitski.isikreg.ui.DialogHandler;
+import com.knemerzitski.isikreg.ui.MemoryDiagnosticsPane;
 import com.knemerzitski.isikreg.ui.RegistrationFormDialog;
 import com.knemerzitski.isikreg.ui.StageDialogHandler;
 import com.knemerzitski.isikreg.ui.StatisticsLabel;
 import com.knemerzitski.isikreg.ui.status.CardStatusPane;
 import com.knemerzitski.isikreg.ui.status.CardStatusText;
+import com.knemerzitski.isikreg.utils.ByteUtils;
 import com.knemerzitski.isikreg.utils.TreeViewUtils;
 import com.sun.javafx.scene.control.skin.TableViewSkin;
 import com.sun.javafx.scene.control.skin.VirtualFlow;
@@ -49,6 +53,7 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 import javafx.util.converter.DefaultStringConverter;
 import org.jetbrains.annotations.NotNull;
 
@@ -62,7 +67,9 @@ import java.net.URL;
 import java.nio.file.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -78,6 +85,9 @@ public class IsikReg {
   private static final String WINDOW_TITLE = "Isikkoosseisu Registreerimise Rakendus";
   private static final String TITLE_FORMAT = "%1$s %2$s";
 
+  private static final int MEMORY_CHECK_PEOPLE_INTERVAL = 500;
+  private static final long ARCHIVE_REGISTRATIONS_INTERVAL = 60 * 1000;
+
   static void logException(FileSystem fileSystem, Throwable e) {
     try {
       if (fileSystem == null) {
@@ -103,6 +113,22 @@ public class IsikReg {
     System.exit(status);
   }
 
+  /**
+   * @param cardExpiryDate Expiry date read from the card, null if it couldn't be read
+   * @return true if no dialog can be shown while registering the card
+   */
+  static boolean canRegisterCardWithoutDialogs(Settings settings, LocalDate cardExpiryDate) {
+    Settings.SmartCard smartCard = settings.smartCard;
+    Settings.General general = settings.general;
+    return smartCard.quickExistingPersonRegistration && smartCard.quickNewPersonRegistration &&
+        smartCard.registerPersonNotInList != Settings.Rule.CONFIRM &&
+        (smartCard.registerExpiredCards == Settings.Rule.ALLOW ||
+            (smartCard.registerExpiredCards == Settings.Rule.DENY && cardExpiryDate != null)) &&
+        // Grace period and same type in row show a confirmation or a warning unless allowed
+        general.registerDuringGracePeriod == Settings.Rule.ALLOW &&
+        general.registerSameTypeInRow == Settings.Rule.ALLOW;
+  }
+
 
   private FileSystem fileSystem;
   private Settings settings;
@@ -114,6 +140,10 @@ public class IsikReg {
   private boolean stopping;
   private boolean criticalThreadsStopped;
   private PersonListExcelWriter personListExcelWriter;
+  private FolderImporter folderImporter;
+
+  // Change sequence of person list at the start of last export
+  private long lastExportChangeSequence = PersonListExcelWriter.ALL_CHANGES;
 
   private Stage primaryStage;
   private StageDialogHandler dialogHandler;
@@ -121,6 +151,8 @@ public class IsikReg {
 
   private PersonList personList;
   private PersonListHelper personListHelper;
+  private MemoryDiagnostics memoryDiagnostics;
+  private boolean memoryWarningShown;
   private TerminalsManager terminalsManager;
   private ColumnProperties cardRecordPropertiesNotRegistered;
 
@@ -129,6 +161,7 @@ public class IsikReg {
   private BorderPane mainBorderPane;
   private StackPane progressStackPane;
   private ProgressBar loadingProgressBar;
+  private BackgroundTaskPane backgroundTaskPane;
   private CardStatusPane mainCardStatusPane;
   private CardStatusText mainCardStatusText;
 
@@ -237,8 +270,10 @@ public class IsikReg {
 
     stopping = true;
     startLoading(); // Will show loading forever since stopping = true
+    if (folderImporter != null)
+      folderImporter.stop();
 
-    taskExecutor.execute(() -> {
+    taskExecutor.execute(TaskExecutor.Pool.WAIT, () -> {
       try {
         personList.waitForWritingFinished(); // Writing might be delayed, wait for it
         if (personListExcelWriter != null)
@@ -249,6 +284,11 @@ public class IsikReg {
       }
       criticalThreadsStopped = true;
 
+      taskExecutor.getMetrics().forEach(System.out::println);
+      if (terminalsManager != null) {
+        System.out.println(terminalsManager.getCardRecordsCache());
+        terminalsManager.getCardTerminalReaders().forEach(TerminalReader::printReadTiming);
+      }
       taskExecutor.shutdownNow(); // Now can finally shut down
 
       Platform.runLater(() -> {
@@ -300,6 +340,7 @@ public class IsikReg {
     // Add hidden expired date column if checking expire date is needed
     if (settings.smartCard.registerExpiredCards != Settings.Rule.ALLOW && settings.getColumn(Column.Id.EXPIRY_DATE) == null) {
       settings.columns.add(new Column(Column.Group.PERSON, Column.Id.EXPIRY_DATE));
+      settings.compileSchema();
     }
 
     settings.dialogHandler = dialogHandler;
@@ -318,6 +359,29 @@ public class IsikReg {
 
     personList = initPersonListController();
     personListHelper = new PersonListHelper(personList);
+    memoryDiagnostics = new MemoryDiagnostics(settings, personList);
+    personList.sizeProperty().addListener((observable, oldSize, newSize) -> checkMemory(oldSize.intValue(), newSize.intValue()));
+
+    if (personList.isArchivingEnabled()) {
+      taskExecutor.scheduleWithFixedDelay(TaskExecutor.Pool.CPU, () -> {
+        try {
+          personList.archiveRegistrationsInBackground();
+        } catch (InterruptedException e) {
+          if (!stopping)
+            throw new AppQuitException(e);
+        }
+      }, ARCHIVE_REGISTRATIONS_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    if (settings.general.autoImportFolder != null && !settings.general.autoImportFolder.isEmpty()) {
+      folderImporter = new FolderImporter(settings, personList, taskExecutor);
+      try {
+        folderImporter.start(fileSystem.getPath(settings.general.autoImportFolder));
+      } catch (IOException e) {
+        Platform.runLater(() -> dialogHandler.warning("Automaatse impordi kausta ei saa jälgida",
+            settings.general.autoImportFolder + "\n" + e));
+      }
+    }
 
     VBox registeringPane = new VBox();
     mainBorderPane.setCenter(registeringPane);
@@ -346,7 +410,8 @@ public class IsikReg {
     //Top
     MenuBar menuBar = initMenuBar(primaryStage);
     menuBar.setUseSystemMenuBar(true);
-    mainBorderPane.setTop(menuBar);
+    backgroundTaskPane = new BackgroundTaskPane();
+    mainBorderPane.setTop(new VBox(menuBar, backgroundTaskPane));
 
     //Bottom
     VBox tableVBox = new VBox();
@@ -880,7 +945,7 @@ public class IsikReg {
                 stat.set(original);
               }
             }
-            successReaderSignal();
+            successReaderSignal(processedReader);
           }
         });
       }
@@ -889,6 +954,26 @@ public class IsikReg {
       protected void failedReader(ProcessedReader reader) {
       }
 
+      @Override
+      protected void personalCodeRead(TerminalReader reader, String personalCode) {
+        // Show person from the list while rest of the card is read
+        Platform.runLater(() -> {
+          Person person = personList.get(personalCode);
+          if (person == null || reader.getStatus() != Status.READING_CARD)
+            return;
+          CardStatusText statusText = terminalStatusTexts.get(reader);
+          if (statusText != null)
+            statusText.readingCard(person.getProperties());
+          if (getStatus() == Status.READING_CARD)
+            mainCardStatusText.readingCard(person.getProperties());
+        });
+      }
+
+      @Override
+      protected boolean isQuickProcessing(ProcessedReader reader) {
+        return canRegisterCardWithoutDialogs(settings, reader.getRecords().getExpiryDate());
+      }
+
       @Override
       protected TerminalReader newReader(CardTerminal newTerminal) {
         TerminalReader reader = super.newReader(newTerminal);
@@ -932,7 +1017,7 @@ public class IsikReg {
     statusChangeListener.changed(terminalsManager.statusProperty(), null, terminalsManager.statusProperty().getValue());
     terminalsManager.statusProperty().addListener(statusChangeListener);
 
-    taskExecutor.execute(terminalsManager);
+    taskExecutor.execute(TaskExecutor.Pool.CARD_IO, terminalsManager);
 
     return terminalsManager;
   }
@@ -953,9 +1038,14 @@ public class IsikReg {
 
     // Import
     MenuItem importExcel = new MenuItem("Import");
-    importExcel.setOnAction(e -> showImportExcelDialog(stage));
+    importExcel.setOnAction(e -> showImportExcelDialog(stage, false));
     fileMenu.getItems().add(importExcel);
 
+    // Import with summary of changes before adding
+    MenuItem importExcelDryRun = new MenuItem("Import (eelvaade)");
+    importExcelDryRun.setOnAction(e -> showImportExcelDialog(stage, true));
+    fileMenu.getItems().add(importExcelDryRun);
+
     // Eksport
     MenuItem exportExcel = new MenuItem("Eksport");
     exportExcel.setOnAction(e -> showExportExcelDialog(stage, false));
@@ -966,6 +1056,15 @@ public class IsikReg {
     exportExcelGroupByRegistrationType.setOnAction(e -> showExportExcelDialog(stage, true));
     fileMenu.getItems().add(exportExcelGroupByRegistrationType);
 
+    // Eksport only changes
+    MenuItem exportExcelChanges = new MenuItem("Eksport (muudatused viimasest ekspordist)");
+    exportExcelChanges.setOnAction(e -> showExportExcelDialog(stage, false, lastExportChangeSequence));
+    fileMenu.getItems().add(exportExcelChanges);
+
+    MenuItem exportExcelChangesSince = new MenuItem("Eksport (muudatused alates ajast)");
+    exportExcelChangesSince.setOnAction(e -> showExportChangesSinceDialog(stage));
+    fileMenu.getItems().add(exportExcelChangesSince);
+
     Menu personMenu = new Menu("Nimekiri");
     // Registreerimine
     MenuItem newRegistration = new MenuItem("Uus registreerimine");
@@ -1021,6 +1120,12 @@ public class IsikReg {
     removeSelectedRegistrations.setOnAction(e -> deleteSelectedRegistrations());
     selectedRowsMenu.getItems().add(removeSelectedRegistrations);
 
+    if (personList.isArchivingEnabled()) {
+      MenuItem showArchivedRegistrations = new MenuItem("Näita arhiveeritud registreerimisi");
+      showArchivedRegistrations.setOnAction(e -> showSelectedPeopleArchivedRegistrations());
+      contextMenu.getItems().add(showArchivedRegistrations);
+    }
+
     if (settings.general.deletePerson) {
       MenuItem deleteSelectedPeople = new MenuItem("Kustuta isikud");
       deleteSelectedPeople.setOnAction(e -> deleteSelectedPeople());
@@ -1076,6 +1181,43 @@ public class IsikReg {
       menuBar.getMenus().add(settingsMenu);
     }
 
+    // Mälukasutus
+    if (settings.general.memoryDiagnosticsMenuItem) {
+      Menu diagnosticsMenu = new Menu();
+      Label diagnosticsMenuLabel = new Label("Mälu");
+      diagnosticsMenu.setGraphic(diagnosticsMenuLabel);
+      ObjectProperty<Stage> diagnosticsStage = new SimpleObjectProperty<>();
+      diagnosticsMenuLabel.setOnMouseClicked(e -> {
+        if (diagnosticsStage.get() != null) {
+          Stage curStage = diagnosticsStage.get();
+          if (!curStage.isShowing())
+            curStage.show();
+          else
+            curStage.hide();
+        } else {
+          MemoryDiagnosticsPane diagnosticsPane = new MemoryDiagnosticsPane(memoryDiagnostics, taskExecutor, 2000);
+
+          Stage memoryStage = new Stage();
+          otherStages.add(memoryStage);
+          memoryStage.setOnShown(e2 -> {
+            double centerX = stage.getX() + stage.getWidth() / 2d;
+            double centerY = stage.getY() + stage.getHeight() / 2d;
+            memoryStage.setX(centerX - memoryStage.getWidth() / 2d);
+            memoryStage.setY(centerY - memoryStage.getHeight() / 2d);
+            diagnosticsPane.startRefreshing();
+          });
+          memoryStage.setOnHidden(e2 -> diagnosticsPane.stopRefreshing());
+
+          memoryStage.setTitle("Mälukasutus");
+          memoryStage.setScene(new Scene(diagnosticsPane));
+
+          memoryStage.show();
+          diagnosticsStage.set(memoryStage);
+        }
+      });
+      menuBar.getMenus().add(diagnosticsMenu);
+    }
+
     return menuBar;
   }
 
@@ -1348,6 +1490,13 @@ public class IsikReg {
     }
   }
 
+  private void showSelectedPeopleArchivedRegistrations() {
+    List<Person> people = registrationTableView.getSelectionModel()
+        .getSelectedItems().stream()
+        .map(Registration::getPerson).distinct().collect(Collectors.toList());
+    people.forEach(personList::restoreArchivedRegistrations);
+  }
+
   private void deleteSelectedPeople() {
     List<Person> people = registrationTableView.getSelectionModel()
         .getSelectedItems().stream()
@@ -1512,6 +1661,24 @@ public class IsikReg {
     }
   }
 
+  private void checkMemory(int oldSize, int newSize) {
+    if (newSize <= oldSize || newSize / MEMORY_CHECK_PEOPLE_INTERVAL == oldSize / MEMORY_CHECK_PEOPLE_INTERVAL)
+      return;
+    if (!MemoryDiagnostics.isHeapNearLimit(settings)) {
+      memoryWarningShown = false; // Warn again if memory runs short later
+      return;
+    }
+    if (memoryWarningShown)
+      return;
+    memoryWarningShown = true;
+    long used = MemoryDiagnostics.liveHeapUsed();
+    long max = MemoryDiagnostics.heapUsage().getMax();
+    Platform.runLater(() -> dialogHandler.warning("Mälu hakkab otsa saama!",
+        String.format("Kasutusel %s / %s. Nimekirja suurenedes võib programm mälu puudusel kokku joosta.\n" +
+                "Suurenda programmi käivitamisel -Xmx väärtust.",
+            ByteUtils.toReadableBytes(used), ByteUtils.toReadableBytes(max))));
+  }
+
   private void startLoading() {
     synchronized (loading) {
       if (loading.get())
@@ -1526,16 +1693,6 @@ public class IsikReg {
     });
   }
 
-  private void loadingProgress(double progress) {
-    if (!loading.get())
-      return;
-    if (progress < 0) {
-      Platform.runLater(() -> loadingProgressBar.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS));
-    } else {
-      Platform.runLater(() -> loadingProgressBar.setProgress(progress));
-    }
-  }
-
   private void stopLoading() {
     if (stopping) {
       // Loading can't stop once App is being stopped
@@ -1552,70 +1709,174 @@ public class IsikReg {
     loading.set(false);
   }
 
-  private void showImportExcelDialog(Stage stage) {
+  private void showImportExcelDialog(Stage stage, boolean dryRun) {
     if (stopping) return;
     FileChooser fileChooser = new FileChooser();
     fileChooser.setInitialDirectory(new File("."));
     fileChooser.setTitle("Exceli faili importimine");
-    FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("Microsoft Excel 2007-2013 XML (.xlsx)", "*.xlsx");
-    fileChooser.getExtensionFilters().add(extFilter);
+    fileChooser.getExtensionFilters().addAll(
+        new FileChooser.ExtensionFilter("Tabelid (.xlsx, .csv, .tsv)", "*.xlsx", "*.csv", "*.tsv"),
+        new FileChooser.ExtensionFilter("Microsoft Excel 2007-2013 XML (.xlsx)", "*.xlsx"),
+        new FileChooser.ExtensionFilter("Komaeraldusega väärtused (.csv)", "*.csv"),
+        new FileChooser.ExtensionFilter("Tabeldusmärgiga eraldatud väärtused (.tsv)", "*.tsv")
+    );
     List<File> files = fileChooser.showOpenMultipleDialog(stage);
 
     if (files != null) {
+      ProgressListener progressListener = startBackgroundTask(dryRun ? "Loen faile..." : "Impordin...");
+      if (progressListener == null)
+        return;
       List<Path> paths = files.stream().map(File::toPath).collect(Collectors.toList());
       new PersonListExcelReader(settings, taskExecutor) {
 
         @Override
-        protected void process(Person person) {
-          personList.add(person, true, true);
+        protected void process(List<Person> people) {
+          if (dryRun) {
+            try {
+              ImportDiff diff = ImportDiff.computeInBackground(personList, people);
+              Platform.runLater(() -> confirmImport(diff));
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          } else {
+            try {
+              personList.getCommandQueue().addAll(people, progressListener);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
         }
 
-      }.readAsync(paths, new ProgressListener() {
-        @Override
-        public void start() {
-          startLoading();
-        }
+      }.readAsync(paths, progressListener);
+    }
+  }
 
-        @Override
-        public void progress(double percent) {
-          loadingProgress(percent);
-        }
+  private void confirmImport(ImportDiff diff) {
+    if (stopping) return;
+    if (!diff.hasChanges()) {
+      dialogHandler.warning("Importimine ei muudaks nimekirja", diff.toString());
+      return;
+    }
+    if (!dialogHandler.confirm("Kas lisan imporditud isikud nimekirja?", diff.toString()))
+      return;
+    ProgressListener progressListener = startBackgroundTask("Impordin...");
+    if (progressListener == null)
+      return;
+    taskExecutor.execute(TaskExecutor.Pool.FILE_IO, () -> {
+      try {
+        diff.apply(personList, progressListener);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        progressListener.stop();
+      }
+    });
+  }
 
-        @Override
-        public void stop() {
-          stopLoading();
-        }
-      });
+  /**
+   * Shows task progress without disabling the window, card reading continues during the task
+   *
+   * @return null if another background task is running
+   */
+  private ProgressListener startBackgroundTask(String text) {
+    if (!backgroundTaskPane.start(text)) {
+      dialogHandler.warning("Eelmine toiming on veel pooleli", "Oota, kuni see lõpeb, või katkesta see.");
+      return null;
     }
+    return new ProgressListener() {
+      @Override
+      public void start() {
+      }
+
+      @Override
+      public void progress(double percent) {
+        backgroundTaskPane.progress(percent);
+      }
+
+      @Override
+      public void stop() {
+        backgroundTaskPane.stop();
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return stopping || backgroundTaskPane.isCancelled();
+      }
+    };
+  }
+
+  private void showExportChangesSinceDialog(Stage stage) {
+    if (stopping) return;
+    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+    TextInputDialog dialog = new TextInputDialog(formatter.format(LocalDateTime.now().withHour(0).withMinute(0)));
+    dialog.initOwner(stage);
+    dialog.setTitle("Muudatuste eksport");
+    dialog.setHeaderText("Ekspordi muudatused alates ajast (pp.kk.aaaa tt:mm)");
+    dialogHandler.centerOnShown(dialog);
+    String text = dialog.showAndWait().orElse(null);
+    if (text == null)
+      return;
+    LocalDateTime since;
+    try {
+      since = LocalDateTime.parse(text.trim(), formatter);
+    } catch (DateTimeParseException e) {
+      dialogHandler.warning("Vigane aeg", text);
+      return;
+    }
+    long millis = since.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    showExportExcelDialog(stage, false, personList.getChangeSequenceAt(millis));
   }
 
   private void showExportExcelDialog(Stage stage, boolean groupByRegistrationType) {
+    showExportExcelDialog(stage, groupByRegistrationType, PersonListExcelWriter.ALL_CHANGES);
+  }
+
+  private void showExportExcelDialog(Stage stage, boolean groupByRegistrationType, long sinceChangeSequence) {
     if (stopping) return;
     FileChooser fileChooser = new FileChooser();
     fileChooser.setInitialDirectory(new File("."));
     fileChooser.setTitle("Exceli failiks eksportimine" + (groupByRegistrationType ? " (Grupeeri registreerimise tüübi järgi)" : ""));
-    FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("Microsoft Excel 2007-2013 XML (.xlsx)", "*.xlsx");
-    fileChooser.getExtensionFilters().add(extFilter);
+    fileChooser.getExtensionFilters().addAll(
+        new FileChooser.ExtensionFilter("Microsoft Excel 2007-2013 XML (.xlsx)", "*.xlsx"),
+        new FileChooser.ExtensionFilter("Komaeraldusega väärtused (.csv)", "*.csv"),
+        new FileChooser.ExtensionFilter("Tabeldusmärgiga eraldatud väärtused (.tsv)", "*.tsv")
+    );
     File file = fileChooser.showSaveDialog(stage);
 
     if (file != null) {
+      ProgressListener progressListener = startBackgroundTask("Ekspordin...");
+      if (progressListener == null)
+        return;
+      // Registrations continue during export, file is written from the list state at this moment
+      PersonListSnapshot snapshot = personList.snapshot();
       personListExcelWriter = new PersonListExcelWriter(settings, taskExecutor);
-      personListExcelWriter.writeAsync(file.toPath(), personList.getUnmodifiableList(), groupByRegistrationType, new ProgressListener() {
+      personListExcelWriter.writeAsync(file.toPath(), snapshot.getPeople(), groupByRegistrationType,
+          sinceChangeSequence, new ProgressListener() {
         @Override
         public void start() {
-          startLoading();
         }
 
         @Override
         public void progress(double percent) {
-          loadingProgress(percent);
+          progressListener.progress(percent);
         }
 
         @Override
         public void stop() {
-          stopLoading();
+          snapshot.close();
+          progressListener.stop();
           personListExcelWriter = null;
         }
+
+        @Override
+        public void done() {
+          Platform.runLater(() -> lastExportChangeSequence = snapshot.getChangeSequence());
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return progressListener.isCancelled();
+        }
       });
     }
   }
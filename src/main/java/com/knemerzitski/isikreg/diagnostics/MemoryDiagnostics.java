@@ -0,0 +1,307 @@
+package com.knemerzitski.isikreg.diagnostics;
+
+import com.knemerzitski.isikreg.person.Person;
+import com.knemerzitski.isikreg.person.PersonList;
+import com.knemerzitski.isikreg.person.PersonListCommandQueue;
+import com.knemerzitski.isikreg.person.Registration;
+import com.knemerzitski.isikreg.settings.ColumnProperties;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.ComboBoxColumn;
+import javafx.beans.property.Property;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Estimates memory used by the person list. Sizes are structural estimates for a 64-bit JVM with compressed
+ * references, they are not measured.
+ */
+public class MemoryDiagnostics {
+
+  // Estimated shallow sizes in bytes
+  private static final int PERSON = 56;
+  private static final int REGISTRATION = 56;
+  private static final int PROPERTY = 40;
+  private static final int HASH_MAP = 48;
+  private static final int HASH_MAP_ENTRY = 32;
+  private static final int LIST = 40;
+  private static final int REFERENCE = 4;
+  private static final int STRING = 24;
+  private static final int ARRAY = 16;
+  private static final int DATE = 64;
+  private static final int LISTENER = 24;
+  private static final int REGISTRATION_INDEX = 160;
+  private static final int REGISTRATION_INDEX_ENTRY = 96;
+  private static final int ARCHIVED_REGISTRATION = 400; // JSON text
+
+  private static final int PEOPLE_CHUNK_SIZE = 500;
+
+  public static class Subsystem {
+    public final String name;
+    public final long count;
+    public final long bytes;
+
+    public Subsystem(String name, long count, long bytes) {
+      this.name = name;
+      this.count = count;
+      this.bytes = bytes;
+    }
+  }
+
+  public static class Snapshot {
+    public final long usedHeap;
+    public final long committedHeap;
+    public final long maxHeap;
+    public final long gcCount;
+    public final long gcTime; // milliseconds
+
+    public final int people;
+    public final int registrations;
+    public final List<Subsystem> subsystems;
+
+    public final int openListSnapshots;
+    public final long oldestListSnapshotAge; // milliseconds
+
+    private Snapshot(long usedHeap, long committedHeap, long maxHeap, long gcCount, long gcTime,
+                     int people, int registrations, List<Subsystem> subsystems,
+                     int openListSnapshots, long oldestListSnapshotAge) {
+      this.usedHeap = usedHeap;
+      this.committedHeap = committedHeap;
+      this.maxHeap = maxHeap;
+      this.gcCount = gcCount;
+      this.gcTime = gcTime;
+      this.people = people;
+      this.registrations = registrations;
+      this.subsystems = subsystems;
+      this.openListSnapshots = openListSnapshots;
+      this.oldestListSnapshotAge = oldestListSnapshotAge;
+    }
+
+    public long getEstimatedTotal() {
+      return subsystems.stream().mapToLong(s -> s.bytes).sum();
+    }
+
+    public long getEstimatedPerPerson() {
+      return people > 0 ? getEstimatedTotal() / people : 0;
+    }
+
+    /**
+     * @return How many people still fit in heap or -1 if it can't be estimated
+     */
+    public long getRemainingPeopleCapacity() {
+      long perPerson = getEstimatedPerPerson();
+      if (perPerson <= 0 || maxHeap <= 0)
+        return -1;
+      return Math.max(0, (maxHeap - usedHeap) / perPerson);
+    }
+
+    public double getUsedHeapPercent() {
+      return maxHeap > 0 ? usedHeap * 100d / maxHeap : 0;
+    }
+  }
+
+  public static long[] gcStats() {
+    long count = 0;
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return new long[]{count, time};
+  }
+
+  public static MemoryUsage heapUsage() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+  }
+
+  /**
+   * @return Heap used after the last garbage collection of each pool, so garbage waiting to be collected isn't
+   * counted. Pools that haven't been collected yet count with current usage.
+   */
+  public static long liveHeapUsed() {
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP || !pool.isValid())
+        continue;
+      MemoryUsage afterGc = pool.getCollectionUsage();
+      if (afterGc != null && afterGc.getCommitted() > 0) {
+        used += afterGc.getUsed();
+      } else {
+        used += pool.getUsage().getUsed();
+      }
+    }
+    return used;
+  }
+
+  /**
+   * @return True if live heap exceeds settings.general.memoryWarningPercent of max heap
+   */
+  public static boolean isHeapNearLimit(Settings settings) {
+    return isNearLimit(liveHeapUsed(), heapUsage().getMax(), settings.general.memoryWarningPercent);
+  }
+
+  static boolean isNearLimit(long used, long max, int percent) {
+    return percent > 0 && max > 0 && used * 100 >= max * percent;
+  }
+
+  private final Settings settings;
+  private final PersonList personList;
+
+  public MemoryDiagnostics(Settings settings, PersonList personList) {
+    this.settings = settings;
+    this.personList = personList;
+  }
+
+  /**
+   * Must be called on the person list writer thread.
+   */
+  public Snapshot snapshot() {
+    Estimate estimate = new Estimate(new ArrayList<>(personList.values()));
+    estimate.addPeople(estimate.people);
+    estimate.addAutofill();
+    return estimate.toSnapshot();
+  }
+
+  /**
+   * Live people and autofill values are only read on the person list writer thread, in chunks so that card
+   * registrations run in between. Detached snapshot copies and heap are read on the given executor.
+   */
+  public CompletableFuture<Snapshot> snapshotAsync(Executor executor) {
+    PersonListCommandQueue commandQueue = personList.getCommandQueue();
+    return commandQueue.submit(list -> new Estimate(new ArrayList<>(list.values())))
+        .thenCompose(estimate -> {
+          List<Person> people = estimate.people;
+          for (int i = 0; i < people.size(); i += PEOPLE_CHUNK_SIZE) {
+            List<Person> chunk = people.subList(i, Math.min(people.size(), i + PEOPLE_CHUNK_SIZE));
+            commandQueue.submit(list -> {
+              estimate.addPeople(chunk);
+              return null;
+            });
+          }
+          // Commands run in order, so the chunks are done by now
+          return commandQueue.submit(list -> {
+            estimate.addAutofill();
+            return estimate;
+          });
+        })
+        .thenApplyAsync(Estimate::toSnapshot, executor);
+  }
+
+  private class Estimate {
+    private final List<Person> people;
+
+    private long personBytes;
+    private long registrationCount;
+    private long registrationBytes;
+    private long listenerCount;
+    private long archivedCount;
+    private long autofillCount;
+    private long autofillBytes;
+
+    private Estimate(List<Person> people) {
+      this.people = people;
+    }
+
+    private void addPeople(List<Person> people) {
+      for (Person p : people) {
+        ColumnProperties properties = p.getProperties();
+        List<Registration> registrations = p.getRegistrations();
+        if (properties == null || registrations == null)
+          continue; // removed meanwhile
+
+        personBytes += PERSON + 3 * PROPERTY + estimate(properties) + LIST + ARRAY + registrations.size() * REFERENCE;
+        // Person property listeners, personal code, registered type and registrations list listeners
+        listenerCount += properties.size() + 3;
+
+        personBytes += REGISTRATION_INDEX;
+        archivedCount += p.getArchivedRegistrationCount();
+        for (Registration r : registrations) {
+          ColumnProperties regProperties = r.getProperties();
+          if (regProperties == null)
+            continue;
+          registrationCount++;
+          registrationBytes += REGISTRATION + REGISTRATION_INDEX_ENTRY + estimate(regProperties) +
+              // Registration and person properties combined
+              HASH_MAP + (regProperties.size() + properties.size()) * HASH_MAP_ENTRY;
+          // Registration property listeners, date index and registered confirmation listeners
+          listenerCount += regProperties.size() + 2;
+        }
+      }
+    }
+
+    private void addAutofill() {
+      for (Column column : settings.columns) {
+        if (column instanceof ComboBoxColumn && ((ComboBoxColumn) column).hasForm()) {
+          List<String> values = ((ComboBoxColumn) column).form.autofillValues;
+          autofillCount += values.size();
+          autofillBytes += LIST + ARRAY + values.size() * REFERENCE;
+          for (String value : values) {
+            autofillBytes += estimate(value);
+          }
+        }
+      }
+    }
+
+    private Snapshot toSnapshot() {
+      // Table rows, filtered person list and person map
+      long tableBytes = people.size() * (long) (HASH_MAP_ENTRY + 3 * REFERENCE + 4) + registrationCount * REFERENCE * 2;
+
+      // Person copies kept by open person list snapshots or for the next snapshot, they don't change
+      List<Person> snapshotCopies = personList.getRetainedSnapshotCopies();
+      long snapshotBytes = 0;
+      for (Person p : snapshotCopies) {
+        snapshotBytes += PERSON + estimate(p.getProperties()) + LIST + ARRAY;
+        for (Registration r : p.getRegistrations()) {
+          snapshotBytes += REFERENCE + REGISTRATION + estimate(r.getProperties());
+        }
+      }
+
+      List<Subsystem> subsystems = new ArrayList<>();
+      subsystems.add(new Subsystem("Isikud", people.size(), personBytes));
+      subsystems.add(new Subsystem("Registreeringud", registrationCount, registrationBytes));
+      subsystems.add(new Subsystem("Kuulajad", listenerCount, listenerCount * LISTENER));
+      subsystems.add(new Subsystem("Arhiiv", archivedCount, archivedCount * ARCHIVED_REGISTRATION));
+      subsystems.add(new Subsystem("Automaatne täitmine", autofillCount, autofillBytes));
+      subsystems.add(new Subsystem("Tabel ja otsing", people.size(), tableBytes));
+      subsystems.add(new Subsystem("Hetktõmmised", snapshotCopies.size(), snapshotBytes));
+
+      MemoryUsage heap = heapUsage();
+      long[] gc = gcStats();
+      return new Snapshot(heap.getUsed(), heap.getCommitted(), heap.getMax(), gc[0], gc[1],
+          people.size(), (int) registrationCount, Collections.unmodifiableList(subsystems),
+          personList.getOpenSnapshotCount(), personList.getOldestSnapshotAgeMillis());
+    }
+  }
+
+  private static long estimate(ColumnProperties properties) {
+    int capacity = Integer.highestOneBit(Math.max(1, properties.size() * 4 / 3)) << 1;
+    long bytes = HASH_MAP + align(ARRAY + capacity * REFERENCE);
+    for (Property<?> property : properties.values()) {
+      bytes += HASH_MAP_ENTRY + PROPERTY + estimate(property.getValue());
+    }
+    return bytes;
+  }
+
+  private static long estimate(Object value) {
+    if (value instanceof String) {
+      return STRING + align(ARRAY + ((String) value).length() * 2);
+    } else if (value != null && !(value instanceof Boolean)) {
+      return DATE;
+    }
+    return 0;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7;
+  }
+
+}
@@ -10,7 +10,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Objects;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -18,34 +19,6 @@ import java.util.zip.ZipOutputStream;
 
 public abstract class SafeSynchronizedFile<C, I> {
 
-  class Item {
-    final I item;
-    final Action action;
-
-    public Item(I item, Action action) {
-      this.item = item;
-      this.action = action;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      Item item1 = (Item) o;
-      return item.equals(item1.item) && action == item1.action;
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(item, action);
-    }
-
-    @Override
-    public String toString() {
-      return item + " (" + action + ")";
-    }
-  }
-
   protected enum Action {
     WRITE, DELETE
   }
@@ -85,7 +58,8 @@ public abstract class SafeSynchronizedFile<C, I> {
 
   private final TaskExecutor taskExecutor;
 
-  private final BlockingQueue<Item> queue = new LinkedBlockingDeque<>();
+  // Items changed since last flush, ordered by latest change. Guarded by this.
+  private final Map<I, Action> dirtyItems = new LinkedHashMap<>();
 
   private ScheduledFuture<?> saveDelayTask;
 
@@ -187,7 +161,7 @@ public abstract class SafeSynchronizedFile<C, I> {
 
   private void readAsync() {
     Path workingPath = this.path;
-    taskExecutor.submit(() -> {
+    taskExecutor.submit(TaskExecutor.Pool.SAVE, () -> {
       try {
         runStartReading();
         try (InputStream is = Files.newInputStream(workingPath)) {
@@ -203,7 +177,7 @@ public abstract class SafeSynchronizedFile<C, I> {
   private void readZipAsync() {
     Path workingPath = this.pathZip;
     String name = this.path.getFileName().toString();
-    taskExecutor.submit(() -> {
+    taskExecutor.submit(TaskExecutor.Pool.SAVE, () -> {
       try {
         runStartReading();
         return readZip(workingPath, name, (is) -> read(is, name));
@@ -221,7 +195,8 @@ public abstract class SafeSynchronizedFile<C, I> {
   }
 
   protected synchronized void offerItem(I item, Action action) {
-    queue.offer(new Item(item, action));
+    dirtyItems.remove(item); // Move to the end, so that latest action wins
+    dirtyItems.put(item, action);
     if (saveDelayTask != null) {
       saveDelayTask.cancel(true);
     }
@@ -275,12 +250,12 @@ public abstract class SafeSynchronizedFile<C, I> {
   }
 
   private synchronized void processQueue() throws IOException {
-    if (queue.isEmpty())
+    if (dirtyItems.isEmpty())
       return;
 
     if (!exists()) {
       write();
-      queue.clear();
+      dirtyItems.clear();
     } else {
       C container;
       if (saveCompressedZip) {
@@ -291,9 +266,10 @@ public abstract class SafeSynchronizedFile<C, I> {
         }
       }
 
-      Item item;
-      while ((item = queue.poll()) != null) {
-        processItem(container, item);
+      Map<I, Action> items = new LinkedHashMap<>(dirtyItems);
+      dirtyItems.clear();
+      for (Map.Entry<I, Action> item : items.entrySet()) {
+        processItem(container, item.getKey(), item.getValue());
       }
       if (saveCompressedZip) {
         writeZip(pathZipBak, path.getFileName().toString(), (os) -> endWriting(os, path.getFileName().toString(), container));
@@ -314,19 +290,19 @@ public abstract class SafeSynchronizedFile<C, I> {
     }
   }
 
-  private void processItem(C container, Item item) throws IOException {
-    switch (item.action) {
+  private void processItem(C container, I item, Action action) throws IOException {
+    switch (action) {
       case WRITE:
-        write(container, item.item);
+        write(container, item);
         break;
       case DELETE:
-        delete(container, item.item);
+        delete(container, item);
         break;
     }
   }
 
   public void writeAsync() {
-    taskExecutor.submit(this::write);
+    taskExecutor.submit(TaskExecutor.Pool.SAVE, this::write);
   }
 
   public Path getPath() {
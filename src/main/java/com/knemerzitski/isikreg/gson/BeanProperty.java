@@ -0,0 +1,10 @@
+package com.knemerzitski.isikreg.gson;
+
+/**
+ * Property whose bean can be set after creation. Properties are created before their owner is known.
+ */
+public interface BeanProperty {
+
+  void setBean(Object bean);
+
+}
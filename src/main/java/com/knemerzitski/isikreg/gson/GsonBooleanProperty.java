@@ -11,7 +11,7 @@ import javafx.beans.property.SimpleObjectProperty;
 import java.io.IOException;
 
 @JsonAdapter(GsonBooleanProperty.GsonStringPropertyAdapter.class)
-public class GsonBooleanProperty extends SimpleObjectProperty<Boolean> {
+public class GsonBooleanProperty extends SimpleObjectProperty<Boolean> implements BeanProperty {
 
   public static class GsonStringPropertyAdapter extends TypeAdapter<GsonBooleanProperty> {
 
@@ -28,6 +28,8 @@ public class GsonBooleanProperty extends SimpleObjectProperty<Boolean> {
 
   private BooleanProperty booleanProperty;
 
+  private Object bean;
+
   public GsonBooleanProperty() {
     super(null);
   }
@@ -44,4 +46,14 @@ public class GsonBooleanProperty extends SimpleObjectProperty<Boolean> {
     return booleanProperty;
   }
 
+  @Override
+  public Object getBean() {
+    return bean;
+  }
+
+  @Override
+  public void setBean(Object bean) {
+    this.bean = bean;
+  }
+
 }
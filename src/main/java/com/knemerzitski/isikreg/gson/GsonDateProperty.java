@@ -9,7 +9,7 @@ import javafx.beans.property.SimpleObjectProperty;
 
 import java.io.IOException;
 
-public class GsonDateProperty extends SimpleObjectProperty<Date> {
+public class GsonDateProperty extends SimpleObjectProperty<Date> implements BeanProperty {
 
   public static class GsonDatePropertyAdapter extends TypeAdapter<GsonDateProperty> {
 
@@ -30,6 +30,8 @@ public class GsonDateProperty extends SimpleObjectProperty<Date> {
     }
   }
 
+  private Object bean;
+
   public GsonDateProperty() {
     super(null);
   }
@@ -38,4 +40,14 @@ public class GsonDateProperty extends SimpleObjectProperty<Date> {
     super(initialValue);
   }
 
-}
\ No newline at end of file
+  @Override
+  public Object getBean() {
+    return bean;
+  }
+
+  @Override
+  public void setBean(Object bean) {
+    this.bean = bean;
+  }
+
+}
@@ -9,7 +9,7 @@ import javafx.beans.property.SimpleStringProperty;
 import java.io.IOException;
 
 @JsonAdapter(GsonStringProperty.GsonStringPropertyAdapter.class)
-public class GsonStringProperty extends SimpleStringProperty {
+public class GsonStringProperty extends SimpleStringProperty implements BeanProperty {
 
   public static class GsonStringPropertyAdapter extends TypeAdapter<GsonStringProperty> {
 
@@ -24,6 +24,8 @@ public class GsonStringProperty extends SimpleStringProperty {
     }
   }
 
+  private Object bean;
+
   public GsonStringProperty() {
     super(null);
   }
@@ -32,4 +34,14 @@ public class GsonStringProperty extends SimpleStringProperty {
     super(initialValue);
   }
 
+  @Override
+  public Object getBean() {
+    return bean;
+  }
+
+  @Override
+  public void setBean(Object bean) {
+    this.bean = bean;
+  }
+
 }
@@ -0,0 +1,246 @@
+package com.knemerzitski.isikreg.person;
+
+import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import javafx.beans.property.Property;
+import org.apache.poi.ss.usermodel.CellValue;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reads and writes CSV and TSV files. Rows are streamed through a single buffer, quoted values
+ * may contain separators, quotes ("") and line breaks.
+ */
+class CsvSheet {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // Rows used to estimate row count of the file
+  private static final int ESTIMATE_ROW_COUNT = 1024;
+
+  private static final char QUOTE = '"';
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+  private static final String LINE_SEPARATOR = "\r\n";
+
+  private CsvSheet() {
+  }
+
+  static boolean isCsv(Path path) {
+    String name = path.getFileName().toString().toLowerCase();
+    return name.endsWith(".csv") || name.endsWith(".tsv");
+  }
+
+  static char getSeparator(Path path, Settings.Csv csv) {
+    return path.getFileName().toString().toLowerCase().endsWith(".tsv") ? '\t' : csv.separator.charAt(0);
+  }
+
+  /**
+   * Reads rows as string cells, empty values have no cell.
+   * Row count is estimated from file size after first rows.
+   */
+  static void read(Path path, Settings.Csv csv, ExcelSheetReader.RowHandler rowHandler) throws IOException {
+    new Parser(getSeparator(path, csv), Files.size(path), rowHandler).parse(path, Charset.forName(csv.charset));
+  }
+
+  private static class Parser {
+
+    private final char separator;
+    private final long fileSize;
+    private final ExcelSheetReader.RowHandler rowHandler;
+
+    private final ExcelSheetReader.SheetRow row = new ExcelSheetReader.SheetRow();
+    private final StringBuilder value = new StringBuilder();
+
+    private long charCount;
+    private int rowIndex;
+    private int cellIndex;
+    private boolean quoted;
+    private boolean quoteEnded;
+    private boolean skipLineFeed;
+    private boolean dimensionKnown;
+
+    private Parser(char separator, long fileSize, ExcelSheetReader.RowHandler rowHandler) {
+      this.separator = separator;
+      this.fileSize = fileSize;
+      this.rowHandler = rowHandler;
+    }
+
+    private void parse(Path path, Charset charset) throws IOException {
+      try (Reader reader = new InputStreamReader(Files.newInputStream(path), charset)) {
+        char[] buffer = new char[BUFFER_SIZE];
+        row.reset(0);
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+          int i = charCount == 0 && n > 0 && buffer[0] == BYTE_ORDER_MARK ? 1 : 0;
+          for (; i < n; i++) {
+            charCount++;
+            accept(buffer[i]);
+          }
+        }
+      }
+      if (cellIndex > 0 || value.length() > 0) {
+        endCell();
+        endRow();
+      }
+      if (!dimensionKnown)
+        rowHandler.dimension(0, rowIndex);
+    }
+
+    private void accept(char c) {
+      boolean lineFeedAfterCarriageReturn = skipLineFeed && c == '\n';
+      skipLineFeed = false;
+      if (quoted) {
+        if (c == QUOTE) {
+          quoted = false;
+          quoteEnded = true;
+        } else {
+          value.append(c);
+        }
+      } else if (c == QUOTE) {
+        if (quoteEnded) // Escaped quote
+          value.append(QUOTE);
+        quoted = true;
+        quoteEnded = false;
+      } else if (c == separator) {
+        endCell();
+        cellIndex++;
+      } else if (c == '\n' || c == '\r') {
+        if (lineFeedAfterCarriageReturn)
+          return;
+        skipLineFeed = c == '\r';
+        endCell();
+        endRow();
+      } else {
+        value.append(c);
+        quoteEnded = false;
+      }
+    }
+
+    private void endCell() {
+      if (value.length() > 0) {
+        row.set(cellIndex, new ExcelSheetReader.SheetCell(new CellValue(value.toString()), null));
+        value.setLength(0);
+      }
+      quoteEnded = false;
+    }
+
+    private void endRow() {
+      rowHandler.row(row);
+      rowIndex++;
+      row.reset(rowIndex);
+      cellIndex = 0;
+      if (!dimensionKnown && rowIndex == ESTIMATE_ROW_COUNT && charCount > 0) {
+        dimensionKnown = true;
+        rowHandler.dimension(0, (int) Math.min(Integer.MAX_VALUE, rowIndex * fileSize / charCount));
+      }
+    }
+  }
+
+  /**
+   * Writes header and rows of the layout, dates are formatted with csv date formats
+   */
+  static void write(Path path, Settings.Csv csv, PersonListSheetLayout layout, List<Person> personList,
+                    long sinceChangeSequence, ProgressListener progressListener) throws IOException {
+    char separator = getSeparator(path, csv);
+    Charset charset = Charset.forName(csv.charset);
+    List<Column> columns = layout.getColumns();
+    String[] values = new String[columns.size()];
+    long rowCount = layout.getMaxRowCount(personList) - 1;
+
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), charset), BUFFER_SIZE)) {
+      if (csv.exportByteOrderMark && charset.name().startsWith("UTF"))
+        writer.write(BYTE_ORDER_MARK);
+
+      for (int i = 0; i < columns.size(); i++) {
+        values[i] = columns.get(i).getLabel();
+      }
+      writeRow(writer, values, separator);
+
+      layout.writeRows(personList, sinceChangeSequence, new PersonListSheetLayout.RowWriter() {
+        @Override
+        public void startRow(int rowIndex) {
+          if (progressListener.isCancelled())
+            throw new CancellationException();
+          Arrays.fill(values, null);
+          progressListener.progress((double) rowIndex / rowCount);
+        }
+
+        @Override
+        public void cell(int columnIndex, Property<?> property) {
+          values[columnIndex] = format(property.getValue(), csv);
+        }
+
+        @Override
+        public void endRow() {
+          try {
+            writeRow(writer, values, separator);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (CancellationException e) {
+      Files.deleteIfExists(path); // Partial file
+      throw e;
+    }
+  }
+
+  /**
+   * Checkbox value from CSV text, "FALSE" written by export and "0" are false. Excel cells are read with
+   * {@link com.knemerzitski.isikreg.utils.ExcelUtils#getCellBoolean}.
+   */
+  static boolean parseBoolean(String text) {
+    String value = text.trim();
+    return !value.isEmpty() && !value.equalsIgnoreCase("FALSE") && !value.equals("0");
+  }
+
+  private static String format(Object value, Settings.Csv csv) {
+    if (value instanceof Date) {
+      Date date = (Date) value;
+      return date.hasTime() ? csv.dateTimeFormat.format(date.getLocalDateTime()) : csv.dateFormat.format(date.getLocalDate());
+    } else if (value instanceof Boolean) {
+      return (Boolean) value ? "TRUE" : "FALSE";
+    }
+    return String.valueOf(value);
+  }
+
+  private static void writeRow(Writer writer, String[] values, char separator) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0)
+        writer.write(separator);
+      if (values[i] != null)
+        writeValue(writer, values[i], separator);
+    }
+    writer.write(LINE_SEPARATOR);
+  }
+
+  private static void writeValue(Writer writer, String value, char separator) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == separator || c == QUOTE || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      writer.write(value);
+      return;
+    }
+    writer.write(QUOTE);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == QUOTE)
+        writer.write(QUOTE);
+      writer.write(c);
+    }
+    writer.write(QUOTE);
+  }
+
+}
@@ -0,0 +1,253 @@
+package com.knemerzitski.isikreg.person;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads xlsx sheet row by row with SAX, workbook is never loaded to memory.
+ * Formula cells are read from cached values, formulas are not evaluated.
+ */
+class ExcelSheetReader {
+
+  interface RowHandler {
+
+    /**
+     * @param lastRowIndex Last row index from sheet dimension
+     */
+    void dimension(int firstRowIndex, int lastRowIndex);
+
+    /**
+     * @param row Reused for the next row, must not be kept
+     */
+    void row(SheetRow row);
+  }
+
+  static class SheetCell {
+    final CellValue value;
+    final String formatString;
+
+    SheetCell(CellValue value, String formatString) {
+      this.value = value;
+      this.formatString = formatString;
+    }
+  }
+
+  static class SheetRow {
+    private SheetCell[] cells = new SheetCell[16];
+    private int rowIndex;
+    private int lastCellIndex = -1;
+
+    int getRowIndex() {
+      return rowIndex;
+    }
+
+    /**
+     * @return Last cell index with value or -1 if row is empty
+     */
+    int getLastCellIndex() {
+      return lastCellIndex;
+    }
+
+    SheetCell get(int cellIndex) {
+      return cellIndex <= lastCellIndex ? cells[cellIndex] : null;
+    }
+
+    void set(int cellIndex, SheetCell cell) {
+      if (cellIndex >= cells.length)
+        cells = Arrays.copyOf(cells, Math.max(cells.length * 2, cellIndex + 1));
+      cells[cellIndex] = cell;
+      lastCellIndex = Math.max(lastCellIndex, cellIndex);
+    }
+
+    void reset(int rowIndex) {
+      Arrays.fill(cells, 0, lastCellIndex + 1, null);
+      lastCellIndex = -1;
+      this.rowIndex = rowIndex;
+    }
+  }
+
+  private ExcelSheetReader() {
+  }
+
+  /**
+   * Reads sheet with given name or the first sheet if it doesn't exist
+   */
+  static void read(Path path, String sheetName, RowHandler rowHandler) throws IOException {
+    OPCPackage pkg = open(path);
+    try {
+      XSSFReader reader = new XSSFReader(pkg);
+      ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+      StylesTable styles = reader.getStylesTable();
+
+      XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+      InputStream sheet = null;
+      while (sheets.hasNext()) {
+        InputStream is = sheets.next();
+        if (sheet == null || sheets.getSheetName().equals(sheetName)) {
+          if (sheet != null)
+            sheet.close();
+          sheet = is;
+        } else {
+          is.close();
+        }
+      }
+      if (sheet == null)
+        return;
+
+      try (InputStream is = sheet) {
+        XMLReader xmlReader = SAXHelper.newXMLReader();
+        xmlReader.setContentHandler(new SheetHandler(sharedStrings, styles, rowHandler));
+        xmlReader.parse(new InputSource(is));
+      }
+    } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+      throw new IOException(e);
+    } finally {
+      pkg.revert();
+    }
+  }
+
+  private static OPCPackage open(Path path) throws IOException {
+    try {
+      if (path.getFileSystem() == FileSystems.getDefault())
+        return OPCPackage.open(path.toFile(), PackageAccess.READ);
+      try (InputStream is = Files.newInputStream(path)) {
+        return OPCPackage.open(is);
+      }
+    } catch (OpenXML4JException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static class SheetHandler extends DefaultHandler {
+
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final RowHandler rowHandler;
+
+    private final Map<Integer, String> formatStrings = new HashMap<>();
+    private final SheetRow row = new SheetRow();
+    private final StringBuilder text = new StringBuilder();
+
+    private boolean collectText;
+    private int nextRowIndex;
+    private int cellIndex;
+    private String cellType;
+    private String cellStyle;
+
+    private SheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles, RowHandler rowHandler) {
+      this.sharedStrings = sharedStrings;
+      this.styles = styles;
+      this.rowHandler = rowHandler;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      switch (name(localName, qName)) {
+        case "dimension":
+          String ref = attributes.getValue("ref");
+          if (ref != null) {
+            String[] range = ref.split(":");
+            rowHandler.dimension(new CellReference(range[0]).getRow(), new CellReference(range[range.length - 1]).getRow());
+          }
+          break;
+        case "row":
+          String r = attributes.getValue("r");
+          int rowIndex = r != null ? Integer.parseInt(r) - 1 : nextRowIndex;
+          row.reset(rowIndex);
+          nextRowIndex = rowIndex + 1;
+          cellIndex = 0;
+          break;
+        case "c":
+          String cellRef = attributes.getValue("r");
+          if (cellRef != null)
+            cellIndex = new CellReference(cellRef).getCol();
+          cellType = attributes.getValue("t");
+          cellStyle = attributes.getValue("s");
+          text.setLength(0);
+          break;
+        case "v":
+        case "t": // Inline string
+          collectText = true;
+          break;
+      }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (collectText)
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      switch (name(localName, qName)) {
+        case "v":
+        case "t":
+          collectText = false;
+          break;
+        case "c":
+          CellValue value = toCellValue();
+          if (value != null)
+            row.set(cellIndex, new SheetCell(value, formatString()));
+          cellIndex++;
+          break;
+        case "row":
+          rowHandler.row(row);
+          break;
+      }
+    }
+
+    private CellValue toCellValue() {
+      String value = text.toString();
+      if (cellType == null)
+        cellType = "n";
+      switch (cellType) {
+        case "s":
+          return value.isEmpty() ? null : new CellValue(sharedStrings.getEntryAt(Integer.parseInt(value)));
+        case "inlineStr":
+        case "str": // Formula cached string
+          return new CellValue(value);
+        case "b":
+          return CellValue.valueOf(value.equals("1"));
+        case "n":
+          return value.isEmpty() ? null : new CellValue(Double.parseDouble(value));
+        default: // Error
+          return null;
+      }
+    }
+
+    private String formatString() {
+      if (cellStyle == null || styles == null)
+        return null;
+      int styleIndex = Integer.parseInt(cellStyle);
+      return formatStrings.computeIfAbsent(styleIndex, i -> styles.getStyleAt(i).getDataFormatString());
+    }
+
+    private static String name(String localName, String qName) {
+      return localName != null && !localName.isEmpty() ? localName : qName;
+    }
+  }
+
+}
@@ -0,0 +1,255 @@
+package com.knemerzitski.isikreg.person;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.threading.TaskExecutor;
+import com.knemerzitski.isikreg.utils.ExcelUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Imports lists that are added or changed in a folder. Only rows that have changed since the last
+ * import of the same file are merged, also after restart. People are added in small batches on the FX thread, so
+ * card reading and the table stay usable during the import.
+ */
+public class FolderImporter {
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private static final String ROW_HASHES_EXT = ".import.json";
+  private static final Type ROW_HASHES_TYPE = new TypeToken<Map<String, Set<Long>>>() {
+  }.getType();
+
+  private final Settings settings;
+  private final PersonList personList;
+  private final TaskExecutor taskExecutor;
+
+  // Row hashes of the last successful import by file name, only used while holding importLock
+  private Map<String, Set<Long>> rowHashes = new HashMap<>();
+  private final Object importLock = new Object();
+  private final Gson gson = new Gson();
+
+  // Pending imports by file, only used while holding scheduledImports
+  private final Map<Path, ScheduledFuture<?>> scheduledImports = new HashMap<>();
+
+  private Path folder;
+  private Path rowHashesPath;
+  private WatchService watchService;
+  private volatile boolean running;
+
+  public FolderImporter(Settings settings, PersonList personList, TaskExecutor taskExecutor) {
+    this.settings = settings;
+    this.personList = personList;
+    this.taskExecutor = taskExecutor;
+  }
+
+  public static boolean isImportable(Path path) {
+    String name = path.getFileName().toString().toLowerCase();
+    if (name.startsWith("~$") || name.startsWith(".")) // Excel lock and hidden files
+      return false;
+    return name.endsWith(".xlsx") || CsvSheet.isCsv(path);
+  }
+
+  /**
+   * Imports files already in the folder and starts watching it for changes
+   */
+  public void start(Path folder) throws IOException {
+    this.folder = folder.toAbsolutePath().normalize();
+    rowHashesPath = folder.getFileSystem().getPath(settings.general.savePath + ROW_HASHES_EXT);
+    readRowHashes();
+    watchService = folder.getFileSystem().newWatchService();
+    this.folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    running = true;
+
+    scheduleAll();
+    taskExecutor.execute(TaskExecutor.Pool.WAIT, this::watch);
+  }
+
+  public void stop() {
+    running = false;
+    synchronized (scheduledImports) {
+      scheduledImports.values().forEach(f -> f.cancel(false));
+      scheduledImports.clear();
+    }
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void watch() {
+    while (running) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          scheduleAll();
+        } else {
+          Path path = folder.resolve((Path) event.context());
+          if (isImportable(path))
+            schedule(path, 1);
+        }
+      }
+      if (!key.reset())
+        return;
+    }
+  }
+
+  private void scheduleAll() {
+    try (Stream<Path> paths = Files.list(folder)) {
+      paths.filter(FolderImporter::isImportable).forEach(path -> schedule(path, 1));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * File is imported after it hasn't changed for a while, it might still be written to
+   */
+  private void schedule(Path path, int attempt) {
+    if (!running)
+      return;
+    synchronized (scheduledImports) {
+      ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+      future[0] = taskExecutor.schedule(() -> {
+        synchronized (scheduledImports) {
+          scheduledImports.remove(path, future[0]);
+        }
+        taskExecutor.execute(TaskExecutor.Pool.FILE_IO, () -> importFile(path, attempt));
+        return null;
+      }, settings.general.autoImportDelay, TimeUnit.MILLISECONDS);
+      ScheduledFuture<?> previous = scheduledImports.put(path, future[0]);
+      if (previous != null)
+        previous.cancel(false);
+    }
+  }
+
+  private void importFile(Path path, int attempt) {
+    if (!running || !Files.isRegularFile(path))
+      return;
+    synchronized (importLock) {
+      String name = path.getFileName().toString();
+      Set<Long> previousHashes = rowHashes.getOrDefault(name, Collections.emptySet());
+      Set<Long> hashes = new HashSet<>();
+      List<Person> people = new ArrayList<>();
+
+      PersonListExcelReader reader = new PersonListExcelReader(settings, taskExecutor) {
+        @Override
+        protected void process(List<Person> readPeople) {
+          people.addAll(readPeople);
+        }
+
+        @Override
+        boolean acceptRow(Path filePath, ExcelSheetReader.SheetCell[] cells) {
+          long hash = hash(cells);
+          hashes.add(hash);
+          return !previousHashes.contains(hash);
+        }
+      };
+      try {
+        reader.read(Collections.singletonList(path));
+      } catch (IOException e) {
+        if (attempt < MAX_ATTEMPTS)
+          schedule(path, attempt + 1);
+        else
+          e.printStackTrace();
+        return;
+      }
+
+      try {
+        // Rows are skipped next time only after they have been added
+        boolean added = personList.getCommandQueue().addAll(people, new ProgressListener() {
+          @Override
+          public void start() {
+          }
+
+          @Override
+          public void progress(double percent) {
+          }
+
+          @Override
+          public void stop() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return !running;
+          }
+        });
+        if (added) {
+          rowHashes.put(name, hashes);
+          // Person list is saved first, so rows aren't skipped after restart if it wasn't saved
+          personList.waitForWritingFinished();
+          writeRowHashes();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  Path getRowHashesPath() {
+    return rowHashesPath;
+  }
+
+  private void readRowHashes() {
+    synchronized (importLock) {
+      if (!Files.exists(rowHashesPath))
+        return;
+      try (Reader reader = Files.newBufferedReader(rowHashesPath, StandardCharsets.UTF_8)) {
+        Map<String, Set<Long>> hashes = gson.fromJson(reader, ROW_HASHES_TYPE);
+        if (hashes != null)
+          rowHashes = new HashMap<>(hashes);
+      } catch (IOException | JsonParseException e) {
+        e.printStackTrace(); // Every row is imported again
+      }
+    }
+  }
+
+  private void writeRowHashes() {
+    Path tmpPath = rowHashesPath.resolveSibling(rowHashesPath.getFileName() + ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+        gson.toJson(rowHashes, ROW_HASHES_TYPE, writer);
+      }
+      Files.move(tmpPath, rowHashesPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static long hash(ExcelSheetReader.SheetCell[] cells) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (ExcelSheetReader.SheetCell cell : cells) {
+      String value = cell != null ? ExcelUtils.getCellString(cell.value) : null;
+      if (value == null) {
+        hasher.putInt(-1);
+      } else {
+        hasher.putInt(value.length());
+        hasher.putString(value, StandardCharsets.UTF_8);
+      }
+    }
+    return hasher.hash().asLong();
+  }
+
+}
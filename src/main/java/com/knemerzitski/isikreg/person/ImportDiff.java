@@ -0,0 +1,196 @@
+package com.knemerzitski.isikreg.person;
+
+import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
+import com.knemerzitski.isikreg.settings.ColumnProperties;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.Property;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Changes that importing people would make to the person list.
+ * Computed without modifying the list, people are added only when the diff is applied.
+ */
+public class ImportDiff {
+
+  private static final int BATCH_SIZE = 500;
+
+  private final List<Person> people;
+
+  private int newPeople;
+  private int changedPeople;
+  private int unchangedPeople;
+  private int addedRegistrations;
+
+  // Number of people or registrations that have a different value in the list, by column
+  private final Map<Column, Integer> conflicts = new LinkedHashMap<>();
+
+  private ImportDiff(List<Person> people) {
+    this.people = people;
+  }
+
+  /**
+   * Compares imported people to the list using the same rules as {@link Person#merge(Person)}.
+   * Must be called on the writer thread.
+   */
+  public static ImportDiff compute(PersonList personList, List<Person> people) {
+    ImportDiff diff = new ImportDiff(people);
+    diff.compare(findExisting(personList, people));
+    return diff;
+  }
+
+  /**
+   * Same as {@link #compute(PersonList, List)}, but existing people are captured in batches on the writer thread
+   * through {@link PersonList#getCommandQueue()} and compared to detached copies on the calling thread.
+   * Must not be called on the writer thread.
+   */
+  public static ImportDiff computeInBackground(PersonList personList, List<Person> people) throws InterruptedException {
+    ImportDiff diff = new ImportDiff(people);
+    Map<String, Person.SnapshotSource> existingPeople = new HashMap<>();
+    for (int i = 0; i < people.size(); i += BATCH_SIZE) {
+      List<Person> batch = people.subList(i, Math.min(people.size(), i + BATCH_SIZE));
+      try {
+        existingPeople.putAll(personList.getCommandQueue().submit(list -> findExisting(list, batch)).get());
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    diff.compare(existingPeople);
+    return diff;
+  }
+
+  private static Map<String, Person.SnapshotSource> findExisting(PersonList personList, List<Person> people) {
+    Map<String, Person.SnapshotSource> existingPeople = new HashMap<>();
+    synchronized (personList) {
+      for (Person person : people) {
+        Person existingPerson = personList.get(person.getPersonalCode());
+        if (existingPerson != null)
+          existingPeople.put(person.getPersonalCode(), existingPerson.snapshotSource());
+      }
+    }
+    return existingPeople;
+  }
+
+  private void compare(Map<String, Person.SnapshotSource> existingPeople) {
+    for (Person person : people) {
+      Person.SnapshotSource existingPerson = existingPeople.get(person.getPersonalCode());
+      if (existingPerson == null) {
+        newPeople++;
+        addedRegistrations += person.getRegistrations().stream().filter(r -> r.getRegisteredDate() != null).count();
+      } else if (compare(existingPerson.getCopy(), person)) {
+        changedPeople++;
+      } else {
+        unchangedPeople++;
+      }
+    }
+  }
+
+  /**
+   * @param existingPerson Detached copy, archived registrations are included in registrations
+   * @return true if merging person would change existing person
+   */
+  private boolean compare(Person existingPerson, Person person) {
+    boolean changed = compare(existingPerson.getProperties(), person.getProperties());
+    List<Registration> existingRegistrations = existingPerson.getRegistrations();
+    for (Registration registration : person.getRegistrations()) {
+      Registration sameRegistration = existingRegistrations.stream().filter(r -> r.same(registration)).findFirst().orElse(null);
+      if (sameRegistration == null) {
+        if (registration.getRegisteredDate() != null)
+          addedRegistrations++;
+        changed = true;
+      } else if (compare(sameRegistration.getProperties(), registration.getProperties())) {
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @param properties Properties of a detached copy, empty values are left out
+   */
+  private boolean compare(ColumnProperties properties, ColumnProperties newProperties) {
+    boolean changed = false;
+    for (Map.Entry<Column, Property<?>> entry : newProperties.entrySet()) {
+      Column column = entry.getKey();
+      Property<?> newProperty = entry.getValue();
+      Property<?> property = properties.get(column);
+      Object value = property != null ? property.getValue() : null;
+      Object newValue = newProperty.getValue();
+
+      Object mergedValue;
+      if (newProperty instanceof BooleanProperty) {
+        mergedValue = Boolean.TRUE.equals(value) || Boolean.TRUE.equals(newValue);
+      } else if (newProperty instanceof GsonBooleanProperty) {
+        mergedValue = value; // Merging keeps the existing checkbox value
+      } else {
+        mergedValue = ColumnProperties.mergeValue(column, value, newValue);
+      }
+      if (!isEmpty(value) && !isEmpty(newValue) && !value.equals(newValue))
+        conflicts.merge(column, 1, Integer::sum);
+      if (!(isEmpty(value) && isEmpty(mergedValue)) && !Objects.equals(value, mergedValue))
+        changed = true;
+    }
+    return changed;
+  }
+
+  private static boolean isEmpty(Object value) {
+    return value == null || (value instanceof String && ((String) value).trim().isEmpty());
+  }
+
+  /**
+   * Adds the people that the diff was computed for.
+   * List might have changed in the meantime, people are merged with its current state.
+   */
+  public List<Person> apply(PersonList personList) {
+    return personList.addAll(people, true, true);
+  }
+
+  /**
+   * Adds people in batches on the FX thread, see {@link PersonListCommandQueue#addAll(List, ProgressListener)}
+   */
+  public boolean apply(PersonList personList, ProgressListener progressListener) throws InterruptedException {
+    return personList.getCommandQueue().addAll(people, progressListener);
+  }
+
+  public int getNewPeople() {
+    return newPeople;
+  }
+
+  public int getChangedPeople() {
+    return changedPeople;
+  }
+
+  public int getUnchangedPeople() {
+    return unchangedPeople;
+  }
+
+  public int getAddedRegistrations() {
+    return addedRegistrations;
+  }
+
+  public Map<Column, Integer> getConflicts() {
+    return Collections.unmodifiableMap(conflicts);
+  }
+
+  public boolean hasChanges() {
+    return newPeople > 0 || changedPeople > 0;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Uusi isikuid: %d%n", newPeople));
+    sb.append(String.format("Muutuvaid isikuid: %d%n", changedPeople));
+    sb.append(String.format("Muutumata isikuid: %d%n", unchangedPeople));
+    sb.append(String.format("Lisanduvaid registreerimisi: %d", addedRegistrations));
+    if (!conflicts.isEmpty()) {
+      sb.append(String.format("%n%nErinevad väärtused (ühendamise reegel):"));
+      conflicts.forEach((column, count) ->
+          sb.append(String.format("%n%s (%s): %d", column.getLabel(), column.merge.rule, count)));
+    }
+    return sb.toString();
+  }
+
+}
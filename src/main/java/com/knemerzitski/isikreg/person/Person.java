@@ -5,16 +5,19 @@ import com.knemerzitski.isikreg.date.Date;
 import com.knemerzitski.isikreg.exception.AppQuitException;
 import com.knemerzitski.isikreg.gson.GsonDateProperty;
 import com.knemerzitski.isikreg.settings.ColumnProperties;
+import com.knemerzitski.isikreg.settings.CompiledSchema;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Type;
 import java.time.Duration;
 import java.time.LocalDateTime;
@@ -53,6 +56,123 @@ public class Person {
     }
   }
 
+  /**
+   * Parsed archived registrations of one archive JSON text
+   */
+  private static class LoadedArchive {
+    private final String json;
+    private final List<Registration> registrations;
+
+    private LoadedArchive(String json, List<Registration> registrations) {
+      this.json = json;
+      this.registrations = registrations;
+    }
+  }
+
+  /**
+   * Values of a person at one point in time. Capturing them doesn't create properties or listeners and doesn't
+   * parse the archive, the copy is built from them on first use on the thread that reads it.
+   */
+  static class SnapshotSource {
+    private final Settings settings;
+    private final RegistrationArchive archive;
+    private final String archivedRegistrations;
+    private final Map<Column, Object> values;
+    private final List<Map<Column, Object>> registrationValues;
+    private final long[] registrationChangeSequences;
+    private final long changeSequence;
+    private final long propertiesChangeSequence;
+
+    private volatile Person copy;
+
+    private SnapshotSource(Person person) {
+      settings = person.settings;
+      archive = person.registrationArchive;
+      archivedRegistrations = person.archivedRegistrations;
+      values = getValues(person.properties);
+      Registration[] registrations = person.registrations.toArray(new Registration[0]);
+      registrationValues = new ArrayList<>(registrations.length);
+      registrationChangeSequences = new long[registrations.length];
+      for (int i = 0; i < registrations.length; i++) {
+        registrationValues.add(getValues(registrations[i].getProperties()));
+        registrationChangeSequences[i] = registrations[i].getChangeSequence();
+      }
+      changeSequence = person.changeSequence;
+      propertiesChangeSequence = person.propertiesChangeSequence;
+    }
+
+    /**
+     * @return Detached copy without listeners, archived registrations are included in registrations
+     */
+    Person getCopy() {
+      Person copy = this.copy;
+      if (copy == null) {
+        synchronized (this) {
+          copy = this.copy;
+          if (copy == null) {
+            copy = build();
+            this.copy = copy;
+          }
+        }
+      }
+      return copy;
+    }
+
+    /**
+     * @return Copy or null if it hasn't been built yet
+     */
+    Person getBuiltCopy() {
+      return copy;
+    }
+
+    private Person build() {
+      Person copy = new Person(settings, false);
+      copy.properties = newProperties(values);
+      List<Registration> registrations = new ArrayList<>();
+      if (archive != null && archivedRegistrations != null)
+        registrations.addAll(archive.read(archivedRegistrations));
+      int archivedCount = registrations.size();
+      registrationValues.forEach(v -> registrations.add(new Registration(settings, newProperties(v))));
+      copy.registrations = copy.newRegistrationList();
+      copy.registrations.addAll(registrations);
+      copy.init(false, false);
+
+      for (int i = 0; i < registrationChangeSequences.length; i++)
+        registrations.get(archivedCount + i).markChanged(registrationChangeSequences[i]);
+      copy.markChanged(changeSequence, false);
+      copy.propertiesChangeSequence = propertiesChangeSequence;
+      return copy;
+    }
+
+    static Map<Column, Object> getValues(Map<Column, Property<?>> properties) {
+      Map<Column, Object> values = new HashMap<>();
+      properties.forEach((column, property) -> {
+        Object value = property.getValue();
+        if (value != null)
+          values.put(column, value);
+      });
+      return values;
+    }
+
+    private ColumnProperties newProperties(Map<Column, Object> values) {
+      return newProperties(settings, values);
+    }
+
+    @SuppressWarnings("unchecked")
+    static ColumnProperties newProperties(Settings settings, Map<Column, Object> values) {
+      ColumnProperties properties = new ColumnProperties(settings);
+      CompiledSchema schema = settings.getSchema();
+      values.forEach((column, value) -> {
+        Property<?> property = schema.newProperty(column);
+        if (property != null) {
+          ((Property<Object>) property).setValue(value);
+          properties.put(column, property);
+        }
+      });
+      return properties;
+    }
+  }
+
   public class RegistrationCheckProcess {
 
     private final LocalDateTime now = LocalDateTime.now();
@@ -145,6 +265,19 @@ public class Person {
   private List<Registration> registrations;
   private transient ObservableList<Registration> observableRegistrations;
   private transient ListChangeListener<Registration> latestRegisteredRegistrationsListener;
+  private transient RegistrationIndex registrationIndex;
+  private transient ChangeListener<Date> registrationDateListener;
+
+  private transient RegistrationArchive registrationArchive;
+  private transient String archivedRegistrations; // JSON array
+  private transient int archivedRegistrationCount;
+  private transient SoftReference<LoadedArchive> loadedArchive; // Parsed on first use, kept until memory runs low
+  private transient boolean archivingDisabled = false;
+
+  // Sequence numbers of the last change in the list, 0 if not changed since added
+  private transient long changeSequence;
+  private transient long propertiesChangeSequence;
+  private transient volatile SoftReference<SnapshotSource> snapshotSource; // Reused by snapshots until the person changes
 
   private transient boolean initialized = false;
   private transient boolean removed = false;
@@ -202,30 +335,33 @@ public class Person {
     if (properties == null)
       properties = new ColumnProperties(settings);
 
-    settings.getColumnsByGroup(Column.Group.PERSON).forEach(column -> {
+    CompiledSchema schema = settings.getSchema();
+    schema.getColumnsByGroup(Column.Group.PERSON).forEach(column -> {
       if (properties.get(column) == null) {
-        Property<?> property = settings.newProperty(column);
+        Property<?> property = schema.newProperty(column);
         if (property != null)
           properties.put(column, property);
       }
     });
 
 
-    Property<?> property = properties.get(settings.getColumn(Column.Id.PERSONAL_CODE));
+    properties.setBean(this);
+
+    Property<?> property = properties.get(schema.getColumn(Column.Id.PERSONAL_CODE));
     if (property instanceof StringProperty) {
       personalCodeProperty = (StringProperty) property;
     } else {
       personalCodeProperty = null;
     }
 
-    property = properties.get(settings.getColumn(Column.Id.LAST_NAME));
+    property = properties.get(schema.getColumn(Column.Id.LAST_NAME));
     if (property instanceof StringProperty) {
       lastNameProperty = (StringProperty) property;
     } else {
       lastNameProperty = null;
     }
 
-    property = properties.get(settings.getColumn(Column.Id.FIRST_NAME));
+    property = properties.get(schema.getColumn(Column.Id.FIRST_NAME));
     if (property instanceof StringProperty) {
       firstNameProperty = (StringProperty) property;
     } else {
@@ -234,7 +370,7 @@ public class Person {
 
     if (registrations == null)
       registrations = newRegistrationList();
-    registrations.forEach(r -> r.init(this));
+    registrations.forEach(r -> r.init(this, createListeners));
 
     observableRegistrations = FXCollections.observableList(registrations);
 
@@ -246,84 +382,40 @@ public class Person {
       registrations.clear();
 
       // Bind latest registration property
-      Map<ObjectProperty<Date>, ChangeListener<Date>> dateListeners = new IdentityHashMap<>();
+      registrationIndex = new RegistrationIndex();
+
+      registrationDateListener = (observable, oldDate, newDate) -> {
+        if (removed)
+          return;
+        Registration r = registrationIndex.update(observable);
+        if (r == null)
+          return;
+        registrationDateIndexed(r);
+        latestRegisteredProperty.set(registrationIndex.latest());
+      };
 
       latestRegisteredRegistrationsListener = c -> {
         while (c.next()) {
+          c.getRemoved().forEach(remR -> {
+            ObservableValue<Date> prop = registrationIndex.remove(remR);
+            if (prop != null)
+              prop.removeListener(registrationDateListener);
+          });
           c.getAddedSubList().forEach(newR -> {
-            ChangeListener<Date> listener = (observable, oldDate, newDate) -> {
-//              System.out.println("Registration date changed " + newDate);
-              Registration curR = latestRegisteredProperty.get();
-              if (curR == newR) {
-                Optional<Registration> findR = newR.getPerson().getRegistrations().stream().filter(r -> r != curR && r.getRegisteredDate() != null).max((o1, o2) -> {
-                  Date d1 = o1.getRegisteredDate();
-                  Date d2 = o2.getRegisteredDate();
-                  int compare = d1.compareTo(d2);
-                  if (compare == 0 && settings.general.warnDuplicateRegistrationDate) {
-                    runLaterSafe(() -> warnSameRegistrationDate(d1));
-                  }
-                  return compare;
-                });
-                if (findR.isPresent()) {
-                  latestRegisteredProperty.set(findR.get());
-                } else {
-                  latestRegisteredProperty.set(null);
-                }
-              } else {
-                // clicked on different registration
-                Date curDate = curR != null ? curR.getRegisteredDate() : null;
-//                System.out.println("Compare " + curDate + " " + newDate);
-                if (newDate != null && curDate != null) {
-                  int compare = newDate.compareTo(curDate);
-                  if (compare >= 1) {
-                    latestRegisteredProperty.set(newR);
-                  } else if (compare == 0 && settings.general.warnDuplicateRegistrationDate) {
-                    runLaterSafe(() -> {
-                      warnSameRegistrationDate(newDate);
-                    });
-                  }
-                } else if (newDate != null) {
-                  latestRegisteredProperty.set(newR);
-                } else if (curDate == null) {
-                  latestRegisteredProperty.set(null);
-                }
-              }
-
-              // Check if there already is same registration if so then remove it
-              for (Registration r : getRegistrations()) {
-                if (r == newR)
-                  continue;
-                if (r.equals(newR)) { // Remove identical registrations
-                  runLaterSafe(() -> getRegistrations().remove(newR));
-                  break;
-                }
-              }
-            };
             GsonDateProperty prop = newR.registeredDateProperty();
-            // also call listener????
-            dateListeners.put(prop, listener);
-            prop.addListener(listener);
-            if (prop.get() != null)
-              listener.changed(prop, null, prop.get());
-          });
-          c.getRemoved().forEach(remR -> {
-            if (latestRegisteredProperty.get() == remR) {
-              latestRegisteredProperty.set(null);
+            registrationIndex.add(newR, prop);
+            if (prop != null) {
+              prop.addListener(registrationDateListener);
+              if (prop.get() != null)
+                registrationDateIndexed(newR);
             }
-            ObjectProperty<Date> prop = remR.registeredDateProperty();
-            if (prop == null)
-              return;
-            ChangeListener<Date> listener = dateListeners.get(prop);
-            if (listener == null)
-              return;
-            prop.removeListener(listener);
-            dateListeners.remove(prop);
           });
         }
+        latestRegisteredProperty.set(registrationIndex.latest());
       };
       observableRegistrations.addListener(latestRegisteredRegistrationsListener);
 
-      registeredTypeProperty = new ReadOnlyStringWrapper(null);
+      registeredTypeProperty = new ReadOnlyStringWrapper(this, "registeredType", null);
       latestRegisteredPropertyListener = (observable, oldValue, reg) -> {
         if (reg == null) {
           registeredTypeProperty.unbind();
@@ -347,6 +439,18 @@ public class Person {
     return new CopyOnWriteArrayList<>();
   }
 
+  private void registrationDateIndexed(Registration r) {
+    if (settings.general.warnDuplicateRegistrationDate && registrationIndex.hasSameDate(r)) {
+      Date date = r.getRegisteredDate();
+      runLaterSafe(() -> warnSameRegistrationDate(date));
+    }
+
+    // Remove identical registrations
+    if (registrationIndex.findIdentical(r) != null) {
+      runLaterSafe(() -> getRegistrations().remove(r));
+    }
+  }
+
   private void warnSameRegistrationDate(Date date) {
     settings.dialogHandler.warning("Sama registreerimise aeg " + date.toIsoLocalString() + "!", getDisplayInfo());
   }
@@ -386,6 +490,11 @@ public class Person {
     if (observableRegistrations != null && latestRegisteredRegistrationsListener != null)
       observableRegistrations.removeListener(latestRegisteredRegistrationsListener);
     latestRegisteredRegistrationsListener = null;
+    if (registrationIndex != null)
+      registrationIndex.clear();
+    registrationIndex = null;
+    registrationDateListener = null;
+    clearArchivedRegistrations();
     if (latestRegisteredProperty != null && latestRegisteredPropertyListener != null)
       latestRegisteredProperty.removeListener(latestRegisteredPropertyListener);
     registeredTypeProperty.unbind();
@@ -574,6 +683,108 @@ public class Person {
     return observableRegistrations;
   }
 
+  void setArchivedRegistrations(RegistrationArchive archive, String json, int count) {
+    registrationArchive = archive;
+    archivedRegistrations = json;
+    archivedRegistrationCount = count;
+    loadedArchive = null;
+  }
+
+  void clearArchivedRegistrations() {
+    setArchivedRegistrations(null, null, 0);
+  }
+
+  String getArchivedRegistrationsJson() {
+    return archivedRegistrations;
+  }
+
+  public boolean hasArchivedRegistrations() {
+    return archivedRegistrations != null;
+  }
+
+  public int getArchivedRegistrationCount() {
+    return archivedRegistrationCount;
+  }
+
+  /**
+   * @return Change sequence of the last change to the person or any registration
+   */
+  public long getChangeSequence() {
+    return changeSequence;
+  }
+
+  /**
+   * @return Change sequence of the last change to the person properties
+   */
+  public long getPropertiesChangeSequence() {
+    return propertiesChangeSequence;
+  }
+
+  void markChanged(long sequence, boolean properties) {
+    changeSequence = sequence;
+    if (properties)
+      propertiesChangeSequence = sequence;
+  }
+
+  /**
+   * Must be called on the FX thread, so that the person doesn't change while capturing.
+   *
+   * @return Source from a previous snapshot if the person hasn't changed since, otherwise new values
+   */
+  SnapshotSource snapshotSource() {
+    SoftReference<SnapshotSource> reference = snapshotSource;
+    SnapshotSource source = reference != null ? reference.get() : null;
+    if (source == null || source.changeSequence != changeSequence) {
+      source = new SnapshotSource(this);
+      snapshotSource = new SoftReference<>(source);
+    }
+    return source;
+  }
+
+  /**
+   * @return Copy kept for the next snapshot, null if it hasn't been built or memory ran low
+   */
+  Person getCachedSnapshotCopy() {
+    SoftReference<SnapshotSource> reference = snapshotSource;
+    SnapshotSource source = reference != null ? reference.get() : null;
+    return source != null ? source.getBuiltCopy() : null;
+  }
+
+  boolean isArchivingDisabled() {
+    return archivingDisabled;
+  }
+
+  void setArchivingDisabled(boolean archivingDisabled) {
+    this.archivingDisabled = archivingDisabled;
+  }
+
+  /**
+   * @return Registrations including archived ones. Archived registrations are not in the person registrations, they
+   * are parsed on first use and shared by later calls until the archive changes.
+   */
+  public List<Registration> getAllRegistrations() {
+    List<Registration> archived = getArchivedRegistrations();
+    if (archived.isEmpty())
+      return registrations;
+    List<Registration> allRegistrations = new ArrayList<>(archived.size() + registrations.size());
+    allRegistrations.addAll(archived);
+    allRegistrations.addAll(registrations);
+    return allRegistrations;
+  }
+
+  private List<Registration> getArchivedRegistrations() {
+    RegistrationArchive archive = registrationArchive;
+    String json = archivedRegistrations;
+    if (archive == null || json == null)
+      return Collections.emptyList();
+    LoadedArchive loaded = loadedArchive != null ? loadedArchive.get() : null;
+    if (loaded == null || loaded.json != json) {
+      loaded = new LoadedArchive(json, Collections.unmodifiableList(archive.load(this, json)));
+      loadedArchive = new SoftReference<>(loaded);
+    }
+    return loaded.registrations;
+  }
+
   public Registration getLatestRegistration(Registration skipThis) {
     if (registrations.isEmpty())
       return null;
@@ -619,8 +830,8 @@ public class Person {
     if (p == null) return false;
     if (!properties.equals(p.properties)) return false;
 
-    List<Registration> remaining = new ArrayList<>(p.registrations);
-    for (Registration r : registrations) {
+    List<Registration> remaining = new ArrayList<>(p.getAllRegistrations());
+    for (Registration r : getAllRegistrations()) {
       boolean found = false;
       Iterator<Registration> itr = remaining.iterator();
       while (itr.hasNext()) {
@@ -2,6 +2,7 @@ package com.knemerzitski.isikreg.person;
 
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import com.knemerzitski.isikreg.exception.AppQuitException;
 import com.knemerzitski.isikreg.file.SafeSynchronizedStringFile;
 import com.knemerzitski.isikreg.gson.GsonDateProperty;
@@ -10,11 +11,14 @@ import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.settings.columns.ComboBoxColumn;
 import com.knemerzitski.isikreg.threading.TaskExecutor;
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.*;
 
 import java.io.IOException;
@@ -23,6 +27,10 @@ import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObject>, Person> {
@@ -45,35 +53,20 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
     }
   }
 
-  private static class PersonListeners {
-    final ChangeListener<String> registeredListener;
-    final ChangeListener<String> personalCodeListener;
-    final ChangeListener<Object> propertyListener;
-    final ListChangeListener<Registration> listListener;
-
-    public PersonListeners(ChangeListener<String> registeredListener,
-                           ChangeListener<String> personalCodeListener,
-                           ChangeListener<Object> propertyListener,
-                           ListChangeListener<Registration> listListener) {
-      this.registeredListener = registeredListener;
-      this.personalCodeListener = personalCodeListener;
-      this.propertyListener = propertyListener;
-      this.listListener = listListener;
-    }
-  }
-
   private static final String EXT = ".json";
 
+  private static final int ARCHIVE_BATCH_SIZE = 200;
+  private static final int MAX_CHANGE_SEQUENCE_TIMES = 4096;
+
 
   protected final Settings settings;
 
   private final Gson gson;
+  private final RegistrationArchive registrationArchive;
 
   private final ObservableMap<String, Person> personMap = FXCollections.observableHashMap();
   private final ObservableList<Person> unmodifiableList;
 
-  private final Map<Person, PersonListeners> personListenersMap = new IdentityHashMap<>();
-
   private final Map<String, IntegerProperty> registeredCountProperties = new LinkedHashMap<>();
   private final IntegerProperty sizeProperty = new SimpleIntegerProperty(0);
 
@@ -81,6 +74,74 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
 
   private boolean personMapToListListenerDisabled = false;
 
+  private final AtomicBoolean archiving = new AtomicBoolean();
+
+  private final AtomicLong changeSequence = new AtomicLong();
+  // Change sequence before the first change of every second that had changes, merged when there are too many
+  private final NavigableMap<Long, Long> changeSequenceTimes = new TreeMap<>();
+
+  private final List<PersonListSnapshot> openSnapshots = new ArrayList<>();
+
+  private final PersonListCommandQueue commandQueue = new PersonListCommandQueue(this, Platform::runLater);
+
+  // Listeners are shared by all people, owner is found from the property bean, which is the person or registration
+  private final ChangeListener<String> registeredCountListener = (observable, oldType, newType) -> {
+    IntegerProperty newCount = registeredCountProperties.get(newType);
+    if (newCount != null) {
+      newCount.set(newCount.get() + 1);
+    }
+    IntegerProperty oldCount = registeredCountProperties.get(oldType);
+    if (oldCount != null) {
+      oldCount.set(oldCount.get() - 1);
+    }
+  };
+
+  private final ChangeListener<String> personalCodeListener = (observable, oldValue, newValue) -> {
+    Person person = getOwner(observable);
+    if (person == null)
+      return;
+    if (newValue != null && !newValue.isEmpty()) {
+      if (!updatePersonalCode(oldValue, person)) {
+        // Prevent personal code change if personMap rejected it
+        person.personalCodeProperty().set(oldValue);
+      }
+    } else {
+      // Prevent empty personal code
+      person.personalCodeProperty().set(oldValue);
+    }
+  };
+
+  private final ChangeListener<Object> propertyListener = (observable, oldValue, newValue) -> {
+    Person person = getOwner(observable);
+    if (person != null) {
+      markChanged(person, observable);
+      writeItem(person);
+    }
+  };
+
+  private final ListChangeListener<Registration> registrationsListener = c -> {
+    Person person = null;
+    boolean removed = false;
+    while (c.next()) {
+      for (Registration r : c.getAddedSubList()) {
+        r.getProperties().values().forEach(prop -> prop.addListener(propertyListener));
+        r.markChanged(nextChangeSequence());
+        if (person == null)
+          person = r.getPerson();
+      }
+      for (Registration r : c.getRemoved()) {
+        r.getProperties().values().forEach(prop -> prop.removeListener(propertyListener));
+        if (person == null)
+          person = r.getPerson();
+        removed = true;
+      }
+    }
+    if (person != null && removed)
+      person.markChanged(nextChangeSequence(), false);
+    if (person != null)
+      writeItem(person);
+  };
+
 
   public PersonList(Settings settings, Path path, TaskExecutor taskExecutor) throws IOException {
     super(path.resolveSibling(path.getFileName() + EXT), taskExecutor);
@@ -118,6 +179,7 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
       gsonBuilder.setPrettyPrinting();
     }
     gson = gsonBuilder.create();
+    registrationArchive = new RegistrationArchive(settings, gson);
   }
 
   public ObservableList<Person> getUnmodifiableList() {
@@ -139,12 +201,17 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
     Person addPerson = null;
     if (existingPerson == null) {
       if (!person.getPersonalCode().isEmpty()) {
+        long sequence = nextChangeSequence();
+        person.markChanged(sequence, true);
+        person.getRegistrations().forEach(r -> r.markChanged(sequence));
         addListeners(person, read);
         personMap.put(person.getPersonalCode(), person);
         sizeProperty.set(personMap.size());
         addPerson = person;
       }
     } else {
+      // Merged registrations are compared to archived registrations as well
+      registrationArchive.restore(existingPerson);
       existingPerson.merge(person);
 //      existingPerson.merge(person, false);
       addPerson = existingPerson;
@@ -161,6 +228,86 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
     return add(person, true, false);
   }
 
+  /**
+   * Adds people while holding the list lock once
+   *
+   * @return Added or merged people
+   */
+  public synchronized List<Person> addAll(Collection<Person> people, boolean write, boolean read) {
+    List<Person> addedPeople = new ArrayList<>(people.size());
+    for (Person person : people) {
+      Person addedPerson = add(person, write, read);
+      if (addedPerson != null)
+        addedPeople.add(addedPerson);
+    }
+    return addedPeople;
+  }
+
+  /**
+   * @return Queue that runs list changes on the FX thread, used by threads other than the FX thread
+   */
+  public PersonListCommandQueue getCommandQueue() {
+    return commandQueue;
+  }
+
+  /**
+   * Only values of people changed since the previous snapshot are captured, others share the previous copy.
+   * Copies are built when the snapshot is read. Must be called on the FX thread, so that no person changes while
+   * capturing. Close the snapshot when done.
+   */
+  public synchronized PersonListSnapshot snapshot() {
+    List<Person.SnapshotSource> sources = new ArrayList<>(unmodifiableList.size());
+    for (Person person : unmodifiableList)
+      sources.add(person.snapshotSource());
+    PersonListSnapshot snapshot = new PersonListSnapshot(this, sources, changeSequence.get());
+    synchronized (openSnapshots) {
+      openSnapshots.add(snapshot);
+    }
+    return snapshot;
+  }
+
+  void releaseSnapshot(PersonListSnapshot snapshot) {
+    synchronized (openSnapshots) {
+      openSnapshots.remove(snapshot);
+    }
+  }
+
+  public int getOpenSnapshotCount() {
+    synchronized (openSnapshots) {
+      return openSnapshots.size();
+    }
+  }
+
+  /**
+   * @return Age of the oldest open snapshot in milliseconds or 0 if there are none
+   */
+  public long getOldestSnapshotAgeMillis() {
+    synchronized (openSnapshots) {
+      return openSnapshots.stream().mapToLong(PersonListSnapshot::getAgeMillis).max().orElse(0);
+    }
+  }
+
+  /**
+   * @return Distinct person copies that have been built and are still in memory, kept by open snapshots or for the
+   * next snapshot. Shared copies are counted once.
+   */
+  public List<Person> getRetainedSnapshotCopies() {
+    Set<Person> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+    synchronized (openSnapshots) {
+      openSnapshots.forEach(s -> s.addBuiltCopies(copies));
+    }
+    List<Person> people;
+    synchronized (this) {
+      people = new ArrayList<>(personMap.values());
+    }
+    for (Person person : people) {
+      Person copy = person.getCachedSnapshotCopy();
+      if (copy != null)
+        copies.add(copy);
+    }
+    return new ArrayList<>(copies);
+  }
+
   private boolean updatePersonalCode(String oldPersonalCode, Person person) {
     if (person.getPersonalCode().isEmpty()) return false;
 
@@ -244,17 +391,172 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
     System.gc();
   }
 
-  private void addListeners(Person person, boolean read) {
-    ChangeListener<String> registeredCountListener = (observable, oldType, newType) -> {
-      IntegerProperty newCount = registeredCountProperties.get(newType);
-      if (newCount != null) {
-        newCount.set(newCount.get() + 1);
+  /**
+   * Moves old registrations of every person to the archive.
+   *
+   * @return Number of archived registrations
+   */
+  public synchronized int archiveRegistrations() {
+    if (!registrationArchive.isEnabled())
+      return 0;
+    int count = 0;
+    for (Person person : personMap.values()) {
+      count += registrationArchive.archive(person);
+    }
+    return count;
+  }
+
+  /**
+   * Same as {@link #archiveRegistrations()}, but only serializing is done outside the FX thread. Old registrations
+   * are found and moved out of person registrations on the FX thread through {@link #getCommandQueue()}.
+   * Must not be called on the FX thread.
+   *
+   * @return Number of archived registrations
+   */
+  public int archiveRegistrationsInBackground() throws InterruptedException {
+    if (!registrationArchive.isEnabled() || !archiving.compareAndSet(false, true))
+      return 0;
+    try {
+      List<Person> people;
+      synchronized (this) {
+        people = new ArrayList<>(personMap.values());
       }
-      IntegerProperty oldCount = registeredCountProperties.get(oldType);
-      if (oldCount != null) {
-        oldCount.set(oldCount.get() - 1);
+      List<RegistrationArchive.Pending> pending = new ArrayList<>();
+      for (int i = 0; i < people.size(); i += ARCHIVE_BATCH_SIZE) {
+        List<Person> batch = people.subList(i, Math.min(people.size(), i + ARCHIVE_BATCH_SIZE));
+        pending.addAll(getCommandResult(commandQueue.submit(list -> {
+          List<RegistrationArchive.Pending> found = new ArrayList<>();
+          synchronized (list) {
+            for (Person person : batch) {
+              RegistrationArchive.Pending p = registrationArchive.find(person);
+              if (p != null)
+                found.add(p);
+            }
+          }
+          return found;
+        })));
       }
-    };
+
+      pending.forEach(registrationArchive::serialize);
+
+      int count = 0;
+      for (int i = 0; i < pending.size(); i += ARCHIVE_BATCH_SIZE) {
+        List<RegistrationArchive.Pending> batch = pending.subList(i, Math.min(pending.size(), i + ARCHIVE_BATCH_SIZE));
+        count += getCommandResult(commandQueue.submit(list -> {
+          int batchCount = 0;
+          synchronized (list) {
+            for (RegistrationArchive.Pending p : batch) {
+              batchCount += registrationArchive.apply(p);
+            }
+          }
+          return batchCount;
+        }));
+      }
+      return count;
+    } finally {
+      archiving.set(false);
+    }
+  }
+
+  private static <T> T getCommandResult(CompletableFuture<T> result) throws InterruptedException {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Archived registrations are added back to person registrations and are kept there until restart.
+   */
+  public void restoreArchivedRegistrations(Person person) {
+    restoreArchivedRegistrations(person, true);
+  }
+
+  /**
+   * @param keep Restored registrations are not archived again until restart
+   */
+  public synchronized void restoreArchivedRegistrations(Person person, boolean keep) {
+    if (keep)
+      person.setArchivingDisabled(true);
+    registrationArchive.restore(person);
+  }
+
+  public boolean isArchivingEnabled() {
+    return registrationArchive.isEnabled();
+  }
+
+  /**
+   * @return Current change sequence, every change to a person or registration increments it.
+   * Removed people and registrations are not tracked, delta export doesn't contain them.
+   */
+  public long getChangeSequence() {
+    return changeSequence.get();
+  }
+
+  /**
+   * @return Change sequence at the given time, changes during the same second are included. Older times are
+   * less precise and might include some earlier changes, but never miss a change.
+   */
+  public long getChangeSequenceAt(long timeMillis) {
+    synchronized (changeSequenceTimes) {
+      Map.Entry<Long, Long> entry = changeSequenceTimes.ceilingEntry(timeMillis / 1000 * 1000);
+      return entry != null ? entry.getValue() : changeSequence.get();
+    }
+  }
+
+  private long nextChangeSequence() {
+    long sequence = changeSequence.incrementAndGet();
+    synchronized (changeSequenceTimes) {
+      changeSequenceTimes.putIfAbsent(System.currentTimeMillis() / 1000 * 1000, sequence - 1);
+      if (changeSequenceTimes.size() > MAX_CHANGE_SEQUENCE_TIMES)
+        mergeChangeSequenceTimes(changeSequenceTimes);
+    }
+    return sequence;
+  }
+
+  /**
+   * Halves the map by merging every two adjacent entries. Merged entry keeps the later time and the earlier
+   * sequence, so a time within it gives an earlier sequence.
+   */
+  static void mergeChangeSequenceTimes(NavigableMap<Long, Long> changeSequenceTimes) {
+    Iterator<Map.Entry<Long, Long>> it = changeSequenceTimes.entrySet().iterator();
+    while (it.hasNext()) {
+      long sequence = it.next().getValue();
+      if (!it.hasNext())
+        break;
+      it.remove();
+      it.next().setValue(sequence);
+    }
+  }
+
+  private void markChanged(Person person, ObservableValue<?> observable) {
+    long sequence = nextChangeSequence();
+    Object bean = getBean(observable);
+    if (bean instanceof Registration) {
+      ((Registration) bean).markChanged(sequence);
+    } else {
+      person.markChanged(sequence, bean == person);
+    }
+  }
+
+  /**
+   * @return Person of a person or registration property
+   */
+  private static Person getOwner(ObservableValue<?> observable) {
+    Object bean = getBean(observable);
+    if (bean instanceof Registration)
+      return ((Registration) bean).getPerson();
+    if (bean instanceof Person)
+      return (Person) bean;
+    return null;
+  }
+
+  private static Object getBean(ObservableValue<?> observable) {
+    return observable instanceof ReadOnlyProperty ? ((ReadOnlyProperty<?>) observable).getBean() : null;
+  }
+
+  private void addListeners(Person person, boolean read) {
     if (read) {
       IntegerProperty count = registeredCountProperties.get(person.getRegisteredType());
       if (count != null) {
@@ -263,57 +565,23 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
     }
 
     person.registeredTypeProperty().addListener(registeredCountListener);
-
-    ChangeListener<String> personalCodeListener = (observable, oldValue, newValue) -> {
-      if (newValue != null && !newValue.isEmpty()) {
-        if (!updatePersonalCode(oldValue, person)) {
-          // Prevent personal code change if personMap rejected it
-          person.personalCodeProperty().set(oldValue);
-        }
-      } else {
-        // Prevent empty personal code
-        person.personalCodeProperty().set(oldValue);
-      }
-    };
     person.personalCodeProperty().addListener(personalCodeListener);
-
-    ChangeListener<Object> propListener = (observable, oldValue, newValue) -> {
-      writeItem(person);
-    };
-    person.getProperties().values().forEach(prop -> prop.addListener(propListener));
-    person.getRegistrations().forEach(r -> r.getProperties().values().forEach(prop -> prop.addListener(propListener)));
-    ListChangeListener<Registration> listListener = c -> {
-      while (c.next()) {
-        c.getAddedSubList().forEach(r -> r.getProperties().values().forEach(prop -> prop.addListener(propListener)));
-        c.getRemoved().forEach(r -> r.getProperties().values().forEach(prop -> prop.removeListener(propListener)));
-      }
-      writeItem(person);
-    };
-    person.getRegistrations().addListener(listListener);
-
-    personListenersMap.put(person, new PersonListeners(registeredCountListener, personalCodeListener, propListener, listListener));
+    person.getProperties().values().forEach(prop -> prop.addListener(propertyListener));
+    person.getRegistrations().forEach(r -> r.getProperties().values().forEach(prop -> prop.addListener(propertyListener)));
+    person.getRegistrations().addListener(registrationsListener);
   }
 
   private void removeListenersExceptRegisteredProperty(Person person) {
-    PersonListeners personListeners = personListenersMap.get(person);
-    if (personListeners == null)
-      return;
-    person.personalCodeProperty().removeListener(personListeners.personalCodeListener);
-
-    ChangeListener<Object> propListener = personListeners.propertyListener;
-    person.getProperties().values().forEach(prop -> prop.removeListener(propListener));
-    person.getRegistrations().forEach(r -> r.getProperties().values().forEach(prop -> prop.removeListener(propListener)));
-    person.getRegistrations().removeListener(personListeners.listListener);
+    person.personalCodeProperty().removeListener(personalCodeListener);
+    person.getProperties().values().forEach(prop -> prop.removeListener(propertyListener));
+    person.getRegistrations().forEach(r -> r.getProperties().values().forEach(prop -> prop.removeListener(propertyListener)));
+    person.getRegistrations().removeListener(registrationsListener);
   }
 
   private void removeListeners(Person person) {
     // remove all listeners
     removeListenersExceptRegisteredProperty(person);
-    PersonListeners personListeners = personListenersMap.get(person);
-    if (personListeners == null)
-      return;
-    person.registeredTypeProperty().removeListener(personListeners.registeredListener);
-    personListenersMap.remove(person);
+    person.registeredTypeProperty().removeListener(registeredCountListener);
   }
 
   @Override
@@ -326,6 +594,7 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
       Collection<Person> values = newList.values();
       values.forEach(p -> {
         p.init();
+        registrationArchive.archive(p);
         add(p, false, true);
       });
 
@@ -373,8 +642,15 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
 
   @Override
   protected boolean write(OutputStreamWriter writer, String name) throws IOException {
-    gson.toJson(personMap, writer);
-    writer.flush();
+    // Written person by person to include archived registrations
+    JsonWriter jsonWriter = gson.newJsonWriter(writer);
+    jsonWriter.beginObject();
+    for (Map.Entry<String, Person> entry : personMap.entrySet()) {
+      jsonWriter.name(entry.getKey());
+      gson.toJson(registrationArchive.toJson(entry.getValue()), jsonWriter);
+    }
+    jsonWriter.endObject();
+    jsonWriter.flush();
     return true;
   }
 
@@ -392,7 +668,7 @@ public class PersonList extends SafeSynchronizedStringFile<Map<String, JsonObjec
     String personalCode = person.getPersonalCode();
     if (personalCode == null || personalCode.isEmpty())
       throw new AppQuitException("Tried to write Person with empty PERSONAL_CODE");
-    jsonPersonMap.put(personalCode, gson.toJsonTree(person).getAsJsonObject());
+    jsonPersonMap.put(personalCode, registrationArchive.toJson(person));
   }
 
   @Override
@@ -0,0 +1,102 @@
+package com.knemerzitski.isikreg.person;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Single writer of the person list. Commands from any thread are queued and run one after another on the writer
+ * thread, which is the FX thread in the app, so list properties and listeners are only changed on one thread.
+ * Queued commands are run in batches, a batch ends when the queue is empty or the batch time is used up.
+ */
+public class PersonListCommandQueue {
+
+  private static final int ADD_BATCH_SIZE = 200;
+  private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+
+  private static class Command<T> {
+    private final Function<PersonList, T> function;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private Command(Function<PersonList, T> function) {
+      this.function = function;
+    }
+
+    private void run(PersonList personList) {
+      try {
+        result.complete(function.apply(personList));
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+
+  private final PersonList personList;
+  private final Executor writer;
+
+  private final Queue<Command<?>> commands = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+  /**
+   * @param writer Runs the draining of the queue, must run tasks one at a time on the same thread
+   */
+  PersonListCommandQueue(PersonList personList, Executor writer) {
+    this.personList = personList;
+    this.writer = writer;
+  }
+
+  /**
+   * @return Result of the command once it has run on the writer thread
+   */
+  public <T> CompletableFuture<T> submit(Function<PersonList, T> command) {
+    Command<T> c = new Command<>(command);
+    commands.offer(c);
+    if (drainScheduled.compareAndSet(false, true))
+      writer.execute(this::drain);
+    return c.result;
+  }
+
+  /**
+   * Adds people in batches and waits for every batch, so that other commands and FX tasks like card registrations
+   * run in between. Must not be called on the writer thread.
+   *
+   * @return false if cancelled before all people were added
+   */
+  public boolean addAll(List<Person> people, ProgressListener progressListener) throws InterruptedException {
+    for (int i = 0; i < people.size(); i += ADD_BATCH_SIZE) {
+      if (progressListener.isCancelled())
+        return false;
+      List<Person> batch = people.subList(i, Math.min(people.size(), i + ADD_BATCH_SIZE));
+      try {
+        submit(list -> list.addAll(batch, true, true)).get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+      progressListener.progress((double) (i + batch.size()) / people.size());
+    }
+    return true;
+  }
+
+  public int getQueuedCount() {
+    return commands.size();
+  }
+
+  private void drain() {
+    long start = System.nanoTime();
+    Command<?> command;
+    while ((command = commands.poll()) != null) {
+      command.run(personList);
+      if (System.nanoTime() - start > BATCH_NANOS) {
+        writer.execute(this::drain); // Let other writer thread tasks run before next batch
+        return;
+      }
+    }
+    drainScheduled.set(false);
+    // Command might have been queued after polling but before the flag was cleared
+    if (!commands.isEmpty() && drainScheduled.compareAndSet(false, true))
+      writer.execute(this::drain);
+  }
+
+}
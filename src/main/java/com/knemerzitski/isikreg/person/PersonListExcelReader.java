@@ -2,8 +2,6 @@ package com.knemerzitski.isikreg.person;
 
 import com.knemerzitski.isikreg.date.Date;
 import com.knemerzitski.isikreg.exception.AppQuitException;
-import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
-import com.knemerzitski.isikreg.gson.GsonDateProperty;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.settings.columns.TypeGroupedColumn;
@@ -12,24 +10,30 @@ import com.knemerzitski.isikreg.threading.TaskExecutor;
 import com.knemerzitski.isikreg.utils.ExcelUtils;
 import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
-import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.ss.usermodel.FormulaEvaluator;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public abstract class PersonListExcelReader {
 
@@ -75,6 +79,11 @@ public abstract class PersonListExcelReader {
       try{
         progressListener.start();
         return read(paths, progressListener);
+      } catch (UncheckedIOException e) {
+        throw new AppQuitException(e.getCause());
+      } catch (CancellationException e) {
+        System.out.println("Reading " + paths + " cancelled");
+        return false;
       }finally {
         readingAwait.setAwaiting(false);
         System.gc();
@@ -83,188 +92,410 @@ public abstract class PersonListExcelReader {
     };
 
     readingAwait.setAwaiting(true);
-    taskExecutor.submit(task);
+    taskExecutor.submit(TaskExecutor.Pool.FILE_IO, task);
   }
 
-  protected abstract void process(Person person);
+  /**
+   * Reads on the calling thread, failed reading doesn't quit the app
+   */
+  void read(List<Path> paths) throws IOException {
+    try {
+      read(paths, new ProgressListener() {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void progress(double percent) {
+        }
+
+        @Override
+        public void stop() {
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * @param people People from all files, duplicates are already merged
+   */
+  protected abstract void process(List<Person> people);
+
+  /**
+   * Called on the reading thread of the file for every row after header
+   *
+   * @param cells Cells of header columns, null if row has no value for the column
+   * @return false to skip the row
+   */
+  boolean acceptRow(Path path, ExcelSheetReader.SheetCell[] cells) {
+    return true;
+  }
 
   private boolean read(List<Path> paths, ProgressListener progressListener) {
+    StagedPerson.Layout layout = new StagedPerson.Layout(settings);
+    int partitionCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+
     // each file should get a fraction
     int fileCount = paths.size();
     DoubleProperty progress = new SimpleDoubleProperty();
-    paths.parallelStream().forEach(path -> {
-      IntegerProperty count = new SimpleIntegerProperty(0);
-      IntegerProperty totalCount = new SimpleIntegerProperty(0);
-      DoubleProperty fileProgress = new SimpleDoubleProperty(0);
-      ChangeListener<Number> listener = (observable, oldValue, newValue) -> {
-        if (count.get() >= 0 && totalCount.get() > 0) {
-          double newFileProgress = count.doubleValue() / totalCount.doubleValue();
-          synchronized (progress) {
-            progress.set(1f / fileCount * (newFileProgress - fileProgress.get()) + progress.get());
-            progressListener.progress(progress.get());
+    // Files are parsed on FILE_IO, a file that hasn't been started yet is parsed on this thread
+    List<FutureTask<List<CompletableFuture<List<List<StagedPerson>>>>>> fileTasks = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      int fileIndex = i;
+      FutureTask<List<CompletableFuture<List<List<StagedPerson>>>>> fileTask = new FutureTask<>(() -> {
+        Path path = paths.get(fileIndex);
+        IntegerProperty count = new SimpleIntegerProperty(0);
+        IntegerProperty totalCount = new SimpleIntegerProperty(0);
+        DoubleProperty fileProgress = new SimpleDoubleProperty(0);
+        ChangeListener<Number> listener = (observable, oldValue, newValue) -> {
+          if (count.get() >= 0 && totalCount.get() > 0) {
+            double newFileProgress = count.doubleValue() / totalCount.doubleValue();
+            synchronized (progress) {
+              progress.set(1f / fileCount * (newFileProgress - fileProgress.get()) + progress.get());
+              progressListener.progress(progress.get());
+            }
+            fileProgress.set(newFileProgress);
           }
-          fileProgress.set(newFileProgress);
-        }
-      };
-      count.addListener(listener);
-      totalCount.addListener(listener);
-      try {
-        Collection<Person> people = parse(path, count, totalCount);
-        if (people != null) {
-          people.forEach(p -> {
-            count.set(count.get() + 1);
-            process(p);
-          });
-        } else {
+        };
+        count.addListener(listener);
+        totalCount.addListener(listener);
+        try {
+          return parse(path, new SheetParser(path, layout, fileIndex, partitionCount, count, totalCount, progressListener));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } finally {
           count.set(totalCount.get());
+          count.removeListener(listener);
+          totalCount.removeListener(listener);
+        }
+      });
+      fileTasks.add(fileTask);
+      if (fileIndex > 0) {
+        try {
+          taskExecutor.execute(TaskExecutor.Pool.FILE_IO, fileTask::run);
+        } catch (RejectedExecutionException ignored) {
+          // Parsed on this thread
         }
-      } catch (IOException e) {
-        throw new AppQuitException(e);
-      } finally {
-        count.removeListener(listener);
-        totalCount.removeListener(listener);
       }
-    });
+    }
+    List<List<CompletableFuture<List<List<StagedPerson>>>>> files = new ArrayList<>(fileCount);
+    for (FutureTask<List<CompletableFuture<List<List<StagedPerson>>>>> fileTask : fileTasks) {
+      fileTask.run(); // Does nothing if already started on FILE_IO
+      files.add(getResult(fileTask));
+    }
+
+    // Row chunks in file and row order
+    List<List<List<StagedPerson>>> chunks = files.stream().flatMap(List::stream)
+        .map(CompletableFuture::join).collect(Collectors.toList());
+
+    // Each partition owns its personal codes, so it's merged without locks
+    Executor cpuExecutor = taskExecutor.executor(TaskExecutor.Pool.CPU);
+    List<CompletableFuture<Collection<StagedPerson>>> partitions = IntStream.range(0, partitionCount)
+        .mapToObj(partition -> CompletableFuture.supplyAsync(() -> {
+          Map<String, StagedPerson> stagedPeople = new HashMap<>();
+          for (List<List<StagedPerson>> chunk : chunks) {
+            for (StagedPerson stagedPerson : chunk.get(partition)) {
+              StagedPerson existing = stagedPeople.putIfAbsent(stagedPerson.getPersonalCode(), stagedPerson);
+              if (existing != null)
+                existing.merge(stagedPerson);
+            }
+          }
+          return stagedPeople.values();
+        }, cpuExecutor)).collect(Collectors.toList());
+    List<Person> people = partitions.stream()
+        .map(CompletableFuture::join)
+        .flatMap(Collection::stream)
+        .sorted(Comparator.comparingLong(StagedPerson::getOrder))
+        .map(StagedPerson::toPerson)
+        .collect(Collectors.toList());
+
+    if (progressListener.isCancelled())
+      throw new CancellationException();
+    process(people);
     return true;
   }
 
-  private Collection<Person> parse(Path path, IntegerProperty currentCount, IntegerProperty totalCount) throws IOException {
-//  private Map<String, Person> parse(File file) throws IOException {
+  private static <T> T getResult(FutureTask<T> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private List<CompletableFuture<List<List<StagedPerson>>>> parse(Path path, SheetParser parser) throws IOException {
     System.out.println("Reading " + path);
 
-    try (InputStream is = Files.newInputStream(path)) {
-      try (XSSFWorkbook workbook = new XSSFWorkbook(is)) {
-        is.close();
-        System.out.println("Done reading " + path);
-
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-
-        XSSFSheet sheet = workbook.getSheet(settings.excel.sheetName);
-        if (sheet == null)
-          sheet = workbook.getSheetAt(0);
-
-        totalCount.set(totalCount.get() + (sheet.getLastRowNum() - sheet.getFirstRowNum()));
-
-        // Find header, first cell that has value
-        Row headerRow = null;
-        int headerRowIndex, headerStartCellIndex = 0;
-        for (headerRowIndex = sheet.getFirstRowNum(); headerRowIndex <= sheet.getLastRowNum(); headerRowIndex++) {
-          Row row = sheet.getRow(headerRowIndex);
-          for (headerStartCellIndex = row.getFirstCellNum(); headerStartCellIndex < row.getLastCellNum(); headerStartCellIndex++) {
-            Cell cell = row.getCell(headerStartCellIndex);
-            if (!ExcelUtils.isEmpty(cell, evaluator)) {
-              headerRow = row;
-              break;
-            }
+    if (CsvSheet.isCsv(path)) {
+      CsvSheet.read(path, settings.csv, parser);
+    } else {
+      ExcelSheetReader.read(path, settings.excel.sheetName, parser);
+    }
+    parser.submitChunk();
+    System.out.println("Done reading " + path);
+
+    return parser.chunks;
+  }
+
+  /**
+   * Finds header from the first row that has a value. Following rows are collected to chunks which are
+   * decoded to staged people in parallel while the sheet is still being read.
+   */
+  private class SheetParser implements ExcelSheetReader.RowHandler {
+
+    private static final int CHUNK_SIZE = 2048;
+
+    private final Path path;
+    private final boolean csv;
+    private final StagedPerson.Layout layout;
+    private final int fileIndex;
+    private final int partitionCount;
+    private final IntegerProperty currentCount;
+    private final IntegerProperty totalCount;
+    private final ProgressListener progressListener;
+
+    // Decoded chunks, each split to partitions by personal code hash
+    private final List<CompletableFuture<List<List<StagedPerson>>>> chunks = new ArrayList<>();
+
+    // Header columns in sheet order
+    private int[] cellIndexes;
+    private Column[] columns;
+    private int[] valueIndexes;
+    private String[] groupedTypes;
+
+    private List<ExcelSheetReader.SheetCell[]> chunkRows = new ArrayList<>(CHUNK_SIZE);
+    private List<Integer> chunkRowIndexes = new ArrayList<>(CHUNK_SIZE);
+
+    private SheetParser(Path path, StagedPerson.Layout layout, int fileIndex, int partitionCount,
+                        IntegerProperty currentCount, IntegerProperty totalCount, ProgressListener progressListener) {
+      this.path = path;
+      this.csv = CsvSheet.isCsv(path);
+      this.layout = layout;
+      this.fileIndex = fileIndex;
+      this.partitionCount = partitionCount;
+      this.currentCount = currentCount;
+      this.totalCount = totalCount;
+      this.progressListener = progressListener;
+    }
+
+    @Override
+    public void dimension(int firstRowIndex, int lastRowIndex) {
+      totalCount.set(totalCount.get() + (lastRowIndex - firstRowIndex));
+    }
+
+    @Override
+    public void row(ExcelSheetReader.SheetRow row) {
+      if (cellIndexes == null) {
+        parseHeader(row);
+      } else {
+        addRow(row);
+        currentCount.set(currentCount.get() + 1);
+      }
+    }
+
+    private void parseHeader(ExcelSheetReader.SheetRow row) {
+      boolean hasValue = false;
+      for (int j = 0; j <= row.getLastCellIndex() && !hasValue; j++) {
+        ExcelSheetReader.SheetCell cell = row.get(j);
+        hasValue = cell != null && !ExcelUtils.isEmpty(cell.value);
+      }
+      if (!hasValue)
+        return;
+
+      // Column by label
+      Map<String, Column> labelToColumn = settings.columns.stream().filter(Column::hasLabel)
+          .collect(Collectors.toMap(column -> column.getLabel().toLowerCase(), Function.identity()));
+
+      // Add grouped columns
+      List<TypeGroupedColumn> groupedColumns = settings.registrationTypeGroupColumns();
+      if (groupedColumns != null) {
+        groupedColumns.forEach(c -> labelToColumn.put(c.getLabel().toLowerCase(), c));
+      }
+
+      // Find columns by header name
+      List<Integer> headerCellIndexes = new ArrayList<>();
+      List<Column> headerColumns = new ArrayList<>();
+      for (int j = 0; j <= row.getLastCellIndex(); j++) {
+        ExcelSheetReader.SheetCell cell = row.get(j);
+        if (cell == null)
+          continue;
+        String value = ExcelUtils.getCellString(cell.value);
+        if (value != null && !value.isEmpty()) {
+          // determine column for index
+          Column column = labelToColumn.get(value.toLowerCase());
+          if (column != null && layout.indexOf(column instanceof TypeGroupedColumn ? ((TypeGroupedColumn) column).source : column) != -1) {
+            headerCellIndexes.add(j);
+            headerColumns.add(column);
           }
-          if (headerRow != null)
-            break;
         }
-        if (headerRow == null)
-          return null;
-
-        // Column by label
-        Map<String, Column> labelToColumn = settings.columns.stream().filter(Column::hasLabel)
-            .collect(Collectors.toMap(column -> column.getLabel().toLowerCase(), Function.identity()));
+      }
 
-        // Add grouped columns
-        List<TypeGroupedColumn> groupedColumns = settings.registrationTypeGroupColumns();
-        if (groupedColumns != null) {
-          groupedColumns.forEach(c -> labelToColumn.put(c.getLabel().toLowerCase(), c));
+      int count = headerColumns.size();
+      cellIndexes = new int[count];
+      columns = new Column[count];
+      valueIndexes = new int[count];
+      groupedTypes = new String[count];
+      for (int i = 0; i < count; i++) {
+        Column column = headerColumns.get(i);
+        cellIndexes[i] = headerCellIndexes.get(i);
+        if (column instanceof TypeGroupedColumn) {
+          TypeGroupedColumn groupedColumn = (TypeGroupedColumn) column;
+          column = groupedColumn.source;
+          groupedTypes[i] = groupedColumn.type;
         }
+        columns[i] = column;
+        valueIndexes[i] = layout.indexOf(column);
+      }
+    }
 
-        // Find columns by header name
-        Map<Integer, Column> colIndexToColumn = new HashMap<>();
-        for (int j = headerStartCellIndex; j < headerRow.getLastCellNum(); j++) {
-          Cell cell = headerRow.getCell(j);
-          if (cell == null)
-            continue;
-          String value = ExcelUtils.getCellString(cell, evaluator);
-          if (value != null && !value.isEmpty()) {
-            // determine column for index
-            Column column = labelToColumn.get(value.toLowerCase());
-            if (column != null) {
-              colIndexToColumn.put(j, column);
-            }
-          }
+    /**
+     * Keeps only header cells of the row, cells are not reused by the reader
+     */
+    private void addRow(ExcelSheetReader.SheetRow row) {
+      if (row.getLastCellIndex() == -1)
+        return;
+      ExcelSheetReader.SheetCell[] cells = new ExcelSheetReader.SheetCell[cellIndexes.length];
+      for (int i = 0; i < cellIndexes.length; i++) {
+        cells[i] = row.get(cellIndexes[i]);
+      }
+      if (!acceptRow(path, cells))
+        return;
+      chunkRows.add(cells);
+      chunkRowIndexes.add(row.getRowIndex());
+      if (chunkRows.size() >= CHUNK_SIZE)
+        submitChunk();
+    }
+
+    private void submitChunk() {
+      if (progressListener.isCancelled())
+        throw new CancellationException();
+      if (chunkRows.isEmpty())
+        return;
+      List<ExcelSheetReader.SheetCell[]> rows = chunkRows;
+      List<Integer> rowIndexes = chunkRowIndexes;
+      chunkRows = new ArrayList<>(CHUNK_SIZE);
+      chunkRowIndexes = new ArrayList<>(CHUNK_SIZE);
+      chunks.add(CompletableFuture.supplyAsync(() -> decodeChunk(rows, rowIndexes),
+          taskExecutor.executor(TaskExecutor.Pool.CPU)));
+    }
+
+    /**
+     * @return Staged people of the chunk by partition, duplicates within the chunk are merged
+     */
+    private List<List<StagedPerson>> decodeChunk(List<ExcelSheetReader.SheetCell[]> rows, List<Integer> rowIndexes) {
+      Map<String, StagedPerson> stagedPeople = new LinkedHashMap<>();
+      for (int r = 0; r < rows.size(); r++) {
+        StagedPerson person = parsePerson(rows.get(r), ((long) fileIndex << 32) | rowIndexes.get(r));
+        String personalCode = person.getPersonalCode();
+        if (!personalCode.isEmpty()) {
+          StagedPerson existingPerson = stagedPeople.putIfAbsent(personalCode, person);
+          if (existingPerson != null)
+            existingPerson.merge(person);
         }
+      }
 
-        Map<String, Person> personMap = new HashMap<>();
-        Set<Map.Entry<Integer, Column>> collIndexColumnEntries = colIndexToColumn.entrySet();
-        for (int i = headerRowIndex + 1; i <= sheet.getLastRowNum(); i++) {
-          Row row = sheet.getRow(i);
-          if (row == null)
-            continue;
-          Person person = new Person(settings);
-          Registration registration = person.getLatestRegistration();
-          Map<Column, Property<?>> properties = registration.getWithPersonProperties();
-          for (Map.Entry<Integer, Column> entry : collIndexColumnEntries) {
-            Cell cell = row.getCell(entry.getKey());
-            if (cell == null)
-              continue;
-            Column column = entry.getValue();
-            Property<?> property;
-            if (column instanceof TypeGroupedColumn) {
-              TypeGroupedColumn groupedColumn = (TypeGroupedColumn) column;
-              registration = person.getRegistrations().stream()
-                  .filter(r -> r.getRegistrationType().equals(groupedColumn.type))
-                  .findFirst().orElse(null);
-              if (registration == null) {
-                registration = person.newRegistration();
-                registration.setRegistrationType(groupedColumn.type);
-              }
-              properties = registration.getWithPersonProperties();
-              property = properties.get(groupedColumn.source);
-            } else {
-              property = properties.get(column);
-            }
-            if (property instanceof GsonDateProperty) {
-              GsonDateProperty dateProperty = (GsonDateProperty) property;
-              java.util.Date value = ExcelUtils.getCellDate(cell, evaluator);
-              if (value != null) {
-                if (ExcelUtils.isDateTimeStyle(cell.getCellStyle())) {
-                  // DateTime
-                  dateProperty.set(new Date(value.toInstant()));
-                } else {
-                  double excelValue = DateUtil.getExcelDate(value);
-                  if (Math.ceil(excelValue) == Math.floor(excelValue)) {
-                    // Date
-                    dateProperty.set(new Date(LocalDate.from(value.toInstant().atZone(ZoneId.systemDefault()))));
-                  } else {
-                    // DateTime
-                    dateProperty.set(new Date(value.toInstant()));
-                  }
-                }
-              }
-            } else if (property instanceof StringProperty) {
-              StringProperty stringProperty = (StringProperty) property;
-              String value = ExcelUtils.getCellString(cell, evaluator);
-              stringProperty.set(value);
-            } else if (property instanceof BooleanProperty) {
-              BooleanProperty booleanProperty = (BooleanProperty) property;
-              Boolean value = ExcelUtils.getCellBoolean(cell, evaluator);
-              booleanProperty.set(value != null ? value : false);
-            } else if (property instanceof GsonBooleanProperty) {
-              GsonBooleanProperty booleanProperty = (GsonBooleanProperty) property;
-              Boolean value = ExcelUtils.getCellBoolean(cell, evaluator);
-              booleanProperty.set(value);
-            }
-          }
-          if (!person.getPersonalCode().isEmpty()) {
-            Person existingPerson = personMap.get(person.getPersonalCode());
-            if (existingPerson != null) {
-              existingPerson.merge(person);
-            } else {
-              personMap.put(person.getPersonalCode(), person);
-              totalCount.set(totalCount.get() + 1);
-            }
-          }
-          currentCount.set(currentCount.get() + 1);
+      List<List<StagedPerson>> partitions = new ArrayList<>(partitionCount);
+      for (int i = 0; i < partitionCount; i++) {
+        partitions.add(new ArrayList<>());
+      }
+      stagedPeople.forEach((personalCode, person) ->
+          partitions.get((personalCode.hashCode() & Integer.MAX_VALUE) % partitionCount).add(person));
+      return partitions;
+    }
+
+    private StagedPerson parsePerson(ExcelSheetReader.SheetCell[] cells, long order) {
+      StagedPerson person = new StagedPerson(layout, order);
+      for (int i = 0; i < cells.length; i++) {
+        ExcelSheetReader.SheetCell cell = cells[i];
+        if (cell == null)
+          continue;
+        Object value = csv ? getCsvValue(columns[i], cell) : getValue(columns[i], cell);
+        if (groupedTypes[i] != null) {
+          person.getOrNewRegistration(groupedTypes[i])[valueIndexes[i]] = value;
+        } else if (columns[i].group == Column.Group.REGISTRATION) {
+          person.getFirstRegistration()[valueIndexes[i]] = value;
+        } else {
+          person.set(valueIndexes[i], value);
         }
-        Collection<Person> personList = personMap.values();
-        personList.forEach(Person::cleanUpRegistrations);
-        return personList;
       }
+      return person;
+    }
+  }
+
+  /**
+   * CSV cells are always text
+   */
+  private Object getCsvValue(Column column, ExcelSheetReader.SheetCell cell) {
+    switch (column.type) {
+      case DATE:
+        return parseDate(cell.value.getStringValue().trim());
+      case CHECKBOX:
+        return CsvSheet.parseBoolean(cell.value.getStringValue());
+      default:
+        return ExcelUtils.getCellString(cell.value);
+    }
+  }
+
+  private Object getValue(Column column, ExcelSheetReader.SheetCell cell) {
+    switch (column.type) {
+      case DATE:
+        java.util.Date value = ExcelUtils.getCellDate(cell.value);
+        if (value == null)
+          return null;
+        if (ExcelUtils.isDateTimeFormat(cell.formatString))
+          return new Date(value.toInstant()); // DateTime
+        double excelValue = DateUtil.getExcelDate(value);
+        if (Math.ceil(excelValue) == Math.floor(excelValue)) {
+          // Date
+          return new Date(LocalDate.from(value.toInstant().atZone(ZoneId.systemDefault())));
+        }
+        return new Date(value.toInstant()); // DateTime
+      case CHECKBOX:
+        return ExcelUtils.getCellBoolean(cell.value);
+      default:
+        return ExcelUtils.getCellString(cell.value);
+    }
+  }
+
+  /**
+   * Parses date text from CSV file, formats from settings are tried before ISO format
+   */
+  private Date parseDate(String text) {
+    if (text.isEmpty())
+      return null;
+    TemporalAccessor dateTime = tryParse(settings.csv.dateTimeFormat.getFormatter(), text);
+    if (dateTime == null)
+      dateTime = tryParse(DateTimeFormatter.ISO_LOCAL_DATE_TIME, text);
+    if (dateTime != null)
+      return new Date(LocalDateTime.from(dateTime));
+    TemporalAccessor date = tryParse(settings.csv.dateFormat.getFormatter(), text);
+    if (date == null)
+      date = tryParse(DateTimeFormatter.ISO_LOCAL_DATE, text);
+    if (date != null)
+      return new Date(LocalDate.from(date));
+    return null;
+  }
+
+  /**
+   * @return Parsed value or null, no exception is thrown for text in other format
+   */
+  private static TemporalAccessor tryParse(DateTimeFormatter formatter, String text) {
+    ParsePosition position = new ParsePosition(0);
+    if (formatter.parseUnresolved(text, position) == null || position.getIndex() != text.length())
+      return null;
+    try {
+      return formatter.parse(text);
+    } catch (DateTimeException e) {
+      return null;
     }
   }
 
@@ -6,15 +6,15 @@ import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
 import com.knemerzitski.isikreg.gson.GsonDateProperty;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
-import com.knemerzitski.isikreg.settings.columns.TypeGroupedColumn;
 import com.knemerzitski.isikreg.threading.Await;
 import com.knemerzitski.isikreg.threading.TaskExecutor;
+import com.knemerzitski.isikreg.utils.ExcelUtils;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.Property;
 import javafx.beans.property.StringProperty;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -24,11 +24,54 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class PersonListExcelWriter {
 
+  public static final long ALL_CHANGES = -1;
+
+  private static final int ROW_ACCESS_WINDOW = 100;
+
+  /**
+   * Approximate column widths tracked while writing rows
+   */
+  private static class ColumnWidths {
+    private final int[] widths;
+    private final int dateTimeWidth;
+    private final int dateWidth;
+
+    private ColumnWidths(int columnCount, Settings.Excel excel) {
+      widths = new int[columnCount];
+      // Dates are written with digits in place of format letters
+      dateTimeWidth = ExcelUtils.estimateColumnWidth(excel.exportDateTimeFormat.replaceAll("[a-zA-Z]", "0"));
+      dateWidth = ExcelUtils.estimateColumnWidth(excel.exportDateFormat.replaceAll("[a-zA-Z]", "0"));
+    }
+
+    private void update(int columnIndex, String text) {
+      widths[columnIndex] = Math.max(widths[columnIndex], ExcelUtils.estimateColumnWidth(text));
+    }
+
+    private void update(int columnIndex, Property<?> prop) {
+      Object value = prop.getValue();
+      int width;
+      if (value instanceof Date) {
+        width = ((Date) value).hasTime() ? dateTimeWidth : dateWidth;
+      } else if (value instanceof Boolean) {
+        width = ExcelUtils.estimateColumnWidth((Boolean) value ? "TRUE" : "FALSE");
+      } else {
+        width = ExcelUtils.estimateColumnWidth(String.valueOf(value));
+      }
+      widths[columnIndex] = Math.max(widths[columnIndex], width);
+    }
+
+    private void apply(Sheet sheet) {
+      for (int i = 0; i < widths.length; i++) {
+        sheet.setColumnWidth(i, widths[i]);
+      }
+    }
+  }
+
   private final Settings settings;
   private final TaskExecutor taskExecutor;
 
@@ -61,10 +104,24 @@ public class PersonListExcelWriter {
   }
 
   public void writeAsync(Path path, List<Person> personList, boolean groupByRegistrationType, ProgressListener progressListener) {
+    writeAsync(path, personList, groupByRegistrationType, ALL_CHANGES, progressListener);
+  }
+
+  /**
+   * @param sinceChangeSequence Write only changes after this {@link PersonList#getChangeSequence()}
+   */
+  public void writeAsync(Path path, List<Person> personList, boolean groupByRegistrationType, long sinceChangeSequence,
+                         ProgressListener progressListener) {
     Callable<Boolean> task = () -> {
       try{
         progressListener.start();
-        return write(path, personList, groupByRegistrationType, progressListener);
+        boolean written = write(path, personList, groupByRegistrationType, sinceChangeSequence, progressListener);
+        if (written)
+          progressListener.done();
+        return written;
+      } catch (CancellationException e) {
+        System.out.println("Writing " + path + " cancelled");
+        return false;
       }finally {
         writingAwait.setAwaiting(false);
         System.gc();
@@ -72,11 +129,25 @@ public class PersonListExcelWriter {
       }
     };
     writingAwait.setAwaiting(true);
-    taskExecutor.submit(task);
+    taskExecutor.submit(TaskExecutor.Pool.FILE_IO, task);
   }
 
-  private boolean write(Path path, List<Person> personList, boolean groupByRegistrationType, ProgressListener progressListener) throws IOException {
-    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+  private boolean write(Path path, List<Person> personList, boolean groupByRegistrationType, long sinceChangeSequence,
+                        ProgressListener progressListener) throws IOException {
+    if (CsvSheet.isCsv(path)) {
+      try {
+        CsvSheet.write(path, settings.csv, new PersonListSheetLayout(settings, groupByRegistrationType), personList,
+            sinceChangeSequence, progressListener);
+      } catch (FileNotFoundException | FileSystemException e) {
+        throw new AppInfoException(e);
+      }
+      progressListener.progress(-1);
+      return true;
+    }
+
+    SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
+    try {
+      workbook.setCompressTempFiles(true);
       CreationHelper createHelper = workbook.getCreationHelper();
 
       CellStyle dateTimeStyle = workbook.createCellStyle();
@@ -85,135 +156,52 @@ public class PersonListExcelWriter {
       CellStyle dateStyle = workbook.createCellStyle();
       dateStyle.setDataFormat(createHelper.createDataFormat().getFormat(settings.excel.exportDateFormat));
 
-      XSSFSheet sheet = workbook.createSheet(settings.excel.sheetName);
-
-      int rowIndex = 0;
-      Row headerRow = sheet.createRow(rowIndex++);
-      // Don't save registered column, can be seen from date column also ignore columns without label
-      List<Column> columns = settings.columns.stream()
-          .filter(c -> c.hasLabel() && !(c.group == Column.Group.REGISTRATION && c.id == Column.Id.REGISTERED))
-          .collect(Collectors.toList());
-
-      // GROUP BY REGISTRATION TYPE
-      Column regDateColumn = columns.stream()
-          .filter(c -> c.group == Column.Group.REGISTRATION && c.id == Column.Id.REGISTER_DATE)
-          .findFirst().orElse(null);
-      Column regTypeColumn = columns.stream()
-          .filter(c -> c.group == Column.Group.REGISTRATION && c.id == Column.Id.REGISTRATION_TYPE)
-          .findFirst().orElse(null);
-      List<TypeGroupedColumn> groupedColumns = groupByRegistrationType ?
-          settings.registrationTypeGroupColumns() : null;
-      if (groupedColumns != null) {
-        groupedColumns.forEach(c -> {
-          int index = columns.indexOf(c.source);
-          if (index != -1) {
-            columns.add(index, c);
-          } else {
-            columns.add(c);
-          }
-        });
-        columns.remove(regTypeColumn);
-        groupedColumns.forEach(c -> columns.remove(c.source));
-      }
+      SXSSFSheet sheet = workbook.createSheet(settings.excel.sheetName);
+      Settings.AutoSize autoSize = settings.excel.exportAutoSizeColumns ? settings.excel.exportAutoSizeMode : Settings.AutoSize.OFF;
+      if (autoSize == Settings.AutoSize.EXACT)
+        sheet.trackAllColumnsForAutoSizing();
 
+      PersonListSheetLayout layout = new PersonListSheetLayout(settings, groupByRegistrationType);
+      List<Column> columns = layout.getColumns();
+
+      Row headerRow = sheet.createRow(0);
+      ColumnWidths columnWidths = autoSize == Settings.AutoSize.APPROXIMATE ? new ColumnWidths(columns.size(), settings.excel) : null;
       for (int i = 0; i < columns.size(); i++) {
         Column column = columns.get(i);
         Cell cell = headerRow.createCell(i);
         cell.setCellValue(column.getLabel());
+        if (columnWidths != null)
+          columnWidths.update(i, column.getLabel());
       }
 
-      long lastRowIndex = headerRow.getRowNum() + personList.stream().mapToLong(p -> p.getRegistrations().size()).sum();
-
-      Comparator<Registration> dateComparator = (o1, o2) -> {
-        Date d1 = o1.getRegisteredDate();
-        Date d2 = o2.getRegisteredDate();
-        if (d1 != null && d2 != null) {
-          return d1.compareTo(d2);
-        } else if (d1 != null) {
-          return 1;
-        } else if (d2 != null) {
-          return -1;
-        }
-        return 0;
-      };
-
-      List<String> registrationTypes = settings.getRegistrationTypes();
-
-      for (Person person : personList) {
-        // Sort registrations by date
-        List<Registration> registrations = person.getRegistrations()
-            .stream().sorted(dateComparator).collect(Collectors.toList());
-
-        // Group registrations by type (put them on same row) if enabled in settings
-        List<List<Registration>> groupedRegistrations = new ArrayList<>();
-        if (groupedColumns != null && !groupedColumns.isEmpty()) {
-          int counter = 0;
-          while (counter < registrations.size()) {
-            List<Registration> sameRowRegistrations = new ArrayList<>();
-            for (TypeGroupedColumn groupedColumn : groupedColumns) {
-              if (counter >= registrations.size())
-                break;
-              if (groupedColumn.source != regDateColumn)
-                continue;
-              Registration r = registrations.get(counter);
-              if (r.getRegistrationType().equals(groupedColumn.type)) {
-                sameRowRegistrations.add(r);
-                counter++;
-              } else if (!registrationTypes.contains(r.getRegistrationType())) { // Invalid registration type
-                counter++;
-              }
-            }
-            if (!sameRowRegistrations.isEmpty()) {
-              groupedRegistrations.add(sameRowRegistrations);
-            }
-          }
-        } else {
-          groupedRegistrations.addAll(registrations.stream().map(Collections::singletonList).collect(Collectors.toList()));
+      long rowCount = layout.getMaxRowCount(personList) - 1;
+      layout.writeRows(personList, sinceChangeSequence, new PersonListSheetLayout.RowWriter() {
+        private Row row;
+
+        @Override
+        public void startRow(int rowIndex) {
+          if (progressListener.isCancelled())
+            throw new CancellationException();
+          row = sheet.createRow(rowIndex);
+          progressListener.progress((double) rowIndex / rowCount);
         }
 
-        for (List<Registration> registrationGroup : groupedRegistrations) {
-          Row row = sheet.createRow(rowIndex++);
-          progressListener.progress((double) (rowIndex) / lastRowIndex);
-
-          // Write all person columns
-          Map<Column, Property<?>> personProps = person.getProperties();
-          personProps.forEach((column, prop) -> {
-            if (!columns.contains(column))
-              return;
-            int k = columns.indexOf(column);
-            Cell cell = row.createCell(k);
-            writePropertyToCell(prop, cell, dateTimeStyle, dateStyle);
-          });
-
-          // Write all registration columns
-          for (Registration registration : registrationGroup) {
-            Map<Column, Property<?>> regProps = registration.getProperties();
-            columns.forEach(column -> {
-              Property<?> prop = null;
-              if (column instanceof TypeGroupedColumn) {
-                TypeGroupedColumn groupedColumn = (TypeGroupedColumn) column;
-                if (registration.getRegistrationType().equals(groupedColumn.type)) {
-                  prop = regProps.get(groupedColumn.source);
-                }
-              } else {
-                prop = regProps.get(column);
-              }
-              if (prop != null) {
-                int k = columns.indexOf(column);
-                Cell cell = row.createCell(k);
-                writePropertyToCell(prop, cell, dateTimeStyle, dateStyle);
-              }
-            });
-          }
+        @Override
+        public void cell(int columnIndex, Property<?> property) {
+          writePropertyToCell(property, row.createCell(columnIndex), dateTimeStyle, dateStyle);
+          if (columnWidths != null)
+            columnWidths.update(columnIndex, property);
         }
-      }
+      });
 
       progressListener.progress(-1);
 
-      if (settings.excel.exportAutoSizeColumns) {
+      if (autoSize == Settings.AutoSize.EXACT) {
         for (int i = 0; i < columns.size(); i++) {
           sheet.autoSizeColumn(i);
         }
+      } else if (columnWidths != null) {
+        columnWidths.apply(sheet);
       }
 
       try (OutputStream out = Files.newOutputStream(path)) {
@@ -222,6 +210,9 @@ public class PersonListExcelWriter {
         throw new AppInfoException(e);
       }
       return true;
+    } finally {
+      workbook.dispose(); // Deletes temporary files
+      workbook.close();
     }
   }
 
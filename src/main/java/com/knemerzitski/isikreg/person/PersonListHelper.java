@@ -279,6 +279,8 @@ public class PersonListHelper {
     if (settings.dialogHandler.confirm("Oled kindel, et tahad registreerimised tühistada?", "Tühistan registreerimised?")) {
       beforeDelete.run();
       list.forEach(p -> {
+        // Archived registrations are cancelled the same way as the others
+        personList.restoreArchivedRegistrations(p, false);
         p.getRegistrations().forEach(r -> {
           r.setRegisteredNoConfirm(false);
         });
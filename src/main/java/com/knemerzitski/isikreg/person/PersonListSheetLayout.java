@@ -0,0 +1,202 @@
+package com.knemerzitski.isikreg.person;
+
+import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.TypeGroupedColumn;
+import javafx.beans.property.Property;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Columns and rows of an exported person list. Shared by all export formats so that
+ * columns and registration type grouping are the same in every file.
+ */
+class PersonListSheetLayout {
+
+  interface RowWriter {
+
+    /**
+     * @param rowIndex Index of the row, header is row 0
+     */
+    void startRow(int rowIndex);
+
+    /**
+     * Called only for properties that have a value
+     */
+    void cell(int columnIndex, Property<?> property);
+
+    default void endRow() {
+    }
+  }
+
+  private static class ColumnIndexes {
+    private Column[] columns = new Column[0];
+    private int[] indexes = new int[0];
+
+    private void add(Column column, int index) {
+      columns = Arrays.copyOf(columns, columns.length + 1);
+      indexes = Arrays.copyOf(indexes, indexes.length + 1);
+      columns[columns.length - 1] = column;
+      indexes[indexes.length - 1] = index;
+    }
+  }
+
+  private static final Comparator<Registration> DATE_COMPARATOR = (o1, o2) -> {
+    Date d1 = o1.getRegisteredDate();
+    Date d2 = o2.getRegisteredDate();
+    if (d1 != null && d2 != null) {
+      return d1.compareTo(d2);
+    } else if (d1 != null) {
+      return 1;
+    } else if (d2 != null) {
+      return -1;
+    }
+    return 0;
+  };
+
+  private final List<Column> columns;
+  private final List<String> registrationTypes;
+
+  // Sheet column index of every property column
+  private final ColumnIndexes personColumnIndexes = new ColumnIndexes();
+  private final ColumnIndexes registrationColumnIndexes = new ColumnIndexes();
+  private final Map<String, ColumnIndexes> groupedColumnIndexes = new HashMap<>();
+
+  // Registration types in the order they are put on the same row
+  private final List<String> rowRegistrationTypes = new ArrayList<>();
+
+  PersonListSheetLayout(Settings settings, boolean groupByRegistrationType) {
+    registrationTypes = settings.getRegistrationTypes();
+
+    // Don't save registered column, can be seen from date column also ignore columns without label
+    columns = settings.columns.stream()
+        .filter(c -> c.hasLabel() && !(c.group == Column.Group.REGISTRATION && c.id == Column.Id.REGISTERED))
+        .collect(Collectors.toList());
+
+    // GROUP BY REGISTRATION TYPE
+    Column regDateColumn = columns.stream()
+        .filter(c -> c.group == Column.Group.REGISTRATION && c.id == Column.Id.REGISTER_DATE)
+        .findFirst().orElse(null);
+    Column regTypeColumn = columns.stream()
+        .filter(c -> c.group == Column.Group.REGISTRATION && c.id == Column.Id.REGISTRATION_TYPE)
+        .findFirst().orElse(null);
+    List<TypeGroupedColumn> groupedColumns = groupByRegistrationType ?
+        settings.registrationTypeGroupColumns() : null;
+    if (groupedColumns != null) {
+      groupedColumns.forEach(c -> {
+        int index = columns.indexOf(c.source);
+        if (index != -1) {
+          columns.add(index, c);
+        } else {
+          columns.add(c);
+        }
+      });
+      columns.remove(regTypeColumn);
+      groupedColumns.forEach(c -> columns.remove(c.source));
+
+      groupedColumns.forEach(c -> {
+        if (c.source == regDateColumn)
+          rowRegistrationTypes.add(c.type);
+      });
+    }
+
+    for (int i = 0; i < columns.size(); i++) {
+      Column column = columns.get(i);
+      if (column instanceof TypeGroupedColumn) {
+        TypeGroupedColumn groupedColumn = (TypeGroupedColumn) column;
+        groupedColumnIndexes.computeIfAbsent(groupedColumn.type, type -> new ColumnIndexes()).add(groupedColumn.source, i);
+      } else if (column.group == Column.Group.PERSON) {
+        personColumnIndexes.add(column, i);
+      } else {
+        registrationColumnIndexes.add(column, i);
+      }
+    }
+  }
+
+  /**
+   * @return Header columns in sheet order
+   */
+  List<Column> getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return Upper bound of rows including header
+   */
+  long getMaxRowCount(List<Person> personList) {
+    return 1 + personList.stream()
+        .mapToLong(p -> p.getRegistrations().size() + p.getArchivedRegistrationCount()).sum();
+  }
+
+  /**
+   * Writes a row for every registration, or for every group of registrations if grouped by registration type
+   *
+   * @param sinceChangeSequence Only registrations changed after this sequence are written, all registrations of
+   *                            a person with changed properties are written. Negative writes all. Removed
+   *                            people and registrations are not written.
+   */
+  void writeRows(List<Person> personList, long sinceChangeSequence, RowWriter rowWriter) {
+    int rowIndex = 1;
+    List<Registration> registrations = new ArrayList<>();
+    List<Registration> sameRowRegistrations = new ArrayList<>();
+    for (Person person : personList) {
+      if (person.getChangeSequence() <= sinceChangeSequence)
+        continue;
+
+      // Sort registrations by date
+      registrations.clear();
+      registrations.addAll(person.getAllRegistrations());
+      if (person.getPropertiesChangeSequence() <= sinceChangeSequence)
+        registrations.removeIf(r -> r.getChangeSequence() <= sinceChangeSequence);
+      registrations.sort(DATE_COMPARATOR);
+
+      int counter = 0;
+      while (counter < registrations.size()) {
+        // Group registrations by type (put them on same row) if enabled in settings
+        sameRowRegistrations.clear();
+        if (!rowRegistrationTypes.isEmpty()) {
+          int rowStart = counter;
+          for (String type : rowRegistrationTypes) {
+            if (counter >= registrations.size())
+              break;
+            Registration r = registrations.get(counter);
+            if (r.getRegistrationType().equals(type)) {
+              sameRowRegistrations.add(r);
+              counter++;
+            } else if (!registrationTypes.contains(r.getRegistrationType())) { // Invalid registration type
+              counter++;
+            }
+          }
+          if (counter == rowStart)
+            counter++; // Type without grouped column
+          if (sameRowRegistrations.isEmpty())
+            continue;
+        } else {
+          sameRowRegistrations.add(registrations.get(counter++));
+        }
+
+        rowWriter.startRow(rowIndex++);
+        writeCells(person.getProperties(), personColumnIndexes, rowWriter);
+        for (Registration registration : sameRowRegistrations) {
+          Map<Column, Property<?>> regProps = registration.getProperties();
+          writeCells(regProps, registrationColumnIndexes, rowWriter);
+          ColumnIndexes typeColumnIndexes = groupedColumnIndexes.get(registration.getRegistrationType());
+          if (typeColumnIndexes != null)
+            writeCells(regProps, typeColumnIndexes, rowWriter);
+        }
+        rowWriter.endRow();
+      }
+    }
+  }
+
+  private static void writeCells(Map<Column, Property<?>> properties, ColumnIndexes columnIndexes, RowWriter rowWriter) {
+    for (int i = 0; i < columnIndexes.columns.length; i++) {
+      Property<?> prop = properties.get(columnIndexes.columns[i]);
+      if (prop != null && prop.getValue() != null)
+        rowWriter.cell(columnIndexes.indexes[i], prop);
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.knemerzitski.isikreg.person;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Point-in-time view of the person list. People are detached copies that don't change, so the snapshot can be
+ * read on any thread while the list keeps changing. A copy is built when it is first read, on the reading thread.
+ * Copies of unchanged people are shared between snapshots.
+ * Closing the snapshot releases it from the list statistics.
+ */
+public class PersonListSnapshot implements AutoCloseable {
+
+  private final PersonList personList;
+  private final List<Person.SnapshotSource> sources;
+  private final List<Person> people = new AbstractList<Person>() {
+    @Override
+    public Person get(int index) {
+      return sources.get(index).getCopy();
+    }
+
+    @Override
+    public int size() {
+      return sources.size();
+    }
+  };
+  private final long changeSequence;
+  private final long createdMillis = System.currentTimeMillis();
+
+  PersonListSnapshot(PersonList personList, List<Person.SnapshotSource> sources, long changeSequence) {
+    this.personList = personList;
+    this.sources = sources;
+    this.changeSequence = changeSequence;
+  }
+
+  /**
+   * @return Unmodifiable list, copies are built on first access
+   */
+  public List<Person> getPeople() {
+    return people;
+  }
+
+  void addBuiltCopies(Collection<Person> copies) {
+    for (Person.SnapshotSource source : sources) {
+      Person copy = source.getBuiltCopy();
+      if (copy != null)
+        copies.add(copy);
+    }
+  }
+
+  /**
+   * @return {@link PersonList#getChangeSequence()} when the snapshot was taken
+   */
+  public long getChangeSequence() {
+    return changeSequence;
+  }
+
+  public long getCreatedMillis() {
+    return createdMillis;
+  }
+
+  public long getAgeMillis() {
+    return System.currentTimeMillis() - createdMillis;
+  }
+
+  @Override
+  public void close() {
+    personList.releaseSnapshot(this);
+  }
+
+}
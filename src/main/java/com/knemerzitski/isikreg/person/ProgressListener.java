@@ -11,4 +11,17 @@ public interface ProgressListener {
 
   void stop();
 
+  /**
+   * Called before {@link #stop()} if the task finished successfully
+   */
+  default void done() {
+  }
+
+  /**
+   * Checked by the task between steps, cancelled task stops with {@link java.util.concurrent.CancellationException}
+   */
+  default boolean isCancelled() {
+    return false;
+  }
+
 }
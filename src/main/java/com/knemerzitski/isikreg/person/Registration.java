@@ -5,6 +5,7 @@ import com.knemerzitski.isikreg.exception.AppQuitException;
 import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
 import com.knemerzitski.isikreg.gson.GsonDateProperty;
 import com.knemerzitski.isikreg.settings.ColumnProperties;
+import com.knemerzitski.isikreg.settings.CompiledSchema;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import javafx.application.Platform;
@@ -34,6 +35,8 @@ public class Registration {
 
   private transient Person person;
 
+  private transient long changeSequence; // Sequence number of the last change in the list
+
   private transient StringProperty registrationTypeProperty;
 
   private transient BooleanProperty registeredProperty;
@@ -80,6 +83,13 @@ public class Registration {
   }
 
   void init(Person person) {
+    init(person, true);
+  }
+
+  /**
+   * @param createListeners false for detached copies, registering can't be confirmed or cancelled in them
+   */
+  void init(Person person, boolean createListeners) {
     if (initialized) {
       throw new AppQuitException("Registration has already been initialized");
     }
@@ -92,29 +102,32 @@ public class Registration {
     if (properties == null)
       properties = new ColumnProperties(settings);
 
-    settings.getColumnsByGroup(Column.Group.REGISTRATION).forEach(column -> {
+    CompiledSchema schema = settings.getSchema();
+    schema.getColumnsByGroup(Column.Group.REGISTRATION).forEach(column -> {
       if (properties.get(column) == null) {
-        Property<?> property = settings.newProperty(column);
+        Property<?> property = schema.newProperty(column);
         if (property != null)
           properties.put(column, property);
       }
     });
 
-    Property<?> property = properties.get(settings.getColumn(Column.Id.REGISTRATION_TYPE));
+    properties.setBean(this); // Change listeners find the registration and its person
+
+    Property<?> property = properties.get(schema.getColumn(Column.Id.REGISTRATION_TYPE));
     if (property instanceof StringProperty) {
       registrationTypeProperty = (StringProperty) property;
     } else {
       registrationTypeProperty = null;
     }
 
-    property = properties.get(settings.getColumn(Column.Id.REGISTER_DATE));
+    property = properties.get(schema.getColumn(Column.Id.REGISTER_DATE));
     if (property instanceof GsonDateProperty) {
       registeredDateProperty = (GsonDateProperty) property;
     } else {
       registeredDateProperty = null;
     }
 
-    property = properties.get(settings.getColumn(Column.Id.REGISTERED));
+    property = properties.get(schema.getColumn(Column.Id.REGISTERED));
     if (property instanceof BooleanProperty) {
       registeredProperty = (BooleanProperty) property;
       registeredProperty.set(getRegisteredDate() != null);
@@ -125,7 +138,7 @@ public class Registration {
       registeredProperty = null;
     }
 
-    if (registeredProperty != null && registeredDateProperty != null) {
+    if (createListeners && registeredProperty != null && registeredDateProperty != null) {
 //      registerSilentProperty = createRegisterDateBinding(registeredProperty, registeredDateProperty);
       ChangeListener<Boolean> registeredPropertyListener = new ChangeListener<Boolean>() {
         @Override
@@ -251,6 +264,15 @@ public class Registration {
     return person;
   }
 
+  public long getChangeSequence() {
+    return changeSequence;
+  }
+
+  void markChanged(long sequence) {
+    changeSequence = sequence;
+    person.markChanged(sequence, false);
+  }
+
   public ColumnProperties getProperties() {
     return properties;
   }
@@ -302,10 +324,12 @@ public class Registration {
     if (registeredProperty == null)
       return;
 
-    if (silent)
+    // Detached copies have no registered listener to silence
+    boolean silence = silent && registerSilentProperty != null;
+    if (silence)
       registerSilentProperty.set(true);
     registeredProperty.set(registered);
-    if (silent)
+    if (silence)
       registerSilentProperty.set(false);
   }
 
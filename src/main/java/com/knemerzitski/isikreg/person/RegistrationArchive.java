@@ -0,0 +1,216 @@
+package com.knemerzitski.isikreg.person;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Old registrations of a person are kept as compact JSON text instead of registrations with properties and listeners.
+ * Archived registrations are not in the table, they are loaded on demand when saving, exporting or verifying.
+ */
+class RegistrationArchive {
+
+  /**
+   * Registrations that are about to be archived. Their values are captured on the writer thread, so serializing
+   * can be done on any thread.
+   */
+  static class Pending {
+    private final Person person;
+    private final String previousJson;
+    private final List<Registration> registrations;
+    private final List<Map<Column, Object>> values;
+    private final long[] changeSequences;
+    private String json;
+    private int count;
+
+    private Pending(Person person, List<Registration> registrations) {
+      this.person = person;
+      this.previousJson = person.getArchivedRegistrationsJson();
+      this.registrations = registrations;
+      values = new ArrayList<>(registrations.size());
+      changeSequences = new long[registrations.size()];
+      for (int i = 0; i < registrations.size(); i++) {
+        values.add(Person.SnapshotSource.getValues(registrations.get(i).getProperties()));
+        changeSequences[i] = registrations.get(i).getChangeSequence();
+      }
+    }
+  }
+
+  private static final String REGISTRATIONS = "registrations";
+
+  private final Settings settings;
+  private final Gson gson;
+
+  RegistrationArchive(Settings settings, Gson gson) {
+    this.settings = settings;
+    this.gson = gson;
+  }
+
+  boolean isEnabled() {
+    return settings.general.archiveRegistrationsAfter > 0 || settings.general.archiveKeepLatestRegistrations > 0;
+  }
+
+  /**
+   * Moves old registered registrations out of person registrations.
+   * Latest registered registration and unregistered registrations are never archived.
+   *
+   * @return Number of archived registrations
+   */
+  int archive(Person person) {
+    Pending pending = find(person);
+    if (pending == null)
+      return 0;
+    serialize(pending);
+    return apply(pending);
+  }
+
+  /**
+   * Finds old registrations and captures their values without changing the person. Must be called on the writer
+   * thread.
+   *
+   * @return null if there is nothing to archive
+   */
+  Pending find(Person person) {
+    if (!isEnabled() || person.isArchivingDisabled())
+      return null;
+    List<Registration> registrations = person.getRegistrations();
+    if (registrations == null)
+      return null; // Removed
+
+    List<Registration> oldRegistrations = findOld(person, registrations);
+    return !oldRegistrations.isEmpty() ? new Pending(person, oldRegistrations) : null;
+  }
+
+  /**
+   * Builds archive JSON from captured values, can be called on any thread
+   */
+  void serialize(Pending pending) {
+    JsonArray array = parse(pending.previousJson);
+    for (Map<Column, Object> values : pending.values) {
+      Registration copy = new Registration(settings, Person.SnapshotSource.newProperties(settings, values));
+      array.add(gson.toJsonTree(copy));
+    }
+    pending.json = array.toString();
+    pending.count = array.size();
+  }
+
+  /**
+   * Moves prepared registrations out of person registrations. Skipped if the person or any of the registrations has
+   * changed since preparing, they are archived next time.
+   *
+   * @return Number of archived registrations
+   */
+  int apply(Pending pending) {
+    Person person = pending.person;
+    List<Registration> registrations = person.getRegistrations();
+    if (registrations == null || person.isArchivingDisabled() || person.getArchivedRegistrationsJson() != pending.previousJson)
+      return 0;
+    for (int i = 0; i < pending.registrations.size(); i++) {
+      Registration r = pending.registrations.get(i);
+      if (r.getChangeSequence() != pending.changeSequences[i] || !registrations.contains(r))
+        return 0;
+    }
+    person.setArchivedRegistrations(this, pending.json, pending.count);
+    registrations.removeAll(pending.registrations);
+    return pending.registrations.size();
+  }
+
+  private List<Registration> findOld(Person person, List<Registration> registrations) {
+    Registration latest = person.getLatestRegisteredRegistration();
+    Map<Registration, Date> dates = new IdentityHashMap<>();
+    for (Registration r : registrations) {
+      Date date = r.getRegisteredDate();
+      if (r != latest && date != null)
+        dates.put(r, date);
+    }
+    List<Registration> registered = new ArrayList<>(dates.keySet());
+    registered.sort((r1, r2) -> dates.get(r2).compareTo(dates.get(r1)));
+
+    int keepLatest = settings.general.archiveKeepLatestRegistrations;
+    long maxAge = settings.general.archiveRegistrationsAfter;
+    LocalDateTime archiveBefore = maxAge > 0 ? LocalDateTime.now().minus(maxAge, ChronoUnit.MILLIS) : null;
+
+    List<Registration> oldRegistrations = new ArrayList<>();
+    for (int i = 0; i < registered.size(); i++) {
+      Registration r = registered.get(i);
+      // Latest registration is not in the list, so it takes one place
+      boolean overLimit = keepLatest > 0 && i + 1 >= keepLatest;
+      boolean tooOld = archiveBefore != null && dates.get(r).getLocalDateTime().isBefore(archiveBefore);
+      if (overLimit || tooOld)
+        oldRegistrations.add(r);
+    }
+    return oldRegistrations;
+  }
+
+  /**
+   * @return New registrations that are not added to person registrations
+   */
+  List<Registration> load(Person person) {
+    return load(person, person.getArchivedRegistrationsJson());
+  }
+
+  List<Registration> load(Person person, String json) {
+    List<Registration> registrations = read(json);
+    registrations.forEach(r -> r.init(person));
+    return registrations;
+  }
+
+  /**
+   * @return Registrations that are not initialized yet
+   */
+  List<Registration> read(String json) {
+    if (json == null)
+      return Collections.emptyList();
+
+    JsonArray array = parse(json);
+    List<Registration> registrations = new ArrayList<>(array.size());
+    for (JsonElement element : array) {
+      registrations.add(gson.fromJson(element, Registration.class));
+    }
+    return registrations;
+  }
+
+  /**
+   * Moves archived registrations back to person registrations
+   */
+  void restore(Person person) {
+    if (!person.hasArchivedRegistrations())
+      return;
+    List<Registration> registrations = load(person);
+    person.clearArchivedRegistrations();
+    person.getRegistrations().addAll(0, registrations);
+  }
+
+  /**
+   * @return Person as it's saved, archived registrations are before the other registrations
+   */
+  JsonObject toJson(Person person) {
+    JsonObject json = gson.toJsonTree(person).getAsJsonObject();
+    String archivedJson = person.getArchivedRegistrationsJson();
+    if (archivedJson != null) {
+      JsonArray registrations = parse(archivedJson);
+      JsonElement liveRegistrations = json.get(REGISTRATIONS);
+      if (liveRegistrations != null && liveRegistrations.isJsonArray())
+        registrations.addAll(liveRegistrations.getAsJsonArray());
+      json.add(REGISTRATIONS, registrations);
+    }
+    return json;
+  }
+
+  private JsonArray parse(String json) {
+    return json != null ? gson.fromJson(json, JsonArray.class) : new JsonArray();
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.knemerzitski.isikreg.person;
+
+import com.knemerzitski.isikreg.date.Date;
+import javafx.beans.value.ObservableValue;
+
+import java.util.*;
+
+/**
+ * Registrations of a single person ordered by registered date.
+ * Registrations with same date share a bucket, so latest registration and duplicates are found in O(log k).
+ */
+class RegistrationIndex {
+
+  private static class Entry {
+    private final Registration registration;
+    private final ObservableValue<Date> dateProperty;
+    private Date date;
+
+    private Entry(Registration registration, ObservableValue<Date> dateProperty) {
+      this.registration = registration;
+      this.dateProperty = dateProperty;
+    }
+  }
+
+  private final TreeMap<Date, List<Registration>> registered = new TreeMap<>(Date::compareTo);
+  private final List<Registration> unregistered = new ArrayList<>(1);
+
+  private final Map<Registration, Entry> entries = new IdentityHashMap<>();
+  private final Map<ObservableValue<?>, Entry> entriesByDateProperty = new IdentityHashMap<>();
+
+  void add(Registration registration, ObservableValue<Date> dateProperty) {
+    if (entries.containsKey(registration))
+      return;
+    Entry entry = new Entry(registration, dateProperty);
+    entries.put(registration, entry);
+    if (dateProperty != null) {
+      entriesByDateProperty.put(dateProperty, entry);
+      entry.date = dateProperty.getValue();
+    }
+    bucket(entry.date, true).add(registration);
+  }
+
+  /**
+   * @return date property of the removed registration
+   */
+  ObservableValue<Date> remove(Registration registration) {
+    Entry entry = entries.remove(registration);
+    if (entry == null)
+      return null;
+    if (entry.dateProperty != null)
+      entriesByDateProperty.remove(entry.dateProperty);
+    removeFromBucket(entry);
+    return entry.dateProperty;
+  }
+
+  /**
+   * Moves registration to the bucket of its current date.
+   *
+   * @return registration that owns the date property or null if not indexed
+   */
+  Registration update(ObservableValue<?> dateProperty) {
+    Entry entry = entriesByDateProperty.get(dateProperty);
+    if (entry == null)
+      return null;
+    removeFromBucket(entry);
+    entry.date = entry.dateProperty.getValue();
+    bucket(entry.date, true).add(entry.registration);
+    return entry.registration;
+  }
+
+  /**
+   * @return First registration with the latest date
+   */
+  Registration latest() {
+    Map.Entry<Date, List<Registration>> last = registered.lastEntry();
+    return last != null ? last.getValue().get(0) : null;
+  }
+
+  boolean hasSameDate(Registration registration) {
+    Entry entry = entries.get(registration);
+    return entry != null && entry.date != null && bucket(entry.date, false).size() > 1;
+  }
+
+  /**
+   * Registrations are identical only if they have the same date, so only one bucket has to be checked.
+   */
+  Registration findIdentical(Registration registration) {
+    Entry entry = entries.get(registration);
+    if (entry == null)
+      return null;
+    for (Registration r : bucket(entry.date, false)) {
+      if (r != registration && r.equals(registration))
+        return r;
+    }
+    return null;
+  }
+
+  void clear() {
+    registered.clear();
+    unregistered.clear();
+    entries.clear();
+    entriesByDateProperty.clear();
+  }
+
+  private void removeFromBucket(Entry entry) {
+    List<Registration> bucket = bucket(entry.date, false);
+    bucket.remove(entry.registration);
+    if (bucket.isEmpty() && entry.date != null)
+      registered.remove(entry.date);
+  }
+
+  private List<Registration> bucket(Date date, boolean create) {
+    if (date == null)
+      return unregistered;
+    List<Registration> bucket = registered.get(date);
+    if (bucket == null) {
+      if (!create)
+        return Collections.emptyList();
+      bucket = new ArrayList<>(1);
+      registered.put(date, bucket);
+    }
+    return bucket;
+  }
+
+}
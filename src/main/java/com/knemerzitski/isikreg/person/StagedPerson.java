@@ -0,0 +1,208 @@
+package com.knemerzitski.isikreg.person;
+
+import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
+import com.knemerzitski.isikreg.gson.GsonDateProperty;
+import com.knemerzitski.isikreg.settings.ColumnProperties;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.OptionsColumn;
+import com.knemerzitski.isikreg.utils.PersonalCodeUtils;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.Property;
+import javafx.beans.property.StringProperty;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Flat import record of a person. Values are indexed by settings column index.
+ * Duplicate rows are merged as records and only the result is turned into a {@link Person}.
+ */
+class StagedPerson {
+
+  /**
+   * Column indexes shared by all records of one import
+   */
+  static class Layout {
+    private final Settings settings;
+    private final List<Column> columns;
+    private final int personalCodeIndex;
+    private final int registrationTypeIndex;
+    private final int registerDateIndex;
+    private final String defaultRegistrationType;
+
+    // Derived from personal code, -1 if not derived
+    private final int dateOfBirthIndex;
+    private final int sexIndex;
+
+    Layout(Settings settings) {
+      this.settings = settings;
+      columns = settings.columns;
+      personalCodeIndex = indexOf(Column.Id.PERSONAL_CODE);
+      registrationTypeIndex = indexOf(Column.Id.REGISTRATION_TYPE);
+      registerDateIndex = indexOf(Column.Id.REGISTER_DATE);
+      defaultRegistrationType = settings.getDefaultRegistrationType();
+
+      Column dateOfBirth = settings.getColumn(Column.Id.DATE_OF_BIRTH);
+      boolean derive = settings.general.derivePersonalCodeColumns;
+      dateOfBirthIndex = derive && dateOfBirth != null && dateOfBirth.type == Column.Type.DATE ? indexOf(dateOfBirth) : -1;
+      sexIndex = derive ? indexOf(Column.Id.SEX) : -1;
+    }
+
+    private int indexOf(Column.Id id) {
+      return columns.indexOf(settings.getColumn(id));
+    }
+
+    int indexOf(Column column) {
+      return columns.indexOf(column);
+    }
+
+    Column getColumn(int index) {
+      return columns.get(index);
+    }
+  }
+
+  private final Layout layout;
+
+  // Position of the first row of this person in the import
+  private final long order;
+
+  private final Object[] values;
+  private final List<Object[]> registrations = new ArrayList<>(1);
+
+  StagedPerson(Layout layout, long order) {
+    this.layout = layout;
+    this.order = order;
+    values = new Object[layout.columns.size()];
+    newRegistration(layout.defaultRegistrationType);
+  }
+
+  long getOrder() {
+    return order;
+  }
+
+  void set(int columnIndex, Object value) {
+    values[columnIndex] = value;
+  }
+
+  Object[] getFirstRegistration() {
+    return registrations.get(0);
+  }
+
+  Object[] getOrNewRegistration(String type) {
+    for (Object[] registration : registrations) {
+      if (Objects.equals(getType(registration), type))
+        return registration;
+    }
+    return newRegistration(type);
+  }
+
+  private Object[] newRegistration(String type) {
+    Object[] registration = new Object[layout.columns.size()];
+    if (layout.registrationTypeIndex != -1)
+      registration[layout.registrationTypeIndex] = type;
+    registrations.add(registration);
+    return registration;
+  }
+
+  String getPersonalCode() {
+    Object code = layout.personalCodeIndex != -1 ? values[layout.personalCodeIndex] : null;
+    return code instanceof String ? (String) code : "";
+  }
+
+  /**
+   * Same as {@link Person#merge(Person)}, registrations with same date and type are merged together.
+   */
+  void merge(StagedPerson other) {
+    mergeValues(values, other.values);
+    for (Object[] otherRegistration : other.registrations) {
+      Object[] sameRegistration = null;
+      for (Object[] registration : registrations) {
+        if (same(registration, otherRegistration)) {
+          sameRegistration = registration;
+          break;
+        }
+      }
+      if (sameRegistration != null) {
+        mergeValues(sameRegistration, otherRegistration);
+      } else {
+        registrations.add(otherRegistration);
+      }
+    }
+  }
+
+  private void mergeValues(Object[] values, Object[] newValues) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null || newValues[i] != null)
+        values[i] = ColumnProperties.mergeValue(layout.getColumn(i), values[i], newValues[i]);
+    }
+  }
+
+  private boolean same(Object[] registration, Object[] otherRegistration) {
+    return Objects.equals(getDate(registration), getDate(otherRegistration)) &&
+        Objects.equals(getType(registration), getType(otherRegistration));
+  }
+
+  private String getType(Object[] registration) {
+    return layout.registrationTypeIndex != -1 ? (String) registration[layout.registrationTypeIndex] : null;
+  }
+
+  private Date getDate(Object[] registration) {
+    return layout.registerDateIndex != -1 ? (Date) registration[layout.registerDateIndex] : null;
+  }
+
+  /**
+   * Fills missing date of birth and sex from personal code
+   */
+  private void deriveFromPersonalCode() {
+    if (layout.dateOfBirthIndex != -1 && values[layout.dateOfBirthIndex] == null) {
+      LocalDate dateOfBirth = PersonalCodeUtils.getDateOfBirth(getPersonalCode());
+      if (dateOfBirth != null)
+        values[layout.dateOfBirthIndex] = new Date(dateOfBirth);
+    }
+    if (layout.sexIndex != -1 && (values[layout.sexIndex] == null || "".equals(values[layout.sexIndex]))) {
+      String sex = PersonalCodeUtils.getSex(getPersonalCode());
+      Column column = layout.getColumn(layout.sexIndex);
+      if (sex != null && column instanceof OptionsColumn) {
+        OptionsColumn.Option option = ((OptionsColumn) column).findOption(sex);
+        sex = option != null ? option.label : null;
+      }
+      if (sex != null)
+        values[layout.sexIndex] = sex;
+    }
+  }
+
+  Person toPerson() {
+    deriveFromPersonalCode();
+    Person person = new Person(layout.settings);
+    setValues(person.getProperties(), values);
+    for (Object[] values : registrations) {
+      Registration registration = person.newRegistration();
+      setValues(registration.getProperties(), values);
+    }
+    person.cleanUpRegistrations();
+    return person;
+  }
+
+  private void setValues(ColumnProperties properties, Object[] values) {
+    for (int i = 0; i < values.length; i++) {
+      Column column = layout.getColumn(i);
+      if (values[i] == null || column.id == Column.Id.REGISTERED) // Registered is set from registered date
+        continue;
+      Property<?> property = properties.get(column);
+      if (property instanceof GsonDateProperty) {
+        ((GsonDateProperty) property).set((Date) values[i]);
+      } else if (property instanceof StringProperty) {
+        ((StringProperty) property).set((String) values[i]);
+      } else if (property instanceof GsonBooleanProperty) {
+        ((GsonBooleanProperty) property).set((Boolean) values[i]);
+      } else if (property instanceof BooleanProperty) {
+        ((BooleanProperty) property).set((Boolean) values[i]);
+      }
+    }
+  }
+
+}
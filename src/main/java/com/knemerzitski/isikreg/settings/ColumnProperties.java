@@ -6,6 +6,7 @@ import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.gson.BeanProperty;
 import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
 import com.knemerzitski.isikreg.gson.GsonDateProperty;
 import com.knemerzitski.isikreg.settings.columns.Column;
@@ -103,56 +104,25 @@ public class ColumnProperties extends HashMap<Column, Property<?>> {
     }
   }
 
+  /**
+   * Sets owner of all properties, so that shared listeners can find it.
+   */
+  public void setBean(Object bean) {
+    values().forEach(property -> {
+      if (property instanceof BeanProperty)
+        ((BeanProperty) property).setBean(bean);
+    });
+  }
+
   public void merge(Map<Column, Property<?>> newProperties) {
     super.forEach((column, property) -> {
       Property<?> newProperty = newProperties.get(column);
       if (property instanceof GsonDateProperty && newProperty instanceof GsonDateProperty) {
         GsonDateProperty dateProperty = (GsonDateProperty) property;
-        GsonDateProperty newDateProperty = (GsonDateProperty) newProperty;
-        Date date = dateProperty.get();
-        Date newDate = newDateProperty.get();
-        switch (column.merge.rule) {
-          case OVERWRITE_ON_EMPTY:
-            if (date == null)
-              dateProperty.set(newDate);
-            break;
-          case NEWER:
-            if (date == null) {
-              dateProperty.set(newDate);
-            } else if (newDate != null) {
-              if (newDate.isAfter(date)) {
-                dateProperty.set(newDate);
-              }
-            }
-            break;
-          case OLDER:
-            if (date == null) {
-              dateProperty.set(newDate);
-            } else if (newDate != null) {
-              if (date.isAfter(newDate)) {
-                dateProperty.set(newDate);
-              }
-            }
-            break;
-        }
+        dateProperty.set((Date) mergeValue(column, dateProperty.get(), ((GsonDateProperty) newProperty).get()));
       } else if (property instanceof StringProperty && newProperty instanceof StringProperty) {
         StringProperty stringProperty = (StringProperty) property;
-        StringProperty newStringProperty = (StringProperty) newProperty;
-        String string = stringProperty.get();
-        String newString = newStringProperty.get();
-        switch (column.merge.rule) {
-          case OVERWRITE_ON_EMPTY:
-            if (string == null || string.trim().isEmpty()) {
-              stringProperty.set(newString);
-            }
-            break;
-          case COMBINE:
-            String[] values = string != null ? string.split(column.merge.separator.trim()) : new String[0];
-            String[] newValues = newString != null ? newString.split(column.merge.separator.trim()) : new String[0];
-            stringProperty.set(Stream.concat(Arrays.stream(values), Arrays.stream(newValues))
-                .map(String::trim).distinct().filter(v -> !v.isEmpty()).collect(Collectors.joining(column.merge.separator)));
-            break;
-        }
+        stringProperty.set((String) mergeValue(column, stringProperty.get(), ((StringProperty) newProperty).get()));
       } else if (property instanceof BooleanProperty && newProperty instanceof BooleanProperty) {
         BooleanProperty booleanProperty = (BooleanProperty) property;
         BooleanProperty newBooleanProperty = (BooleanProperty) newProperty;
@@ -173,6 +143,42 @@ public class ColumnProperties extends HashMap<Column, Property<?>> {
     });
   }
 
+  /**
+   * Merges two values of the column by column merge rule.
+   *
+   * @return Merged value
+   */
+  public static Object mergeValue(Column column, Object value, Object newValue) {
+    if (value instanceof Date || newValue instanceof Date) {
+      Date date = (Date) value;
+      Date newDate = (Date) newValue;
+      switch (column.merge.rule) {
+        case OVERWRITE_ON_EMPTY:
+          return date == null ? newDate : date;
+        case NEWER:
+          return date == null || (newDate != null && newDate.isAfter(date)) ? newDate : date;
+        case OLDER:
+          return date == null || (newDate != null && date.isAfter(newDate)) ? newDate : date;
+      }
+    } else if (value instanceof String || newValue instanceof String) {
+      String string = (String) value;
+      String newString = (String) newValue;
+      switch (column.merge.rule) {
+        case OVERWRITE_ON_EMPTY:
+          return string == null || string.trim().isEmpty() ? newString : string;
+        case COMBINE:
+          String[] values = string != null ? string.split(column.merge.separator.trim()) : new String[0];
+          String[] newValues = newString != null ? newString.split(column.merge.separator.trim()) : new String[0];
+          return Stream.concat(Arrays.stream(values), Arrays.stream(newValues))
+              .map(String::trim).distinct().filter(v -> !v.isEmpty()).collect(Collectors.joining(column.merge.separator));
+      }
+    } else if (value instanceof Boolean || newValue instanceof Boolean) {
+      // Same as merging BooleanProperty values
+      return value == null ? newValue : newValue == null ? value : (Boolean) value || (Boolean) newValue;
+    }
+    return value;
+  }
+
 
   public void setIfExists(Map<Column, Property<?>> newProps) {
     super.forEach((column, property) -> {
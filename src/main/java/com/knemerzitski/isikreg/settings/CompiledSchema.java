@@ -0,0 +1,171 @@
+package com.knemerzitski.isikreg.settings;
+
+import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
+import com.knemerzitski.isikreg.gson.GsonDateProperty;
+import com.knemerzitski.isikreg.gson.GsonStringProperty;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.OptionsColumn;
+import com.knemerzitski.isikreg.settings.columns.TypeGroupedColumn;
+import com.knemerzitski.isikreg.utils.StringUtils;
+import javafx.beans.property.Property;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Column lookups computed once from settings columns.
+ * Settings columns must not be modified after compiling, otherwise {@link Settings#compileSchema()} must be called again.
+ */
+public class CompiledSchema {
+
+  private static final EnumMap<Column.Type, Supplier<Property<?>>> PROPERTY_FACTORIES = new EnumMap<>(Column.Type.class);
+
+  static {
+    PROPERTY_FACTORIES.put(Column.Type.TEXT, GsonStringProperty::new);
+    PROPERTY_FACTORIES.put(Column.Type.RADIO, GsonStringProperty::new);
+    PROPERTY_FACTORIES.put(Column.Type.COMBOBOX, GsonStringProperty::new);
+    PROPERTY_FACTORIES.put(Column.Type.CHECKBOX, GsonBooleanProperty::new);
+    PROPERTY_FACTORIES.put(Column.Type.DATE, GsonDateProperty::new);
+  }
+
+  private final List<Column> source;
+  private final int sourceSize;
+
+  private final Column[] columnsById = new Column[Column.Id.values().length];
+  private final EnumMap<Column.Group, List<Column>> columnsByGroup = new EnumMap<>(Column.Group.class);
+  private final Map<String, Column> columnsByCustomId = new HashMap<>();
+  private final Map<String, Column> columnsByLabel = new HashMap<>();
+  private final List<Column> formColumns;
+
+  private final List<String> registrationTypes;
+  private final String defaultRegistrationType;
+  private final List<TypeGroupedColumn> registrationTypeGroupColumns;
+
+  CompiledSchema(Settings settings) {
+    source = settings.columns;
+    sourceSize = source.size();
+
+    List<Column> formColumns = new ArrayList<>();
+    for (Column.Group group : Column.Group.values()) {
+      columnsByGroup.put(group, new ArrayList<>());
+    }
+    for (Column column : source) {
+      if (column.id != Column.Id.CUSTOM) {
+        if (columnsById[column.id.ordinal()] == null)
+          columnsById[column.id.ordinal()] = column;
+      } else if (column.customId != null) {
+        columnsByCustomId.putIfAbsent(column.customId, column);
+      }
+      if (column.label != null)
+        columnsByLabel.putIfAbsent(column.label.trim().toLowerCase(), column);
+      if (column.group != null)
+        columnsByGroup.get(column.group).add(column);
+      if (column.hasForm() && column.hasLabel())
+        formColumns.add(column);
+    }
+    columnsByGroup.replaceAll((group, columns) -> Collections.unmodifiableList(columns));
+    this.formColumns = Collections.unmodifiableList(formColumns);
+
+    Column registrationTypeColumn = getColumn(Column.Id.REGISTRATION_TYPE);
+    if (registrationTypeColumn instanceof OptionsColumn) {
+      registrationTypes = Collections.unmodifiableList(((OptionsColumn) registrationTypeColumn).getOptionValues());
+    } else {
+      registrationTypes = Collections.emptyList();
+    }
+
+    String defaultType = settings.general.defaultRegistrationType;
+    if (defaultType != null && registrationTypes.stream()
+        .anyMatch(t -> t.toLowerCase().trim().equals(defaultType.trim().toLowerCase()))) {
+      defaultRegistrationType = defaultType;
+    } else {
+      defaultRegistrationType = !registrationTypes.isEmpty() ? registrationTypes.get(0) : null;
+    }
+
+    registrationTypeGroupColumns = createRegistrationTypeGroupColumns();
+  }
+
+  private List<TypeGroupedColumn> createRegistrationTypeGroupColumns() {
+    Column regTypeColumn = getColumn(Column.Id.REGISTRATION_TYPE);
+    Column regDateColumn = getColumn(Column.Id.REGISTER_DATE);
+    if (regTypeColumn == null || regTypeColumn.group != Column.Group.REGISTRATION ||
+        regDateColumn == null || regDateColumn.group != Column.Group.REGISTRATION)
+      return null;
+
+    List<Column> registrationColumns = new ArrayList<>(getColumnsByGroup(Column.Group.REGISTRATION));
+    registrationColumns.remove(getColumn(Column.Id.REGISTERED));
+    registrationColumns.remove(regTypeColumn);
+
+    List<String> labels = new ArrayList<>();
+    if (regTypeColumn instanceof OptionsColumn) {
+      ((OptionsColumn) regTypeColumn).options.forEach(o -> labels.add(o.label));
+    } else {
+      labels.add(regTypeColumn.getLabel());
+    }
+
+    List<TypeGroupedColumn> groupedColumns = new ArrayList<>();
+    for (String label : labels) {
+      for (Column regCol : registrationColumns) {
+        TypeGroupedColumn col = new TypeGroupedColumn();
+        col.type = label;
+        col.source = regCol;
+        col.label = StringUtils.firstCharCapitalize(label + " " + regCol.label);
+        groupedColumns.add(col);
+      }
+    }
+    return Collections.unmodifiableList(groupedColumns);
+  }
+
+  boolean isCompiledFrom(List<Column> columns) {
+    return source == columns && sourceSize == columns.size();
+  }
+
+  public Column getColumn(Column.Id id) {
+    return columnsById[id.ordinal()];
+  }
+
+  public List<Column> getColumnsByGroup(Column.Group group) {
+    return columnsByGroup.get(group);
+  }
+
+  public List<Column> getFormColumns() {
+    return formColumns;
+  }
+
+  /**
+   * Finds column by id, custom id or label
+   */
+  public Column parseColumn(String value) {
+    Column.Id id = Column.Id.get(value);
+    if (id != Column.Id.CUSTOM)
+      return getColumn(id);
+    Column column = columnsByCustomId.get(value);
+    if (column != null)
+      return column;
+    return value != null ? columnsByLabel.get(value.trim().toLowerCase()) : null;
+  }
+
+  public Column getColumnByLabel(String label) {
+    return label != null ? columnsByLabel.get(label.trim().toLowerCase()) : null;
+  }
+
+  public List<String> getRegistrationTypes() {
+    return registrationTypes;
+  }
+
+  public String getDefaultRegistrationType() {
+    return defaultRegistrationType;
+  }
+
+  /**
+   * @return Shared columns, must not be modified. Null if registration columns are missing.
+   */
+  public List<TypeGroupedColumn> getRegistrationTypeGroupColumns() {
+    return registrationTypeGroupColumns;
+  }
+
+  public Property<?> newProperty(Column column) {
+    Supplier<Property<?>> factory = PROPERTY_FACTORIES.get(column.type);
+    return factory != null ? factory.get() : null;
+  }
+
+}
@@ -2,6 +2,7 @@ package com.knemerzitski.isikreg.settings;
 
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.knemerzitski.isikreg.date.DateFormatter;
 import com.knemerzitski.isikreg.gson.GsonBooleanProperty;
 import com.knemerzitski.isikreg.gson.GsonDateProperty;
 import com.knemerzitski.isikreg.gson.GsonStringProperty;
@@ -10,7 +11,6 @@ import com.knemerzitski.isikreg.settings.adapters.BooleanObjectExpandAdapter;
 import com.knemerzitski.isikreg.settings.columns.*;
 import com.knemerzitski.isikreg.ui.DialogHandler;
 import com.knemerzitski.isikreg.ui.status.VariableStatusMessages;
-import com.knemerzitski.isikreg.utils.StringUtils;
 import io.gsonfire.GsonFireBuilder;
 import javafx.beans.property.Property;
 import org.jetbrains.annotations.NotNull;
@@ -25,7 +25,6 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static com.knemerzitski.isikreg.settings.columns.Column.Group.PERSON;
 import static com.knemerzitski.isikreg.settings.columns.Column.Group.REGISTRATION;
@@ -65,6 +64,7 @@ public class Settings {
   private static final Gson GSON = new GsonFireBuilder()
       .enumDefaultValue(Rule.class, Rule.ALLOW)
       .enumDefaultValue(ColumnResizePolicy.class, ColumnResizePolicy.UNCONSTRAINED)
+      .enumDefaultValue(AutoSize.class, AutoSize.APPROXIMATE)
       .enumDefaultValue(Column.Group.class, PERSON)
       .enumDefaultValue(Column.Id.class, CUSTOM)
       .enumDefaultValue(Column.Type.class, Column.Type.TEXT)
@@ -181,6 +181,12 @@ public class Settings {
     UNCONSTRAINED, CONSTRAINED
   }
 
+  public enum AutoSize {
+    EXACT, // measured with font metrics, slow on large lists
+    APPROXIMATE, // estimated from text while writing rows
+    OFF
+  }
+
   public static class QuickRegistrationButtons {
 
     public boolean showSelectedPerson = true;
@@ -208,6 +214,17 @@ public class Settings {
 
     public boolean warnDuplicateRegistrationDate = true;
 
+    // Registered registrations are moved out of the table into a compact archive, latest registration is always kept
+    public long archiveRegistrationsAfter = 0; // >= 0, milliseconds since registering, 0 disables
+    public int archiveKeepLatestRegistrations = 0; // >= 0, registrations kept per person, 0 disables
+
+    // Lists added or changed in the folder are imported automatically, only changed rows are merged
+    public String autoImportFolder; // null disables
+    public long autoImportDelay = 2000; // >= 0, milliseconds, file is imported after it hasn't changed for this long
+
+    // DATE_OF_BIRTH and SEX are computed from PERSONAL_CODE instead of reading them from the card, also filled on import if missing
+    public boolean derivePersonalCodeColumns = false;
+
     public boolean tableContextMenu = true;
 
     public QuickRegistrationButtons quickRegistrationButtons = new QuickRegistrationButtons();
@@ -215,6 +232,9 @@ public class Settings {
     public ColumnResizePolicy columnResizePolicy = ColumnResizePolicy.UNCONSTRAINED;
 
     public boolean currentSettingsMenuItem = false;
+    public boolean memoryDiagnosticsMenuItem = false;
+
+    public int memoryWarningPercent = 85; // 0-100, warn when used heap reaches this percent of max heap (-Xmx), 0 disables
 
   }
 
@@ -223,6 +243,15 @@ public class Settings {
     public String exportDateTimeFormat = "dd.mm.yyyy hh:mm";
     public String exportDateFormat = "dd.mm.yyyy";
     public boolean exportAutoSizeColumns = true;
+    public AutoSize exportAutoSizeMode = AutoSize.APPROXIMATE; // used if exportAutoSizeColumns is true
+  }
+
+  public static class Csv {
+    public String charset = "UTF-8";
+    public String separator = ";"; // single character, .tsv files are always separated by tab
+    public DateFormatter dateTimeFormat = new DateFormatter("dd.MM.yyyy HH:mm:ss");
+    public DateFormatter dateFormat = new DateFormatter("dd.MM.yyyy");
+    public boolean exportByteOrderMark = true; // Excel recognizes UTF-8 file by byte order mark
   }
 
   public static class SmartCard {
@@ -248,6 +277,13 @@ public class Settings {
     public long waitBeforeReadingCard = 250; // milliseconds, >= 0
     public long cardReadingFailedRetryInterval = 2000; // milliseconds, >= 0
     public int cardReadingAttemptsUntilGiveUp = 4; // >= 0
+    // Wait before reading is shortened while cards are read on the first attempt and failed reading is retried sooner
+    // with increasing intervals, waitBeforeReadingCard and cardReadingFailedRetryInterval are the upper limits
+    public boolean adaptiveCardReadTiming = true;
+
+    // Card put in again is recognized by personal code and document number, other records are not read again
+    public long cardCacheTime = 0; // milliseconds, >= 0, 0 disables
+    public int cardCacheSize = 32; // >= 0, 0 disables
 
     // Card Reader
     public long noReadersCheckInterval = 2000; // milliseconds, >= 0
@@ -262,9 +298,12 @@ public class Settings {
 
   public General general = new General();
   public Excel excel = new Excel();
+  public Csv csv = new Csv();
   public SmartCard smartCard = new SmartCard();
   public List<Column> columns = new ArrayList<>();
 
+  private transient volatile CompiledSchema schema;
+
   public Settings() {
   }
 
@@ -305,102 +344,57 @@ public class Settings {
     }
   }
 
+  /**
+   * Compiles column lookups. Must be called again when columns are modified.
+   */
+  public CompiledSchema compileSchema() {
+    CompiledSchema compiledSchema = new CompiledSchema(this);
+    schema = compiledSchema;
+    return compiledSchema;
+  }
+
+  public CompiledSchema getSchema() {
+    CompiledSchema compiledSchema = schema;
+    if (compiledSchema == null || !compiledSchema.isCompiledFrom(columns))
+      compiledSchema = compileSchema();
+    return compiledSchema;
+  }
+
   public String getDefaultRegistrationType() {
-    List<String> types = getRegistrationTypes();
-    if (general.defaultRegistrationType != null && types.stream()
-        .anyMatch(t -> t.toLowerCase().trim().equals(general.defaultRegistrationType.trim().toLowerCase())))
-      return general.defaultRegistrationType;
-    return !types.isEmpty() ? types.get(0) : null;
+    return getSchema().getDefaultRegistrationType();
   }
 
   public List<String> getRegistrationTypes() {
-    Column registrationTypeColumn = getColumn(Column.Id.REGISTRATION_TYPE);
-    if (registrationTypeColumn instanceof OptionsColumn) {
-      OptionsColumn options = (OptionsColumn) registrationTypeColumn;
-      return options.getOptionValues();
-    }
-    return Collections.emptyList();
+    return getSchema().getRegistrationTypes();
   }
 
   public List<Column> getFormColumns() {
-    return columns.stream().filter(column -> column.hasForm() && column.hasLabel()).collect(Collectors.toList());
+    return getSchema().getFormColumns();
   }
 
   public List<Column> getColumnsByGroup(Column.Group group) {
-    return columns.stream().filter(column -> column.group == group).collect(Collectors.toList());
+    return getSchema().getColumnsByGroup(group);
   }
 
   public Column getColumn(Column.Id id) {
-    return columns.stream()
-        .filter(column -> column.id == id)
-        .findFirst().orElse(null);
+    return getSchema().getColumn(id);
   }
 
   public Column parseColumn(String value) {
-    Column.Id id = Column.Id.get(value);
-    if (id != CUSTOM) {
-      return getColumn(id);
-    } else {
-      // Find by custom id
-      Column column = columns.stream()
-          .filter(c -> c.customId != null && c.customId.equals(value))
-          .findFirst().orElse(null);
-      if (column == null) {
-        // Didn't find by id, try label
-        return columns.stream()
-            .filter(c -> c.label != null && c.label.trim().equalsIgnoreCase(value))
-            .findFirst().orElse(null);
-      } else {
-        return null;
-      }
-    }
+    return getSchema().parseColumn(value);
   }
 
   public List<TypeGroupedColumn> registrationTypeGroupColumns() {
-    List<Column> registrationColumns = columns.stream().filter(c -> c.group == Column.Group.REGISTRATION)
-        .collect(Collectors.toList());
-    Column regColumn = registrationColumns.stream().filter(c -> c.id == Column.Id.REGISTERED).findFirst().orElse(null);
-    Column regTypeColumn = registrationColumns.stream().filter(c -> c.id == Column.Id.REGISTRATION_TYPE).findFirst().orElse(null);
-    Column regDateCol = registrationColumns.stream().filter(c -> c.id == Column.Id.REGISTER_DATE).findFirst().orElse(null);
-    registrationColumns.remove(regColumn);
-    registrationColumns.remove(regTypeColumn);
-
-    if (regTypeColumn != null && regDateCol != null) {
-      List<String> extraColumnNames = new ArrayList<>();
-      if (regTypeColumn instanceof OptionsColumn) {
-        List<OptionsColumn.Option> options = ((OptionsColumn) regTypeColumn).options;
-        extraColumnNames.addAll(options.stream().map(o -> o.label).collect(Collectors.toList()));
-      } else {
-        extraColumnNames.add(regTypeColumn.getLabel());
-      }
-
-      return extraColumnNames.stream().flatMap(label -> registrationColumns.stream().map(regCol -> {
-        TypeGroupedColumn col = new TypeGroupedColumn();
-        col.type = label;
-        col.source = regCol;
-        col.label = StringUtils.firstCharCapitalize(label + " " + regCol.label);
-        return col;
-      })).collect(Collectors.toList());
-    } else {
-      return null;
-    }
+    return getSchema().getRegistrationTypeGroupColumns();
   }
 
-
   public Property<?> newProperty(Column.Id id) {
     Column column = getColumn(id);
     return column != null ? newProperty(column) : null;
   }
 
   public Property<?> newProperty(Column column) {
-    Class<? extends Property<?>> klass = columnPropertyClass(column);
-    if (klass == null)
-      return null;
-    try {
-      return klass.newInstance();
-    } catch (InstantiationException | IllegalAccessException e) {
-      return null;
-    }
+    return getSchema().newProperty(column);
   }
 
   public Class<? extends Property<?>> columnPropertyClass(Column column) {
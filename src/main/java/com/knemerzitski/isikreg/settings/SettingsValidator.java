@@ -4,6 +4,8 @@ import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.settings.columns.ComboBoxColumn;
 import com.knemerzitski.isikreg.settings.columns.OptionsColumn;
 
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -17,6 +19,16 @@ public class SettingsValidator {
     validateRequired("settings.smartCard.statusFormat", settings.smartCard.statusFormat);
     validatePositive("settings.general.saveDelay", settings.general.saveDelay);
     validateRequired("settings.general.savePath", settings.general.savePath);
+    validateRange("settings.general.memoryWarningPercent", settings.general.memoryWarningPercent, 0, 100);
+    validateNonNegative("settings.general.archiveRegistrationsAfter", settings.general.archiveRegistrationsAfter);
+    validateNonNegative("settings.general.archiveKeepLatestRegistrations", settings.general.archiveKeepLatestRegistrations);
+    validateNonNegative("settings.general.autoImportDelay", settings.general.autoImportDelay);
+
+    // Csv
+    validateCharset("settings.csv.charset", settings.csv.charset);
+    validateSeparator("settings.csv.separator", settings.csv.separator);
+    validateRequired("settings.csv.dateTimeFormat", settings.csv.dateTimeFormat);
+    validateRequired("settings.csv.dateFormat", settings.csv.dateFormat);
 
     // SmartCard
     validatePositive("settings.smartCard.externalTerminalFontSize", settings.smartCard.externalTerminalFontSize);
@@ -29,6 +41,8 @@ public class SettingsValidator {
     validateNonNegative("settings.smartCard.waitBeforeReadingCard", settings.smartCard.waitBeforeReadingCard);
     validateNonNegative("settings.smartCard.cardReadingFailedRetryInterval", settings.smartCard.cardReadingFailedRetryInterval);
     validateNonNegative("settings.smartCard.cardReadingAttemptsUntilGiveUp", settings.smartCard.cardReadingAttemptsUntilGiveUp);
+    validateNonNegative("settings.smartCard.cardCacheTime", settings.smartCard.cardCacheTime);
+    validateNonNegative("settings.smartCard.cardCacheSize", settings.smartCard.cardCacheSize);
 
     // Columns
     List<Column> columns = settings.columns;
@@ -70,6 +84,8 @@ public class SettingsValidator {
     validateNoDuplicates("column.id", columns.stream().filter(c -> c.id != Column.Id.CUSTOM).map(c -> c.id).collect(Collectors.toList()));
     validateNoDuplicates("column.id", columns.stream().filter(c -> c.id == Column.Id.CUSTOM).map(c -> c.customId).collect(Collectors.toList()));
     validateNoDuplicates("column.label", columns.stream().map(c -> c.getLabel().toLowerCase()).collect(Collectors.toList()));
+
+    settings.compileSchema();
   }
 
   private static void validateColumnTypeFixedOptions(Settings settings, Column.Id id) throws SettingsValidationException {
@@ -160,6 +176,25 @@ public class SettingsValidator {
       throwException("Peab olema positiivne", name, value);
   }
 
+  private static void validateRange(String name, Number value, long min, long max) throws SettingsValidationException {
+    if (value.longValue() < min || value.longValue() > max)
+      throwException(String.format("Peab olema vahemikus %d kuni %d", min, max), name, value);
+  }
+
+  private static void validateCharset(String name, String value) throws SettingsValidationException {
+    validateRequired(name, value);
+    try {
+      if (!Charset.isSupported(value))
+        throwException("Tundmatu kodeering", name, value);
+    } catch (IllegalCharsetNameException e) {
+      throwException("Tundmatu kodeering", name, value);
+    }
+  }
+
+  private static void validateSeparator(String name, String value) throws SettingsValidationException {
+    if (value == null || value.length() != 1 || value.equals("\"") || value.equals("\n") || value.equals("\r"))
+      throwException("Peab olema üks märk, mis ei ole jutumärk ega reavahetus", name, value);
+  }
 
   private static void validateNoDuplicates(String name, List<Object> list) throws SettingsValidationException {
     for (int i = 0; i < list.size(); i++) {
@@ -26,6 +26,19 @@ public class OptionsColumn extends Column {
     return options.stream().filter(Option::hasLabel).map(o -> o.label).collect(Collectors.toList());
   }
 
+  /**
+   * @return First option which id or label starts with the value, case is ignored
+   */
+  public Option findOption(String value) {
+    String lowerValue = value.toLowerCase();
+    for (Option o : options) {
+      if ((o.id != null && o.id.toLowerCase().startsWith(lowerValue)) ||
+          (o.label != null && o.label.toLowerCase().startsWith(lowerValue)))
+        return o;
+    }
+    return null;
+  }
+
   public static class Option {
 
     public static class OptionAdapter extends TypeAdapter<Option> {
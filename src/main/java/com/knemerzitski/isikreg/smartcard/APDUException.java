@@ -18,4 +18,22 @@ public class APDUException extends Exception {
     return status;
   }
 
+  /**
+   * @return false if status word shows that card doesn't support the command, reading again gives the same result
+   */
+  public boolean isRetryable() {
+    switch (status) {
+      case 0x6982: // Security status not satisfied
+      case 0x6A81: // Function not supported
+      case 0x6A82: // File not found
+      case 0x6A86: // Incorrect P1 P2
+      case 0x6B00: // Wrong P1 P2
+      case 0x6D00: // Instruction not supported
+      case 0x6E00: // Class not supported
+        return false;
+      default:
+        return true;
+    }
+  }
+
 }
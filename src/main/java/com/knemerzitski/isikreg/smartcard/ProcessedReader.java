@@ -5,6 +5,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.smartcardio.Card;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 public class ProcessedReader {
 
@@ -12,6 +13,7 @@ public class ProcessedReader {
   private final Card card;
   private final CardRecords records;
   private final TerminalsManager.Status status;
+  private final CompletableFuture<Void> processingDone = new CompletableFuture<>();
 
   public ProcessedReader(@NotNull TerminalReader reader) {
     this.reader = reader;
@@ -48,6 +50,13 @@ public class ProcessedReader {
     return status;
   }
 
+  /**
+   * @return Completed when card records of this reading have been processed
+   */
+  public CompletableFuture<Void> getProcessingDone() {
+    return processingDone;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -7,8 +7,9 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import org.jetbrains.annotations.NotNull;
 
-import javax.smartcardio.CardException;
-import javax.smartcardio.CardTerminal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -26,6 +27,14 @@ public class ProcessedReadersManager implements Runnable {
 
   private final ReentrantLock processingLock = new ReentrantLock();
 
+  // Last card that is processed or being processed for each personal code
+  private final ConcurrentMap<String, CompletableFuture<Void>> personsInProcess = new ConcurrentHashMap<>();
+
+  // Reader shown as status of all terminals
+  private volatile TerminalReader shownReader;
+  private volatile ChangeListener<Boolean> shownReaderLockListener;
+  private volatile ChangeListener<Boolean> shownReaderCardPresentListener;
+
   public ProcessedReadersManager(TerminalsManager handler) {
     this.settings = handler.settings;
 
@@ -74,6 +83,9 @@ public class ProcessedReadersManager implements Runnable {
     readers.offer(reader);
   }
 
+  /**
+   * Card is not waited to be removed, so a card left in one terminal doesn't stop other terminals
+   */
   protected void processCardTerminalReader(ProcessedReader processedReader) throws InterruptedException {
     if (processedReader.cardChanged()) {
       return;
@@ -81,25 +93,7 @@ public class ProcessedReadersManager implements Runnable {
 
     TerminalReader reader = processedReader.getReader();
 
-    handler.statusProperty().unbindLocking();
-    handler.statusProperty().bindLocking(reader.statusProperty());
-
-    handler.cardPresentProperty().unbind();
-    handler.cardPresentProperty().bind(reader.cardPresentProperty());
-
-    ChangeListener<Boolean> readerLockListener = new ChangeListener<Boolean>() {
-      @Override
-      public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean locked) {
-        if (locked) return;
-        reader.statusProperty().removeLockListener(this);
-
-        if (processedReader.cardChanged()) return;
-
-        handler.statusProperty().unbindLocking();
-        handler.cardPresentProperty().unbind();
-      }
-    };
-    reader.statusProperty().addLockListener(readerLockListener);
+    showReader(processedReader);
 
     handler.setStatus(PROCESSING_CARD);
 
@@ -119,11 +113,9 @@ public class ProcessedReadersManager implements Runnable {
         break;
       case SUCCESS:
         reader.lockStatus();
-        handler.startProcessingCardRecords();
-        handler.successReader(processedReader);
-        handler.awaitProcessingCardRecordsDone();
-        if (settings.smartCard.showSuccessStatusDuration >= 0) {
-          reader.unlockStatus(settings.smartCard.showSuccessStatusDuration);
+        processSuccess(processedReader);
+        if (!handler.isQuickProcessing(processedReader)) {
+          handler.awaitProcessingCardRecordsDone(processedReader);
         }
         break;
     }
@@ -132,31 +124,93 @@ public class ProcessedReadersManager implements Runnable {
       handler.failedReader(processedReader);
     }
 
-    // Wait for card to be removed before processing next one
-    reader.getCardLock().lock();
-    try {
-      CardTerminal terminal = reader.getCardTerminal();
-      if (terminal != null) {
-        if (terminal.isCardPresent() && !processedReader.cardChanged()) {
-          processedReader.getReader().printInfo("Waiting card to be removed before processing next reader");
-          while (!terminal.waitForCardAbsent(settings.smartCard.waitForChangeLoopInterval)) {
-            if (Thread.currentThread().isInterrupted()) {
-              throw new InterruptedException("Waiting for card absent interrupted");
-            }
-            if (!terminal.isCardPresent()) break;
-          }
-        }
+    processedReader.getReader().printInfo("Processing done");
+  }
+
+  /**
+   * Records are given to the handler once previous card of the same person is processed
+   */
+  private void processSuccess(ProcessedReader processedReader) {
+    TerminalReader reader = processedReader.getReader();
+    CompletableFuture<Void> done = processedReader.getProcessingDone();
+    done.whenComplete((v, e) -> {
+      if (processedReader.recordsChanged())
+        return; // Next card already read, status is handled with it
+      if (settings.smartCard.showSuccessStatusDuration >= 0) {
+        reader.unlockStatus(settings.smartCard.showSuccessStatusDuration);
       }
-    } catch (CardException e) {
-      processedReader.getReader().printInfo("Waiting for card to be removed interrupted. Exception happened");
-    } finally {
-      reader.statusProperty().removeLockListener(readerLockListener);
-      handler.cardPresentProperty().unbind();
-      handler.cardPresentProperty().set(false);
-      reader.getCardLock().unlock();
+    });
+
+    String personalCode = processedReader.getRecords().getPersonalCode();
+    CompletableFuture<Void> previous = null;
+    if (personalCode != null) {
+      previous = personsInProcess.put(personalCode, done);
+      done.whenComplete((v, e) -> personsInProcess.remove(personalCode, done));
     }
+    if (previous == null || previous.isDone()) {
+      handler.successReader(processedReader);
+    } else {
+      reader.printInfo("Waiting for previous card of the same person to be processed");
+      previous.whenComplete((v, e) -> handler.successReader(processedReader));
+    }
+  }
 
-    processedReader.getReader().printInfo("Processing done");
+  /**
+   * Status and card presence of all terminals follow this reader until its status is unlocked or card is removed
+   */
+  private synchronized void showReader(ProcessedReader processedReader) {
+    hideReader();
+
+    TerminalReader reader = processedReader.getReader();
+    shownReader = reader;
+
+    handler.statusProperty().unbindLocking();
+    handler.statusProperty().bindLocking(reader.statusProperty());
+
+    handler.cardPresentProperty().unbind();
+    handler.cardPresentProperty().bind(reader.cardPresentProperty());
+
+    shownReaderLockListener = new ChangeListener<Boolean>() {
+      @Override
+      public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean locked) {
+        if (locked) return;
+        reader.statusProperty().removeLockListener(this);
+        if (shownReaderLockListener != this) return; // Another reader is already shown
+
+        if (processedReader.cardChanged()) return;
+
+        handler.statusProperty().unbindLocking();
+        handler.cardPresentProperty().unbind();
+      }
+    };
+    reader.statusProperty().addLockListener(shownReaderLockListener);
+
+    shownReaderCardPresentListener = (observable, oldValue, present) -> {
+      if (!present)
+        removedReader(reader);
+    };
+    reader.cardPresentProperty().addListener(shownReaderCardPresentListener);
+    if (!reader.cardPresentProperty().get())
+      hideReader(); // Removed before processing
+  }
+
+  private synchronized void removedReader(TerminalReader reader) {
+    if (shownReader == reader)
+      hideReader();
+  }
+
+  private void hideReader() {
+    if (shownReader == null)
+      return;
+    if (shownReaderLockListener != null)
+      shownReader.statusProperty().removeLockListener(shownReaderLockListener);
+    shownReader.cardPresentProperty().removeListener(shownReaderCardPresentListener);
+    shownReaderLockListener = null;
+    shownReaderCardPresentListener = null;
+    shownReader = null;
+
+    handler.cardPresentProperty().unbind();
+    handler.cardPresentProperty().set(false);
   }
 
   public void pauseRequest() {
@@ -0,0 +1,101 @@
+package com.knemerzitski.isikreg.smartcard;
+
+import com.knemerzitski.isikreg.settings.Settings;
+
+import java.util.Arrays;
+
+/**
+ * Delays of reading cards in one terminal. Wait after card insertion is shortened while cards are read on the first
+ * attempt. When a card wasn't ready after the shortened wait, the wait is doubled and not shortened below that again.
+ * Failed reads are retried with exponential backoff. Values in settings are the upper limits.
+ */
+class ReadTiming {
+
+  private static final int SAMPLE_COUNT = 32;
+  private static final long MIN_SETTLE_DELAY = 10; // milliseconds
+  private static final long FIRST_RETRY_DELAY = 100; // milliseconds
+
+  private final boolean adaptive;
+  private final long maxSettleDelay;
+  private final long maxRetryDelay;
+
+  // Ring buffer of recent successful reads, milliseconds since card insertion until records were read
+  private final long[] latencySamples = new long[SAMPLE_COUNT];
+  private int sampleCount;
+  private int nextSample;
+
+  private long settleDelay;
+  private long minSettleDelay = MIN_SETTLE_DELAY; // Raised when a card wasn't ready
+
+  ReadTiming(Settings.SmartCard settings) {
+    this(settings.adaptiveCardReadTiming, settings.waitBeforeReadingCard, settings.cardReadingFailedRetryInterval);
+  }
+
+  ReadTiming(boolean adaptive, long maxSettleDelay, long maxRetryDelay) {
+    this.adaptive = adaptive;
+    this.maxSettleDelay = maxSettleDelay;
+    this.maxRetryDelay = maxRetryDelay;
+    settleDelay = maxSettleDelay;
+  }
+
+  /**
+   * @return Milliseconds to wait after card insertion before reading
+   */
+  synchronized long getSettleDelay() {
+    return settleDelay;
+  }
+
+  /**
+   * @param failedAttempts Failed attempts of the current card, starting from 1
+   * @return Milliseconds to wait before next attempt
+   */
+  long getRetryDelay(int failedAttempts) {
+    if (!adaptive)
+      return maxRetryDelay;
+    return Math.min(maxRetryDelay, FIRST_RETRY_DELAY << Math.min(Math.max(failedAttempts - 1, 0), 16));
+  }
+
+  /**
+   * @return true if learned wait is shorter than in settings, card might not have been ready when reading failed
+   */
+  synchronized boolean isSettleDelayReduced() {
+    return settleDelay < maxSettleDelay;
+  }
+
+  /**
+   * Card wasn't ready after the shortened wait, it's not shortened below the doubled wait anymore
+   */
+  synchronized void settleFailed() {
+    if (adaptive) {
+      settleDelay = Math.min(maxSettleDelay, Math.max(minSettleDelay, settleDelay * 2));
+      minSettleDelay = settleDelay;
+    }
+  }
+
+  /**
+   * @param firstAttempt Card was read on the first attempt after the wait, only then the wait is shortened
+   * @param latencyMillis Milliseconds since card insertion when records were read
+   */
+  synchronized void readSucceeded(boolean firstAttempt, long latencyMillis) {
+    latencySamples[nextSample] = latencyMillis;
+    nextSample = (nextSample + 1) % SAMPLE_COUNT;
+    sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+    if (adaptive && firstAttempt)
+      settleDelay = Math.max(minSettleDelay, settleDelay * 3 / 4);
+  }
+
+  private long percentile(long[] samples, int percent) {
+    if (sampleCount == 0)
+      return 0;
+    long[] sorted = Arrays.copyOf(samples, sampleCount);
+    Arrays.sort(sorted);
+    return sorted[Math.max(0, (sampleCount * percent + 99) / 100 - 1)];
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("read-timing: wait %d ms, latency p50 %d ms, p90 %d ms, samples %d",
+        settleDelay, percentile(latencySamples, 50), percentile(latencySamples, 90), sampleCount);
+  }
+
+}
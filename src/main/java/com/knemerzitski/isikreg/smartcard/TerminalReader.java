@@ -5,6 +5,7 @@ import com.knemerzitski.isikreg.exception.AppQuitException;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.smartcard.TerminalsManager.Status;
 import com.knemerzitski.isikreg.smartcard.records.CardRecords;
+import com.knemerzitski.isikreg.threading.TaskExecutor;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import org.jetbrains.annotations.NotNull;
@@ -13,13 +14,17 @@ import javax.smartcardio.Card;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.knemerzitski.isikreg.smartcard.TerminalsManager.Status.*;
 
-public abstract class TerminalReader implements Runnable {
+/**
+ * State of a single card terminal. Doesn't have a thread of its own, {@link TerminalsManager} monitors all terminals
+ * and calls {@link #cardInserted()} and {@link #cardRemoved()}. Card is read on {@link TaskExecutor.Pool#CARD_READ}.
+ */
+public abstract class TerminalReader {
 
   private interface Action {
     void run() throws CardException, UnsupportedEncodingException, APDUException;
@@ -29,17 +34,19 @@ public abstract class TerminalReader implements Runnable {
   private final Settings settings;
 
   // Input
-  private CardTerminal cardTerminal;
+  private volatile CardTerminal cardTerminal;
   private final String cardTerminalName;
 
-  // Terminal update
-  private final ReentrantLock cardTerminalLock = new ReentrantLock();
-  private final Condition cardTerminalPresent = cardTerminalLock.newCondition();
+  // State, changed while holding this
+  private volatile boolean cardInserted;
+  private long cardGeneration; // Incremented on every insert and removal, older reads are discarded
+  private boolean readPending; // Card inserted while paused
 
-  // State
   private Card card;
   private final ReentrantLock cardLock = new ReentrantLock();
   private int readingAttemptsUntilGiveUp;
+  private final ReadTiming readTiming;
+  private volatile long readingStartNanos; // Card insertion was handled
   private final LockableValue<Status> status;
   private final BooleanProperty cardPresent = new SimpleBooleanProperty();
 
@@ -48,8 +55,6 @@ public abstract class TerminalReader implements Runnable {
 
   // Pause
   private boolean isPaused;
-  private final ReentrantLock pauseLock = new ReentrantLock();
-  private final Condition unpaused = pauseLock.newCondition();
   private Status statusBeforePause;
 
   public TerminalReader(@NotNull TerminalsManager handler, @NotNull CardTerminal cardTerminal) {
@@ -58,152 +63,152 @@ public abstract class TerminalReader implements Runnable {
     this.handler = handler;
     this.cardTerminal = cardTerminal;
     this.cardTerminalName = cardTerminal.getName();
+    readTiming = new ReadTiming(settings.smartCard);
 
     status = new LockableValue<>(handler.taskExecutor, Status.INIT, Status.LOCKED);
   }
 
-  @Override
-  public void run() {
-    Thread thread = Thread.currentThread();
-    try {
-      while (!thread.isInterrupted()) {
-        process();
-      }
-    } catch (InterruptedException e) {
-      if (!handler.taskExecutor.isStopping())
-        throw new AppQuitException(e); // Unexpected interrupt
-    }
+  synchronized void start() {
+    setStatusUnlessPaused(WAITING_CARD);
   }
 
-  private void process() throws InterruptedException {
-    pausedLoop();
-    try {
+  /**
+   * @return true if card is in the terminal according to the last event
+   */
+  boolean hasCard() {
+    return cardInserted;
+  }
 
-      setStatus(WAITING_CARD);
+  synchronized void cardInserted() {
+    if (cardInserted)
+      return;
+    cardInserted = true;
+    cardGeneration++;
+    if (isPaused) {
+      readPending = true;
+      return;
+    }
+    startReading();
+  }
 
-      while (!cardTerminal.waitForCardPresent(settings.smartCard.waitForChangeLoopInterval)) {
-        if (Thread.currentThread().isInterrupted()) {
-          throw new InterruptedException("Waiting for card present interrupted");
-        }
-        if (cardTerminal.isCardPresent()) break;
-      }
+  synchronized void cardRemoved() {
+    if (!cardInserted)
+      return;
+    discardCard();
+    printInfo("Card absent");
+    setStatusUnlessPaused(WAITING_CARD);
+  }
 
-      // Card present
-      pausedLoop();
-      cardPresent.set(true);
-
-      unlockStatus();
-      setStatus(READING_CARD);
-
-      // Wait before reading
-      waitBeforeReadingCard();
-      pausedLoop();
-      printInfo("Reading card records");
-      read();
-
-      if (cardTerminal.isCardPresent()) {
-        printInfo("Waiting for card absent");
-        while (!cardTerminal.waitForCardAbsent(settings.smartCard.waitForChangeLoopInterval)) {
-          if (Thread.currentThread().isInterrupted()) {
-            throw new InterruptedException("Waiting for card absent interrupted");
-          }
-          if (!cardTerminal.isCardPresent()) break;
-        }
-        clearCard();
-        printInfo("Card absent");
-        cardPresent.set(false);
-      }
-    } catch (CardException e) {
-      cardPresent.set(false);
-      if (e.getCause() != null && e.getCause().getClass().getSimpleName().equals("PCSCException")) {
-        switch (TerminalsManager.CardErrorType.get(e.getCause().getMessage())) {
-          case NO_SERVICE:
-          case NO_READERS_AVAILABLE:
-          case SERVICE_STOPPED:
-            waitForNewCardTerminal();
-            break;
-          default:
-            throw new AppQuitException(e);
-        }
-      } else {
-        throw new AppQuitException(e);
-      }
-    }
+  /**
+   * Terminal is no longer available, reader waits until {@link #setCardTerminal(CardTerminal)} is called
+   */
+  synchronized void terminalLost() {
+    if (cardTerminal == null)
+      return;
+    discardCard();
+    cardTerminal = null;
+    setStatusUnlessPaused(WAITING_CARD_READER);
   }
 
-  private void waitBeforeReadingCard() throws InterruptedException {
-    Thread.sleep(settings.smartCard.waitBeforeReadingCard);
+  private void discardCard() {
+    cardInserted = false;
+    cardGeneration++;
+    readPending = false;
+    clearCard();
+    cardPresent.set(false);
+  }
+
+  private void startReading() {
+    readPending = false;
+    cardPresent.set(true);
+
+    unlockStatus();
+    setStatus(READING_CARD);
+
+    readingAttemptsUntilGiveUp = settings.smartCard.cardReadingAttemptsUntilGiveUp;
+    readingStartNanos = System.nanoTime();
+    long generation = cardGeneration;
+    scheduleRead(readTiming.getSettleDelay(), () -> read(generation));
   }
 
-  private void waitForNewCardTerminal() throws InterruptedException {
-    cardTerminalLock.lock();
+  /**
+   * Waiting is done by the scheduler, so no thread is blocked before reading
+   */
+  private void scheduleRead(long delay, Runnable read) {
+    if (delay <= 0) {
+      submitRead(read);
+      return;
+    }
     try {
-      cardTerminal = null;
-      setStatus(WAITING_CARD_READER);
-      while (cardTerminal == null) {
-        cardTerminalPresent.await();
+      handler.taskExecutor.schedule(() -> {
+        submitRead(read);
+        return null;
+      }, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Normal to get rejected exception only when taskExecutor is stopping
+      if (!handler.taskExecutor.isStopping()) {
+        throw e;
       }
-    } finally {
-      cardTerminalLock.unlock();
     }
   }
 
-  public void setCardTerminal(@NotNull CardTerminal cardTerminal) {
-    cardTerminalLock.lock();
+  private void submitRead(Runnable read) {
     try {
-      if (!cardTerminal.getName().equals(cardTerminalName))
-        throw new AppQuitException(String.format("Tried to set different terminal to the reader. Expected '%s' but was '%s'",
-            cardTerminalName, cardTerminal.getName()));
-      this.cardTerminal = cardTerminal;
-      cardTerminalPresent.signalAll();
-    } finally {
-      cardTerminalLock.unlock();
+      handler.taskExecutor.execute(TaskExecutor.Pool.CARD_READ, read);
+    } catch (RejectedExecutionException e) {
+      if (!handler.taskExecutor.isStopping()) {
+        throw e;
+      }
     }
   }
 
+  private synchronized boolean isCurrentCard(long generation) {
+    return generation == cardGeneration;
+  }
+
+  public synchronized void setCardTerminal(@NotNull CardTerminal cardTerminal) {
+    if (!cardTerminal.getName().equals(cardTerminalName))
+      throw new AppQuitException(String.format("Tried to set different terminal to the reader. Expected '%s' but was '%s'",
+          cardTerminalName, cardTerminal.getName()));
+    boolean wasMissing = this.cardTerminal == null;
+    this.cardTerminal = cardTerminal;
+    if (wasMissing)
+      setStatusUnlessPaused(WAITING_CARD);
+  }
+
   public String getCardTerminalName() {
     return cardTerminalName;
   }
 
-  public void pauseRequest() {
-    pauseLock.lock();
-    try {
-      isPaused = true;
-    } finally {
-      pauseLock.unlock();
+  public synchronized void pauseRequest() {
+    if (isPaused)
+      return;
+    isPaused = true;
+    synchronized (status) {
+      statusBeforePause = status.get(true);
+      setStatus(PAUSED);
     }
   }
 
-  public void resumeRequest() {
-    pauseLock.lock();
-    try {
-      isPaused = false;
-      unpaused.signalAll();
-    } finally {
-      pauseLock.unlock();
+  public synchronized void resumeRequest() {
+    if (!isPaused)
+      return;
+    isPaused = false;
+    synchronized (status) {
+      if (status.get(true) == PAUSED) {
+        setStatus(statusBeforePause);
+      }
+      statusBeforePause = null;
     }
+    if (readPending)
+      startReading();
   }
 
-  private void pausedLoop() throws InterruptedException {
-    pauseLock.lock();
-    try {
-      while (isPaused) {
-        synchronized (status) {
-          if (statusBeforePause == null) {
-            statusBeforePause = status.get();
-            setStatus(PAUSED);
-          }
-        }
-        unpaused.await();
-      }
-    } finally {
-      synchronized (status) {
-        if (status.get() == PAUSED) {
-          setStatus(statusBeforePause);
-          statusBeforePause = null;
-        }
-      }
-      pauseLock.unlock();
+  private void setStatusUnlessPaused(Status s) {
+    if (isPaused) {
+      statusBeforePause = s;
+    } else {
+      setStatus(s);
     }
   }
 
@@ -221,12 +226,7 @@ public abstract class TerminalReader implements Runnable {
   }
 
   public CardTerminal getCardTerminal() {
-    cardTerminalLock.lock();
-    try {
-      return cardTerminal;
-    } finally {
-      cardTerminalLock.unlock();
-    }
+    return cardTerminal;
   }
 
   public Card getCurrentCard() {
@@ -241,6 +241,10 @@ public abstract class TerminalReader implements Runnable {
     return cardRecords;
   }
 
+  public void printReadTiming() {
+    printInfo(readTiming.toString());
+  }
+
   private void setStatus(Status s) {
     synchronized (status) {
       if (status.get(true) != s) {
@@ -265,15 +269,28 @@ public abstract class TerminalReader implements Runnable {
 
   public abstract void readingFinished();
 
-  private void read() throws InterruptedException { //Card is present
-    readingAttemptsUntilGiveUp = settings.smartCard.cardReadingAttemptsUntilGiveUp;
-
-    runAction(() -> {
-      createCard();
-      readCard();
+  private void read(long generation) { // Card is present
+    synchronized (this) {
+      if (generation != cardGeneration)
+        return; // Removed before reading
+      if (isPaused) {
+        readPending = true;
+        return;
+      }
+    }
+    printInfo("Reading card records");
+    runAction(generation, () -> {
+      Card card = createCard(generation);
+      if (card != null)
+        readCard(generation, card);
     });
   }
 
+  private void retryRead(long generation, Card card) {
+    if (card != null && isCurrentCard(generation))
+      runAction(generation, () -> readCard(generation, card));
+  }
+
   private void clearCard() {
     cardLock.lock();
     try {
@@ -283,20 +300,42 @@ public abstract class TerminalReader implements Runnable {
     }
   }
 
-  private void createCard() throws CardException {
-    cardLock.lock();
-    try {
-      card = cardTerminal.connect("T=1");
-    } finally {
-      cardLock.unlock();
+  private Card createCard(long generation) throws CardException {
+    CardTerminal terminal = cardTerminal;
+    if (terminal == null)
+      return null;
+    Card newCard = terminal.connect("T=1");
+    synchronized (this) {
+      if (generation != cardGeneration) {
+        newCard.disconnect(false); // Removed while connecting
+        return null;
+      }
+      cardLock.lock();
+      try {
+        card = newCard;
+      } finally {
+        cardLock.unlock();
+      }
     }
-    card.beginExclusive();
+    newCard.beginExclusive();
+    return newCard;
   }
 
-  private void readCard() throws APDUException, UnsupportedEncodingException, CardException {
-    cardRecords = CardRecords.read(settings, handler.getCardRecordsFactories(), card);
-    printInfo("Received card data: " + cardRecords);
-    setStatus(SUCCESS);
+  private void readCard(long generation, Card card) throws APDUException, UnsupportedEncodingException, CardException {
+    CardRecords records = CardRecords.read(settings, handler.getCardRecordsReadPlans(), card, personalCode -> {
+      if (isCurrentCard(generation))
+        handler.personalCodeRead(this, personalCode);
+    }, handler.getCardRecordsCache());
+    synchronized (this) {
+      if (generation != cardGeneration)
+        return;
+      cardRecords = records;
+      printInfo("Received card data" + (cardRecords.isFromCache() ? " from cache: " : ": ") + cardRecords);
+      setStatus(SUCCESS);
+    }
+    long now = System.nanoTime();
+    readTiming.readSucceeded(readingAttemptsUntilGiveUp == settings.smartCard.cardReadingAttemptsUntilGiveUp,
+        TimeUnit.NANOSECONDS.toMillis(now - readingStartNanos));
 
     cardLock.lock();
     try {
@@ -308,13 +347,17 @@ public abstract class TerminalReader implements Runnable {
     readingFinished();
   }
 
-  private void runAction(Action action) throws InterruptedException { //Card is present
+  private void runAction(long generation, Action action) { // Card is present
     try {
       action.run();
     } catch (CardException e) {
+      if (!isCurrentCard(generation))
+        return; // Card was removed during reading
       if (e.getCause() != null && e.getCause().getClass().getSimpleName().equals("PCSCException")) {
         switch (TerminalsManager.CardErrorType.get(e.getCause().getMessage())) {
           case UNRESPONSIVE_CARD:
+            if (retryEarlyRead(generation))
+              return;
             setStatus(UNRESPONSIVE_CARD);
             printInfo("Unresponsive card");
             break;
@@ -333,26 +376,53 @@ public abstract class TerminalReader implements Runnable {
         throw new AppQuitException(e);
       }
     } catch (UnsupportedEncodingException e) {
+      if (!isCurrentCard(generation))
+        return;
       setStatus(PROTOCOL_MISMATCH);
       printInfo("Failed " + e);
       cardPresent.set(false);
     } catch (APDUException e) {
-      if (readingAttemptsUntilGiveUp > 0) {
+      if (!isCurrentCard(generation))
+        return;
+      if (readingAttemptsUntilGiveUp > 0 && e.isRetryable()) {
         readingAttemptsUntilGiveUp--;
-        printInfo("Couldn't read card right now. Waiting " + settings.smartCard.cardReadingFailedRetryInterval + "ms... (" + e.getMessage() + ")");
+        long delay = readTiming.getRetryDelay(settings.smartCard.cardReadingAttemptsUntilGiveUp - readingAttemptsUntilGiveUp);
+        printInfo("Couldn't read card right now. Waiting " + delay + "ms... (" + e.getMessage() + ")");
         e.printStackTrace();
-        Thread.sleep(settings.smartCard.cardReadingFailedRetryInterval);
-
-        runAction(this::readCard);
+        Card card = getCurrentCard();
+        scheduleRead(delay, () -> retryRead(generation, card));
       } else {
         // give up on this card
         setStatus(APDU_EXCEPTION);
-        printInfo("Giving up on trying to read the card");
+        printInfo(e.isRetryable() ? "Giving up on trying to read the card" : "Card doesn't support reading, not trying again (" + e.getMessage() + ")");
         readingFinished();
       }
     }
   }
 
+  /**
+   * Card might not have been ready yet if it was read sooner than the wait in settings. Connects again once.
+   */
+  private boolean retryEarlyRead(long generation) {
+    if (readingAttemptsUntilGiveUp == 0 || readingAttemptsUntilGiveUp != settings.smartCard.cardReadingAttemptsUntilGiveUp
+        || !readTiming.isSettleDelayReduced())
+      return false;
+    readTiming.settleFailed();
+    readingAttemptsUntilGiveUp--;
+    long delay = readTiming.getRetryDelay(1);
+    printInfo("Card not ready yet. Waiting " + delay + "ms...");
+    Card oldCard = getCurrentCard();
+    clearCard();
+    if (oldCard != null) {
+      try {
+        oldCard.disconnect(true);
+      } catch (CardException ignored) {
+      }
+    }
+    scheduleRead(delay, () -> read(generation));
+    return true;
+  }
+
   public void printInfo(String message) {
     System.out.printf("'%s' (%s): %s%n", cardTerminalName, getStatus(), message);
   }
@@ -4,11 +4,11 @@ package com.knemerzitski.isikreg.smartcard;
 import com.knemerzitski.isikreg.beans.LockableValue;
 import com.knemerzitski.isikreg.exception.AppQuitException;
 import com.knemerzitski.isikreg.settings.Settings;
-import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.smartcard.records.CardRecords;
+import com.knemerzitski.isikreg.smartcard.records.CardRecordsCache;
 import com.knemerzitski.isikreg.smartcard.records.EstIdCardRecordsV2011;
 import com.knemerzitski.isikreg.smartcard.records.EstIdCardRecordsV2018;
-import com.knemerzitski.isikreg.smartcard.records.Record;
+import com.knemerzitski.isikreg.smartcard.records.RecordsReadPlan;
 import com.knemerzitski.isikreg.threading.TaskExecutor;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -23,13 +23,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,8 +38,6 @@ public abstract class TerminalsManager implements Runnable {
   private static final String TERMINAL_FACTORY_TYPE = "PC/SC";
   private static final String TERMINAL_FACTORY_TYPE_NONE = "None";
 
-  private static final long MIN_WAIT_FOR_CHANGE_TIME = 1000; // ms > 0
-
   public enum CardErrorType {
     NO_READERS_AVAILABLE("SCARD_E_NO_READERS_AVAILABLE"),
     SERVICE_STOPPED("SCARD_E_SERVICE_STOPPED"),
@@ -95,24 +93,20 @@ public abstract class TerminalsManager implements Runnable {
 
   private final TerminalFactory terminalFactory;
 
-  private final HashMap<Class<? extends CardRecords>, Map<Column, Supplier<Record<?>>>> cardRecordsFactories;
+  private final HashMap<Class<? extends CardRecords>, RecordsReadPlan> cardRecordsReadPlans;
+  private final CardRecordsCache cardRecordsCache;
 
   // All card reader terminals
   private CardTerminals terminals;
+  private long nextTerminalsCheck; // ms
 
   private final ConcurrentMap<String, TerminalReader> cardTerminalReaders = new ConcurrentSkipListMap<>();
 
   // Pause
-  private boolean isPaused;
+  private volatile boolean isPaused;
   private final ReentrantLock pauseLock = new ReentrantLock();
-  private final Condition unpaused = pauseLock.newCondition();
   private Status statusBeforePause;
 
-  // Card records processing
-  private boolean processingCardRecords = false;
-  private final ReentrantLock processCardRecordsLock = new ReentrantLock();
-  private final Condition processingCardRecordsDone = processCardRecordsLock.newCondition();
-
 
   // Current status
   private final LockableValue<Status> status;
@@ -129,7 +123,8 @@ public abstract class TerminalsManager implements Runnable {
     this.taskExecutor = taskExecutor;
 
     processedReadersManager = new ProcessedReadersManager(this);
-    this.cardRecordsFactories = createCardRecordsFactories();
+    this.cardRecordsReadPlans = createCardRecordsReadPlans();
+    this.cardRecordsCache = new CardRecordsCache(settings);
 
     status = new LockableValue<>(taskExecutor, Status.INIT, Status.LOCKED);
 
@@ -140,18 +135,19 @@ public abstract class TerminalsManager implements Runnable {
     }
   }
 
-  private HashMap<Class<? extends CardRecords>, Map<Column, Supplier<Record<?>>>> createCardRecordsFactories() {
-    HashMap<Class<? extends CardRecords>, Map<Column, Supplier<Record<?>>>> factories = new HashMap<>();
+  private HashMap<Class<? extends CardRecords>, RecordsReadPlan> createCardRecordsReadPlans() {
+    HashMap<Class<? extends CardRecords>, RecordsReadPlan> readPlans = new HashMap<>();
 
-    factories.put(EstIdCardRecordsV2018.class, EstIdCardRecordsV2018.createRecordsFactory(settings));
-    factories.put(EstIdCardRecordsV2011.class, EstIdCardRecordsV2011.createRecordsFactory(settings));
+    readPlans.put(EstIdCardRecordsV2018.class, EstIdCardRecordsV2018.createReadPlan(settings));
+    readPlans.put(EstIdCardRecordsV2011.class, EstIdCardRecordsV2011.createReadPlan(settings));
 
-    return factories;
+    return readPlans;
   }
 
   /**
-   * Call successReaderSignal() when you're done processing card records.
-   * Handler will block until successReaderSignal() is called. Meant for asynchronous code.
+   * Call successReaderSignal(reader) when you're done processing card records.
+   * Handler will block until successReaderSignal(reader) is called, unless {@link #isQuickProcessing(ProcessedReader)}
+   * is true. Meant for asynchronous code.
    *
    * @param reader Processed reader
    */
@@ -159,6 +155,25 @@ public abstract class TerminalsManager implements Runnable {
 
   protected abstract void failedReader(ProcessedReader reader);
 
+  /**
+   * Called on the reading thread when personal code is read, rest of the records are still being read.
+   * {@link #successReader(ProcessedReader)} is called later with all records.
+   */
+  protected void personalCodeRead(TerminalReader reader, String personalCode) {
+  }
+
+  /**
+   * @return true if {@link #successReader(ProcessedReader)} won't wait for user input, then next cards are processed
+   * without waiting for this one. Cards of the same person are still processed one after another.
+   */
+  protected boolean isQuickProcessing(ProcessedReader reader) {
+    return false;
+  }
+
+  /**
+   * Monitors all terminals on one thread. Card insertions and removals are dispatched to readers
+   * which read the card on a small shared pool, so thread count doesn't grow with terminal count.
+   */
   @Override
   public void run() {
     // Cannot proceed without PC/SC TerminalFactory
@@ -167,7 +182,7 @@ public abstract class TerminalsManager implements Runnable {
     terminals = terminalFactory.terminals();
 
     try {
-      taskExecutor.execute(processedReadersManager);
+      taskExecutor.execute(TaskExecutor.Pool.CARD_IO, processedReadersManager);
     } catch (RejectedExecutionException e) {
       // Normal to get rejected exception only when scheduler is stopping
       if (!taskExecutor.isStopping()) {
@@ -188,18 +203,30 @@ public abstract class TerminalsManager implements Runnable {
   }
 
   private void process() throws InterruptedException {
-    pausedLoop();
     try {
-      processTerminals();
-      waitForChange();
+      if (System.currentTimeMillis() >= nextTerminalsCheck) {
+        processTerminals();
+        boolean missingTerminals = cardTerminalReaders.values().stream().anyMatch(r -> r.getCardTerminal() == null);
+        nextTerminalsCheck = System.currentTimeMillis() + (missingTerminals ?
+            settings.smartCard.readerMissingCheckInterval :
+            settings.smartCard.readersPresentCheckInterval);
+      }
+      terminals.waitForChange(getWaitForChangeTime());
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Waiting for terminals change interrupted");
+      }
+      dispatchCardEvents();
     } catch (CardException e) {
+      nextTerminalsCheck = 0;
       if (e.getCause() != null && e.getCause().getClass().getSimpleName().equals("PCSCException")) {
         switch (CardErrorType.get(e.getCause().getMessage())) {
           case NO_READERS_AVAILABLE:
+            cardTerminalReaders.values().forEach(TerminalReader::terminalLost);
             waitForCardReader(settings.smartCard.noReadersCheckInterval);
             break;
           case NO_SERVICE:
           case SERVICE_STOPPED:
+            cardTerminalReaders.values().forEach(TerminalReader::terminalLost);
             initNewTerminalsContext();
             break;
           default:
@@ -211,19 +238,66 @@ public abstract class TerminalsManager implements Runnable {
     }
   }
 
-  private void waitForChange() throws CardException, InterruptedException {
-    boolean missingTerminals = cardTerminalReaders.values().stream().anyMatch(r -> r.getCardTerminal() == null);
-    long maxWaitTime = missingTerminals ?
-        settings.smartCard.readerMissingCheckInterval :
-        settings.smartCard.readersPresentCheckInterval;
-    long start = System.currentTimeMillis();
-    long waitTime = Math.max(MIN_WAIT_FOR_CHANGE_TIME, settings.smartCard.waitForChangeLoopInterval);
-    while (!terminals.waitForChange(waitTime)) {
-      if (Thread.currentThread().isInterrupted()) {
-        throw new InterruptedException("Waiting for terminals change interrupted");
+  /**
+   * @return Time until terminals are listed again, at most waitForChangeLoopInterval if it's set. Never 0, which
+   * would mean waiting forever.
+   */
+  private long getWaitForChangeTime() {
+    long waitTime = nextTerminalsCheck - System.currentTimeMillis();
+    if (settings.smartCard.waitForChangeLoopInterval > 0)
+      waitTime = Math.min(waitTime, settings.smartCard.waitForChangeLoopInterval);
+    return Math.max(1, waitTime);
+  }
+
+  /**
+   * Terminals reported as changed by the last {@link CardTerminals#waitForChange(long)} get their event. Presence of
+   * every card is also compared to what the reader knows, so a change is not lost if it happened between waits.
+   */
+  private void dispatchCardEvents() throws CardException {
+    Set<String> inserted = terminalNames(terminals.list(CardTerminals.State.CARD_INSERTION));
+    Set<String> removed = terminalNames(terminals.list(CardTerminals.State.CARD_REMOVAL));
+
+    for (TerminalReader reader : cardTerminalReaders.values()) {
+      CardTerminal terminal = reader.getCardTerminal();
+      if (terminal == null)
+        continue;
+      String name = reader.getCardTerminalName();
+      boolean present;
+      try {
+        present = terminal.isCardPresent();
+      } catch (CardException e) {
+        if (isTerminalLost(e)) {
+          reader.terminalLost();
+          nextTerminalsCheck = 0;
+          continue;
+        }
+        throw e;
       }
-      if (System.currentTimeMillis() - start >= maxWaitTime)
-        break;
+
+      // Card was swapped between waits
+      boolean swapped = inserted.contains(name) && removed.contains(name);
+      if (reader.hasCard() && (!present || swapped))
+        reader.cardRemoved();
+      if (!reader.hasCard() && present)
+        reader.cardInserted();
+    }
+  }
+
+  private static Set<String> terminalNames(List<CardTerminal> terminals) {
+    return terminals.stream().map(CardTerminal::getName).collect(Collectors.toSet());
+  }
+
+  private static boolean isTerminalLost(CardException e) {
+    if (e.getCause() == null || !e.getCause().getClass().getSimpleName().equals("PCSCException"))
+      return false;
+    switch (CardErrorType.get(e.getCause().getMessage())) {
+      case NO_SERVICE:
+      case NO_READERS_AVAILABLE:
+      case SERVICE_STOPPED:
+      case READER_UNAVAILABLE:
+        return true;
+      default:
+        return false;
     }
   }
 
@@ -243,20 +317,14 @@ public abstract class TerminalsManager implements Runnable {
   private void processTerminals() throws CardException {
     List<CardTerminal> allTerminals = terminals.list();
 
-    // Create separate thread for each new terminal
     for (CardTerminal newTerminal : allTerminals) {
       TerminalReader existingReader = cardTerminalReaders.get(newTerminal.getName());
       if (existingReader == null) {
         TerminalReader newReader = newReader(newTerminal);
         cardTerminalReaders.put(newTerminal.getName(), newReader);
-        try {
-          taskExecutor.execute(newReader);
-        } catch (RejectedExecutionException e) {
-          // Normal to get rejected exception only when taskExecutor is stopping
-          if (!taskExecutor.isStopping()) {
-            throw e;
-          }
-        }
+        if (isPaused)
+          newReader.pauseRequest();
+        newReader.start();
       } else {
         if (existingReader.getCardTerminal() == null) {
           // Update existing reader with new terminal
@@ -264,6 +332,12 @@ public abstract class TerminalsManager implements Runnable {
         }
       }
     }
+
+    // Terminal was unplugged
+    Set<String> names = terminalNames(allTerminals);
+    cardTerminalReaders.values().stream()
+        .filter(r -> !names.contains(r.getCardTerminalName()))
+        .forEach(TerminalReader::terminalLost);
   }
 
   protected TerminalReader newReader(CardTerminal newTerminal) {
@@ -280,6 +354,8 @@ public abstract class TerminalsManager implements Runnable {
   }
 
   protected void updateStatusFromReaders() {
+    if (isPaused)
+      return;
     if (!processedReadersManager.getProcessingLock().tryLock()) {
       return;
     }
@@ -314,33 +390,15 @@ public abstract class TerminalsManager implements Runnable {
     }
   }
 
-  protected void startProcessingCardRecords() {
-    processCardRecordsLock.lock();
-    try {
-      processingCardRecords = true;
-    } finally {
-      processCardRecordsLock.unlock();
-    }
-  }
-
-  protected void successReaderSignal() {
-    processCardRecordsLock.lock();
-    try {
-      processingCardRecords = false;
-      processingCardRecordsDone.signalAll();
-    } finally {
-      processCardRecordsLock.unlock();
-    }
+  protected void successReaderSignal(ProcessedReader reader) {
+    reader.getProcessingDone().complete(null);
   }
 
-  protected void awaitProcessingCardRecordsDone() throws InterruptedException {
-    processCardRecordsLock.lock();
+  protected void awaitProcessingCardRecordsDone(ProcessedReader reader) throws InterruptedException {
     try {
-      while (processingCardRecords) {
-        processingCardRecordsDone.await();
-      }
-    } finally {
-      processCardRecordsLock.unlock();
+      reader.getProcessingDone().get();
+    } catch (ExecutionException e) {
+      throw new AppQuitException(e.getCause());
     }
   }
 
@@ -352,6 +410,12 @@ public abstract class TerminalsManager implements Runnable {
     pauseLock.lock();
     try {
       isPaused = true;
+      synchronized (status) {
+        if (statusBeforePause == null && status.get(true) != Status.DRIVER_MISSING) {
+          statusBeforePause = status.get(true);
+          setStatusUnsafe(Status.PAUSED);
+        }
+      }
       processedReadersManager.pauseRequest();
       cardTerminalReaders.forEach((s, r) -> r.pauseRequest());
     } finally {
@@ -363,33 +427,16 @@ public abstract class TerminalsManager implements Runnable {
     pauseLock.lock();
     try {
       isPaused = false;
-      processedReadersManager.resumeRequest();
-      cardTerminalReaders.forEach((s, r) -> r.resumeRequest());
-      unpaused.signalAll();
-    } finally {
-      pauseLock.unlock();
-    }
-  }
-
-  private void pausedLoop() throws InterruptedException {
-    pauseLock.lock();
-    try {
-      while (isPaused) {
-        synchronized (status) {
-          if (statusBeforePause == null) {
-            statusBeforePause = status.get();
-            setStatusUnsafe(Status.PAUSED);
-          }
-        }
-        unpaused.await();
-      }
-    } finally {
       synchronized (status) {
-        if (status.get() == Status.PAUSED) {
+        if (status.get(true) == Status.PAUSED) {
           setStatusUnsafe(statusBeforePause);
-          statusBeforePause = null;
         }
+        statusBeforePause = null;
       }
+      processedReadersManager.resumeRequest();
+      cardTerminalReaders.forEach((s, r) -> r.resumeRequest());
+      updateStatusFromReaders();
+    } finally {
       pauseLock.unlock();
     }
   }
@@ -439,14 +486,22 @@ public abstract class TerminalsManager implements Runnable {
     return cardPresent;
   }
 
-  public HashMap<Class<? extends CardRecords>, Map<Column, Supplier<Record<?>>>> getCardRecordsFactories() {
-    return cardRecordsFactories;
+  public HashMap<Class<? extends CardRecords>, RecordsReadPlan> getCardRecordsReadPlans() {
+    return cardRecordsReadPlans;
+  }
+
+  public CardRecordsCache getCardRecordsCache() {
+    return cardRecordsCache;
   }
 
   public TerminalReader getCardTerminalReader(String name) {
     return cardTerminalReaders.get(name);
   }
 
+  public Collection<TerminalReader> getCardTerminalReaders() {
+    return cardTerminalReaders.values();
+  }
+
   /**
    * Every time card reader is removed from the system, new terminal context must be created.
    */
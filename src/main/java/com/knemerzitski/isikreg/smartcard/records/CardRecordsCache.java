@@ -0,0 +1,118 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.utils.ByteUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recently read cards. Card is identified by ATR, personal code and document number, when same card is put in again
+ * only these records are read and rest of the records come from the cache.
+ */
+public class CardRecordsCache {
+
+  private static class Entry {
+    private final CardRecords records;
+    private final long readNanos;
+    private final long createdMillis = System.currentTimeMillis();
+
+    private Entry(CardRecords records, long readNanos) {
+      this.records = records;
+      this.readNanos = readNanos;
+    }
+  }
+
+  public static boolean isEnabled(Settings settings) {
+    return settings.smartCard.cardCacheTime > 0 && settings.smartCard.cardCacheSize > 0;
+  }
+
+  private final long time;
+  private final Map<String, Entry> entries;
+
+  // Statistics
+  private long hitCount;
+  private long missCount;
+  private long savedNanos;
+
+  public CardRecordsCache(Settings settings) {
+    this(settings.smartCard.cardCacheTime, settings.smartCard.cardCacheSize);
+  }
+
+  /**
+   * @param time Milliseconds the card is kept since reading all of its records
+   * @param maxSize Maximum amount of cards, least recently used card is removed first
+   */
+  public CardRecordsCache(long time, int maxSize) {
+    this.time = time;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * @return Key of the card or null if card can't be identified
+   */
+  static String getKey(byte[] atr, String personalCode, String documentNr) {
+    if (personalCode == null || personalCode.isEmpty() || documentNr == null || documentNr.isEmpty())
+      return null;
+    return ByteUtils.toHexString(atr) + personalCode + " " + documentNr;
+  }
+
+  synchronized CardRecords get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null)
+      return null;
+    if (System.currentTimeMillis() - entry.createdMillis > time) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.records;
+  }
+
+  /**
+   * Updates statistics and adds fully read card to the cache
+   */
+  synchronized void readFinished(CardRecords records, long readNanos) {
+    String key = records.getCacheKey();
+    if (key == null)
+      return;
+    if (records.isFromCache()) {
+      hitCount++;
+      Entry entry = entries.get(key);
+      if (entry != null)
+        savedNanos += Math.max(0, entry.readNanos - readNanos);
+    } else {
+      missCount++;
+      entries.put(key, new Entry(records, readNanos));
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getSavedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(savedNanos);
+  }
+
+  @Override
+  public synchronized String toString() {
+    long count = hitCount + missCount;
+    return String.format("card-cache: size %d, hits %d, misses %d, hit rate %d%%, saved %d ms",
+        entries.size(), hitCount, missCount, count > 0 ? hitCount * 100 / count : 0, getSavedMillis());
+  }
+
+}
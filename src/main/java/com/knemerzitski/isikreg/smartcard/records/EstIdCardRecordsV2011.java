@@ -3,6 +3,7 @@ package com.knemerzitski.isikreg.smartcard.records;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.smartcard.APDUException;
+import com.knemerzitski.isikreg.utils.PersonalCodeUtils;
 
 import javax.smartcardio.CardChannel;
 import javax.smartcardio.CardException;
@@ -14,6 +15,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
@@ -43,6 +45,13 @@ public class EstIdCardRecordsV2011 extends CardRecords {
   private static final CommandAPDU SELECT_FILE_EEEE = new CommandAPDU(new byte[]{0x00, (byte) 0xa4, 0x01, 0x0c, 0x02, (byte) 0xee, (byte) 0xee});
   // The command to choose file 5044.
   private static final CommandAPDU SELECT_FILE_5044 = new CommandAPDU(new byte[]{0x00, (byte) 0xa4, 0x02, 0x04, 0x02, 0x50, 0x44});
+  // The commands to read a record from file 5044, index is the record number
+  private static final CommandAPDU[] READ_RECORD = new CommandAPDU[RecordsReadPlan.RECORD_COUNT + 1];
+
+  static {
+    for (int i = 1; i < READ_RECORD.length; i++)
+      READ_RECORD[i] = new CommandAPDU(new byte[]{0x00, (byte) 0xb2, (byte) i, 0x04, 0x00});
+  }
 
   // Card response status
   private static final int ResponseOK = 0x9000;
@@ -70,6 +79,10 @@ public class EstIdCardRecordsV2011 extends CardRecords {
   //    14 Märkuste rida 2 50 Xn?
   //    15 Märkuste rida 3 50 Xn?
   //    16 Märkuste rida 4 50 Xn?
+  public static RecordsReadPlan createReadPlan(Settings settings) {
+    return new RecordsReadPlan(createRecordsFactory(settings), CardRecordsCache.isEnabled(settings) ? (byte) 8 : 0);
+  }
+
   public static Map<Column, Supplier<Record<?>>> createRecordsFactory(Settings settings) {
     Map<Column.Id, Supplier<Record<?>>> records = new HashMap<>();
     records.put(Column.Id.LAST_NAME, () -> new PlainRecord((byte) 1)); // Xn
@@ -88,6 +101,11 @@ public class EstIdCardRecordsV2011 extends CardRecords {
     records.put(Column.Id.NOTES_LINE3, () -> new PlainRecord((byte) 15)); // Xn?
     records.put(Column.Id.NOTES_LINE4, () -> new PlainRecord((byte) 16)); // Xn?
 
+    if (settings.general.derivePersonalCodeColumns) {
+      records.put(Column.Id.SEX, () -> new PersonalCodeRecord<>((byte) 7, PersonalCodeUtils::getSex));
+      records.put(Column.Id.DATE_OF_BIRTH, () -> new PersonalCodeRecord<>((byte) 7, PersonalCodeUtils::getDateOfBirth));
+    }
+
     // Add only records that are defined in settings
     Map<Column, Supplier<Record<?>>> recordsFactory = new HashMap<>();
     for (Map.Entry<Column.Id, Supplier<Record<?>>> record : records.entrySet()) {
@@ -101,8 +119,13 @@ public class EstIdCardRecordsV2011 extends CardRecords {
   }
 
   // Read data from the card using given channel
-  public EstIdCardRecordsV2011(Settings settings, Map<Column, Supplier<Record<?>>> recordsFactory, CardChannel channel) throws CardException, APDUException, UnsupportedEncodingException {
-    super(settings, recordsFactory, channel);
+  public EstIdCardRecordsV2011(Settings settings, RecordsReadPlan readPlan, CardChannel channel) throws CardException, APDUException, UnsupportedEncodingException {
+    super(settings, readPlan, channel);
+  }
+
+  public EstIdCardRecordsV2011(Settings settings, RecordsReadPlan readPlan, CardChannel channel,
+                               Consumer<String> personalCodeListener, CardRecordsCache cache) throws CardException, APDUException, UnsupportedEncodingException {
+    super(settings, readPlan, channel, personalCodeListener, cache);
   }
 
   // Send a command APDU to the card.
@@ -125,7 +148,7 @@ public class EstIdCardRecordsV2011 extends CardRecords {
 
   @Override
   protected byte[] readRecord(CardChannel channel, byte recordNumber) throws CardException, APDUException {
-    return sendCommand(channel, new CommandAPDU(new byte[]{0x00, (byte) 0xb2, recordNumber, 0x04, 0x00}));
+    return sendCommand(channel, READ_RECORD[recordNumber]);
   }
 
   @Override
@@ -3,6 +3,7 @@ package com.knemerzitski.isikreg.smartcard.records;
 import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.smartcard.APDUException;
+import com.knemerzitski.isikreg.utils.PersonalCodeUtils;
 
 import javax.smartcardio.CardChannel;
 import javax.smartcardio.CardException;
@@ -15,6 +16,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
@@ -34,6 +36,13 @@ public class EstIdCardRecordsV2018 extends CardRecords {
   // Personal Data transparent files DF ID 5000hex
   private static final CommandAPDU SELECT_FILE_5000 = new CommandAPDU(new byte[]{0x00, (byte) 0xA4, 0x01, 0x0C, 0x02, 0x50, 0x00});
   private static final CommandAPDU READ_BYTES = new CommandAPDU(new byte[]{0x00, (byte) 0xB0, 0x00, 0x00, 0x00});
+  // Transparent EF 500x, index is the record number
+  private static final CommandAPDU[] SELECT_FILE_500X = new CommandAPDU[RecordsReadPlan.RECORD_COUNT + 1];
+
+  static {
+    for (int i = 1; i < SELECT_FILE_500X.length; i++)
+      SELECT_FILE_500X[i] = new CommandAPDU(new byte[]{0x00, (byte) 0xA4, 0x01, 0x0C, 0x02, 0x50, (byte) i});
+  }
 
   public static byte[] getATR() {
     return ATR_PROTOCOL;
@@ -72,6 +81,10 @@ public class EstIdCardRecordsV2018 extends CardRecords {
   //| |-- PD13 (Notes Line 3)
   //| |-- PD14 (Notes Line 4)
   //| |-- PD15 (Notes Line 5)
+  public static RecordsReadPlan createReadPlan(Settings settings) {
+    return new RecordsReadPlan(createRecordsFactory(settings), CardRecordsCache.isEnabled(settings) ? (byte) 7 : 0);
+  }
+
   public static Map<Column, Supplier<Record<?>>> createRecordsFactory(Settings settings) {
     Map<Column.Id, Supplier<Record<?>>> records = new HashMap<>();
     records.put(Column.Id.LAST_NAME, () -> new PlainRecord((byte) 1)); // Xn
@@ -92,6 +105,11 @@ public class EstIdCardRecordsV2018 extends CardRecords {
     records.put(Column.Id.NOTES_LINE4, () -> new PlainRecord((byte) 14)); // Xn?
     records.put(Column.Id.NOTES_LINE5, () -> new PlainRecord((byte) 15)); // Xn?
 
+    if (settings.general.derivePersonalCodeColumns) {
+      records.put(Column.Id.SEX, () -> new PersonalCodeRecord<>((byte) 6, PersonalCodeUtils::getSex));
+      records.put(Column.Id.DATE_OF_BIRTH, () -> new PersonalCodeRecord<>((byte) 6, PersonalCodeUtils::getDateOfBirth));
+    }
+
     // Add only records that are defined in settings
     Map<Column, Supplier<Record<?>>> recordsFactory = new HashMap<>();
     for (Map.Entry<Column.Id, Supplier<Record<?>>> record : records.entrySet()) {
@@ -106,8 +124,13 @@ public class EstIdCardRecordsV2018 extends CardRecords {
 
 
   // Read data from the card using given channel
-  public EstIdCardRecordsV2018(Settings settings, Map<Column, Supplier<Record<?>>> recordsFactory, CardChannel channel) throws CardException, APDUException, UnsupportedEncodingException {
-    super(settings, recordsFactory, channel);
+  public EstIdCardRecordsV2018(Settings settings, RecordsReadPlan readPlan, CardChannel channel) throws CardException, APDUException, UnsupportedEncodingException {
+    super(settings, readPlan, channel);
+  }
+
+  public EstIdCardRecordsV2018(Settings settings, RecordsReadPlan readPlan, CardChannel channel,
+                               Consumer<String> personalCodeListener, CardRecordsCache cache) throws CardException, APDUException, UnsupportedEncodingException {
+    super(settings, readPlan, channel, personalCodeListener, cache);
   }
 
   // Send a command APDU to the card.
@@ -131,7 +154,7 @@ public class EstIdCardRecordsV2018 extends CardRecords {
   @Override
   protected byte[] readRecord(CardChannel channel, byte recordNumber) throws CardException, APDUException {
     // Select Transparent EF 500x
-    sendCommand(channel, new CommandAPDU(new byte[]{0x00, (byte) 0xA4, 0x01, 0x0C, 0x02, 0x50, recordNumber}));
+    sendCommand(channel, SELECT_FILE_500X[recordNumber]);
     // Read Binary
     return sendCommand(channel, READ_BYTES);
   }
@@ -0,0 +1,19 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import java.util.function.Function;
+
+/**
+ * Value derived from the personal code record, no record of its own is read from the card
+ */
+public class PersonalCodeRecord<T> extends Record<T> {
+
+  public PersonalCodeRecord(Byte personalCodeRecordNumber, Function<String, T> derive) {
+    setRecordReader(new RecordReader(personalCodeRecordNumber) {
+      @Override
+      protected void readRecord(String[] records, Byte[] recordNumbers) {
+        String personalCode = records[recordNumbers[0] - 1];
+        accept(personalCode != null ? derive.apply(personalCode) : null);
+      }
+    });
+  }
+}
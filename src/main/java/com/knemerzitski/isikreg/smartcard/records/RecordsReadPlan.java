@@ -0,0 +1,104 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import com.knemerzitski.isikreg.settings.columns.Column;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Records of one card generation that are needed by the columns in settings. Compiled once, reading a card only
+ * sends commands for these records.
+ */
+public class RecordsReadPlan {
+
+  // Total possible amount of records in personal data file
+  public static final int RECORD_COUNT = 16;
+
+  private final Map<Column, Supplier<Record<?>>> recordsFactory;
+
+  // Distinct record numbers in reading order, personal code records are first and document number is next
+  private final byte[] recordNumbers;
+  private final int personalCodeRecordCount;
+  private final int keyRecordCount;
+  private final byte documentNrRecordNumber;
+
+  public RecordsReadPlan(Map<Column, Supplier<Record<?>>> recordsFactory) {
+    this(recordsFactory, (byte) 0);
+  }
+
+  /**
+   * @param documentNrRecordNumber Document number identifies the card in {@link CardRecordsCache} together with
+   *                               personal code, 0 if cache isn't used
+   */
+  public RecordsReadPlan(Map<Column, Supplier<Record<?>>> recordsFactory, byte documentNrRecordNumber) {
+    this.recordsFactory = recordsFactory;
+    this.documentNrRecordNumber = documentNrRecordNumber;
+
+    boolean[] needed = new boolean[RECORD_COUNT + 1];
+    boolean[] personalCode = new boolean[RECORD_COUNT + 1];
+    for (Map.Entry<Column, Supplier<Record<?>>> e : recordsFactory.entrySet()) {
+      for (Byte recordNumber : e.getValue().get().getRecordReader().getRecordNumbers()) {
+        needed[recordNumber] = true;
+        if (e.getKey().id == Column.Id.PERSONAL_CODE)
+          personalCode[recordNumber] = true;
+      }
+    }
+
+    byte[] numbers = new byte[RECORD_COUNT];
+    int count = 0;
+    for (int i = 1; i <= RECORD_COUNT; i++) {
+      if (personalCode[i])
+        numbers[count++] = (byte) i;
+    }
+    personalCodeRecordCount = count;
+    if (documentNrRecordNumber > 0 && !personalCode[documentNrRecordNumber]) {
+      numbers[count++] = documentNrRecordNumber;
+      needed[documentNrRecordNumber] = false;
+    }
+    keyRecordCount = count;
+    for (int i = 1; i <= RECORD_COUNT; i++) {
+      if (needed[i] && !personalCode[i])
+        numbers[count++] = (byte) i;
+    }
+    recordNumbers = Arrays.copyOf(numbers, count);
+  }
+
+  public Map<Column, Supplier<Record<?>>> getRecordsFactory() {
+    return recordsFactory;
+  }
+
+  /**
+   * @return Don't modify, array is shared by all reads
+   */
+  byte[] getRecordNumbers() {
+    return recordNumbers;
+  }
+
+  /**
+   * @return Amount of first {@link #getRecordNumbers()} that contain the personal code
+   */
+  int getPersonalCodeRecordCount() {
+    return personalCodeRecordCount;
+  }
+
+  /**
+   * @return Amount of first {@link #getRecordNumbers()} that are needed to find the card in {@link CardRecordsCache}
+   */
+  int getKeyRecordCount() {
+    return keyRecordCount;
+  }
+
+  /**
+   * @return 0 if cache isn't used
+   */
+  byte getDocumentNrRecordNumber() {
+    return documentNrRecordNumber;
+  }
+
+  @Override
+  public String toString() {
+    return "RecordsReadPlan" + Arrays.toString(recordNumbers);
+  }
+
+}
@@ -1,37 +1,174 @@
 package com.knemerzitski.isikreg.threading;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class TaskExecutor {
 
-  private final Thread.UncaughtExceptionHandler exceptionHandler;
+  /**
+   * Tasks of different kinds run in separate bounded pools, so that parsing a large file can't starve card reading
+   */
+  public enum Pool {
+    /**
+     * Long running card terminal loops, monitoring of all terminals and processing of read cards. Tasks are not queued.
+     */
+    CARD_IO("card-io", 0, 8, 0, Thread.NORM_PRIORITY + 1),
+    /**
+     * Reading a card that was inserted, shared by all terminals
+     */
+    CARD_READ("card-read", 4, 4, 256, Thread.NORM_PRIORITY + 1),
+    /**
+     * Reading and saving the person list and other files of the app, never waits behind import or export
+     */
+    SAVE("save", 2, 2, 1024, Thread.NORM_PRIORITY),
+    /**
+     * Import and export files
+     */
+    FILE_IO("file-io", 4, 4, 1024, Thread.NORM_PRIORITY),
+    /**
+     * Long running tasks that mostly wait, like folder watching and waiting for saves on shutdown. Tasks are not
+     * queued.
+     */
+    WAIT("wait", 0, 4, 0, Thread.NORM_PRIORITY),
+    /**
+     * Parsing and other computation, runs in the calling thread when queue is full
+     */
+    CPU("cpu", Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), 4096,
+        Thread.NORM_PRIORITY - 1);
+
+    private final String threadName;
+    private final int coreSize;
+    private final int maxSize;
+    private final int queueCapacity;
+    private final int priority;
+
+    Pool(String threadName, int coreSize, int maxSize, int queueCapacity, int priority) {
+      this.threadName = threadName;
+      this.coreSize = coreSize;
+      this.maxSize = maxSize;
+      this.queueCapacity = queueCapacity;
+      this.priority = priority;
+    }
+  }
+
+  public static class PoolMetrics {
+    public final String name;
+    public final int activeCount;
+    public final int poolSize;
+    public final int queueDepth;
+    public final long completedCount;
+    public final long rejectedCount;
+    public final long averageWaitMillis; // In queue before start
+    public final long averageRunMillis;
+
+    private PoolMetrics(String name, int activeCount, int poolSize, int queueDepth, long completedCount,
+                        long rejectedCount, long averageWaitMillis, long averageRunMillis) {
+      this.name = name;
+      this.activeCount = activeCount;
+      this.poolSize = poolSize;
+      this.queueDepth = queueDepth;
+      this.completedCount = completedCount;
+      this.rejectedCount = rejectedCount;
+      this.averageWaitMillis = averageWaitMillis;
+      this.averageRunMillis = averageRunMillis;
+    }
 
-  private final ThreadFactory threadFactory;
+    @Override
+    public String toString() {
+      return String.format("%s: active %d/%d, queued %d, completed %d, rejected %d, wait %d ms, run %d ms",
+          name, activeCount, poolSize, queueDepth, completedCount, rejectedCount, averageWaitMillis, averageRunMillis);
+    }
+  }
+
+  /**
+   * Remembers when task was queued
+   */
+  private static class TimedTask implements Runnable {
+    private final Runnable task;
+    private final long queuedNanos = System.nanoTime();
+    private long startNanos;
+
+    private TimedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+  }
+
+  private class PoolExecutor extends ThreadPoolExecutor {
+
+    private final Pool pool;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timedCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+
+    private PoolExecutor(Pool pool) {
+      super(pool.coreSize, pool.maxSize, 60L, TimeUnit.SECONDS,
+          pool.queueCapacity > 0 ? new LinkedBlockingQueue<>(pool.queueCapacity) : new SynchronousQueue<>(),
+          newThreadFactory(pool.threadName, pool.priority));
+      this.pool = pool;
+      allowCoreThreadTimeOut(pool.coreSize > 0);
+      RejectedExecutionHandler rejectedHandler = pool == Pool.CPU ? new CallerRunsPolicy() : new AbortPolicy();
+      setRejectedExecutionHandler((r, executor) -> {
+        rejectedCount.incrementAndGet();
+        rejectedHandler.rejectedExecution(r, executor);
+      });
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      super.execute(new TimedTask(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      super.beforeExecute(t, r);
+      TimedTask timedTask = (TimedTask) r;
+      timedTask.startNanos = System.nanoTime();
+      waitNanos.addAndGet(timedTask.startNanos - timedTask.queuedNanos);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+      super.afterExecute(r, t);
+      TimedTask timedTask = (TimedTask) r;
+      runNanos.addAndGet(System.nanoTime() - timedTask.startNanos);
+      timedCount.incrementAndGet();
+      TaskExecutor.this.afterExecute(timedTask.task, t);
+    }
+
+    private PoolMetrics getMetrics() {
+      long count = Math.max(1, timedCount.get());
+      return new PoolMetrics(pool.threadName, getActiveCount(), getPoolSize(), getQueue().size(), getCompletedTaskCount(),
+          rejectedCount.get(), TimeUnit.NANOSECONDS.toMillis(waitNanos.get() / count),
+          TimeUnit.NANOSECONDS.toMillis(runNanos.get() / count));
+    }
+  }
 
-  private final ThreadPoolExecutor taskExecutor;
+  private final Thread.UncaughtExceptionHandler exceptionHandler;
+
+  private final Map<Pool, PoolExecutor> pools = new EnumMap<>(Pool.class);
   private final ScheduledThreadPoolExecutor scheduler;
 
   public TaskExecutor(Thread.UncaughtExceptionHandler exceptionHandler) {
     this.exceptionHandler = exceptionHandler;
 
-    ThreadFactory defaultFactory = Executors.defaultThreadFactory();
-    threadFactory = (runnable) -> {
-      Thread t = defaultFactory.newThread(runnable);
-      t.setUncaughtExceptionHandler(exceptionHandler);
-      return t;
-    };
-
-    taskExecutor = new ThreadPoolExecutor(3, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory) {
-      @Override
-      protected void afterExecute(Runnable r, Throwable t) {
-        TaskExecutor.this.afterExecute(r, t);
-      }
-    };
+    for (Pool pool : Pool.values()) {
+      pools.put(pool, new PoolExecutor(pool));
+    }
 
-    scheduler = new ScheduledThreadPoolExecutor(2, threadFactory) {
+    scheduler = new ScheduledThreadPoolExecutor(2, newThreadFactory("scheduler", Thread.NORM_PRIORITY)) {
       @Override
       protected void afterExecute(Runnable r, Throwable t) {
         super.afterExecute(r, t);
@@ -41,6 +178,15 @@ public class TaskExecutor {
     scheduler.setRemoveOnCancelPolicy(true);
   }
 
+  private ThreadFactory newThreadFactory(String name, int priority) {
+    AtomicInteger threadNumber = new AtomicInteger(1);
+    return (runnable) -> {
+      Thread t = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+      t.setPriority(priority);
+      t.setUncaughtExceptionHandler(exceptionHandler);
+      return t;
+    };
+  }
 
   private void afterExecute(Runnable r, Throwable t) {
     if (t == null && r instanceof Future<?> && ((Future<?>) r).isDone()) {
@@ -60,21 +206,54 @@ public class TaskExecutor {
       exceptionHandler.uncaughtException(Thread.currentThread(), t);
   }
 
-  public void execute(Runnable task) {
-    taskExecutor.execute(task);
+  public void execute(Pool pool, Runnable task) {
+    pools.get(pool).execute(task);
+  }
+
+  public <T> Future<T> submit(Pool pool, Callable<T> task) {
+    return pools.get(pool).submit(task);
   }
 
-  public <T> Future<T> submit(Callable<T> task) {
-    return taskExecutor.submit(task);
+  /**
+   * @return Executor for APIs that take one, for example {@link CompletableFuture#supplyAsync}
+   */
+  public Executor executor(Pool pool) {
+    return pools.get(pool);
   }
 
   public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
     return scheduler.schedule(callable, delay, unit);
   }
 
+  /**
+   * Task is run on the given pool, scheduler thread only submits it
+   */
+  public ScheduledFuture<?> scheduleWithFixedDelay(Pool pool, Runnable task, long delay, TimeUnit unit) {
+    return scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        execute(pool, task);
+      } catch (RejectedExecutionException e) {
+        if (!isStopping())
+          throw e;
+      }
+    }, delay, delay, unit);
+  }
+
+  public PoolMetrics getMetrics(Pool pool) {
+    return pools.get(pool).getMetrics();
+  }
+
+  public List<PoolMetrics> getMetrics() {
+    List<PoolMetrics> metrics = new ArrayList<>();
+    for (Pool pool : Pool.values()) {
+      metrics.add(getMetrics(pool));
+    }
+    return metrics;
+  }
+
   public List<Runnable> shutdownNow() {
     return Stream.concat(
-        taskExecutor.shutdownNow().stream(),
+        pools.values().stream().flatMap(p -> p.shutdownNow().stream()),
         scheduler.shutdownNow().stream()
     ).collect(Collectors.toList());
   }
@@ -82,19 +261,21 @@ public class TaskExecutor {
   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
     long nanos = unit.toNanos(timeout);
     long start = System.nanoTime();
-    boolean taskExecutorOk = taskExecutor.awaitTermination(nanos, TimeUnit.NANOSECONDS);
-    nanos -= System.nanoTime() - start;
-    boolean schedulerOk = scheduler.awaitTermination(nanos, TimeUnit.NANOSECONDS);
-    return taskExecutorOk && schedulerOk;
+    boolean ok = true;
+    for (ThreadPoolExecutor executor : pools.values()) {
+      ok &= executor.awaitTermination(nanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+    }
+    ok &= scheduler.awaitTermination(nanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+    return ok;
   }
 
   public boolean isTerminated() {
-    return taskExecutor.isTerminated() && scheduler.isTerminated();
+    return pools.values().stream().allMatch(ThreadPoolExecutor::isTerminated) && scheduler.isTerminated();
   }
 
   public boolean isStopping() {
-    return taskExecutor.isTerminating() || taskExecutor.isTerminated() || taskExecutor.isShutdown() ||
-        scheduler.isTerminating() || scheduler.isTerminated() || scheduler.isShutdown();
+    return Stream.concat(pools.values().stream(), Stream.of(scheduler))
+        .anyMatch(e -> e.isTerminating() || e.isTerminated() || e.isShutdown());
   }
 
 
@@ -0,0 +1,76 @@
+package com.knemerzitski.isikreg.ui;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+
+/**
+ * Non-modal progress of a task running in the background, rest of the window stays usable.
+ * One task is shown at a time.
+ */
+public class BackgroundTaskPane extends HBox {
+
+  private final Label label = new Label();
+  private final ProgressBar progressBar = new ProgressBar(ProgressBar.INDETERMINATE_PROGRESS);
+  private final Button cancelButton = new Button("Katkesta");
+
+  private volatile boolean running;
+  private volatile boolean cancelled;
+
+  public BackgroundTaskPane() {
+    setPadding(new Insets(5));
+    setSpacing(10);
+    setAlignment(Pos.CENTER_LEFT);
+    progressBar.setPrefWidth(300);
+    cancelButton.setOnAction(e -> {
+      cancelled = true;
+      cancelButton.setDisable(true);
+      label.setText(label.getText() + " (katkestan)");
+    });
+    getChildren().addAll(label, progressBar, cancelButton);
+    setVisible(false);
+    managedProperty().bind(visibleProperty());
+  }
+
+  /**
+   * @return false if another task is already running
+   */
+  public synchronized boolean start(String text) {
+    if (running)
+      return false;
+    running = true;
+    cancelled = false;
+    Platform.runLater(() -> {
+      label.setText(text);
+      progressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+      cancelButton.setDisable(false);
+      setVisible(true);
+    });
+    return true;
+  }
+
+  /**
+   * @param percent Value between 0 and 1, negative if progress is indeterminable
+   */
+  public void progress(double percent) {
+    Platform.runLater(() -> progressBar.setProgress(percent < 0 ? ProgressBar.INDETERMINATE_PROGRESS : percent));
+  }
+
+  public synchronized void stop() {
+    running = false;
+    Platform.runLater(() -> setVisible(false));
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+}
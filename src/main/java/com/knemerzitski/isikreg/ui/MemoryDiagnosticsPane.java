@@ -0,0 +1,126 @@
+package com.knemerzitski.isikreg.ui;
+
+import com.knemerzitski.isikreg.diagnostics.MemoryDiagnostics;
+import com.knemerzitski.isikreg.threading.TaskExecutor;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.knemerzitski.isikreg.utils.ByteUtils.toReadableBytes;
+
+/**
+ * Person list is walked on the FX thread in chunks and only while the pane is shown
+ */
+public class MemoryDiagnosticsPane extends VBox {
+
+  private final MemoryDiagnostics diagnostics;
+  private final TaskExecutor taskExecutor;
+
+  private final GridPane heapPane = new GridPane();
+  private final GridPane subsystemsPane = new GridPane();
+  private final Label capacityLabel = new Label();
+
+  private final Timeline refreshTimeline;
+  private boolean refreshing;
+
+  public MemoryDiagnosticsPane(MemoryDiagnostics diagnostics, TaskExecutor taskExecutor, long refreshInterval) {
+    this.diagnostics = diagnostics;
+    this.taskExecutor = taskExecutor;
+
+    setPadding(new Insets(10));
+    setSpacing(10);
+
+    heapPane.setHgap(15);
+    subsystemsPane.setHgap(15);
+    capacityLabel.setWrapText(true);
+
+    Button refreshButton = new Button("Värskenda");
+    refreshButton.setOnAction(e -> refresh());
+    Button gcButton = new Button("Käivita prügikoristus");
+    gcButton.setOnAction(e -> refresh(true));
+    HBox buttonsBox = new HBox(10, refreshButton, gcButton);
+
+    getChildren().addAll(heapPane, new Label("Hinnanguline jaotus"), subsystemsPane, capacityLabel, buttonsBox);
+
+    refreshTimeline = new Timeline(new KeyFrame(Duration.millis(refreshInterval), e -> refresh()));
+    refreshTimeline.setCycleCount(Animation.INDEFINITE);
+  }
+
+  public void startRefreshing() {
+    refresh();
+    refreshTimeline.play();
+  }
+
+  public void stopRefreshing() {
+    refreshTimeline.stop();
+  }
+
+  public void refresh() {
+    refresh(false);
+  }
+
+  private void refresh(boolean gc) {
+    if (refreshing)
+      return; // Previous refresh is still running
+    refreshing = true;
+    Executor executor = taskExecutor.executor(TaskExecutor.Pool.CPU);
+    CompletableFuture.runAsync(() -> {
+      if (gc)
+        System.gc();
+    }, executor).thenCompose(v -> diagnostics.snapshotAsync(executor)).whenComplete((s, t) -> Platform.runLater(() -> {
+      refreshing = false;
+      if (t != null) {
+        t.printStackTrace();
+        showError();
+        return;
+      }
+      show(s);
+    }));
+  }
+
+  private void showError() {
+    heapPane.getChildren().clear();
+    subsystemsPane.getChildren().clear();
+    capacityLabel.setText("Mälu hindamine ebaõnnestus.");
+  }
+
+  private void show(MemoryDiagnostics.Snapshot s) {
+    heapPane.getChildren().clear();
+    int row = 0;
+    heapPane.addRow(row++, new Label("Kasutusel"), new Label(String.format("%s (%.0f%%)", toReadableBytes(s.usedHeap), s.getUsedHeapPercent())));
+    heapPane.addRow(row++, new Label("Eraldatud"), new Label(toReadableBytes(s.committedHeap)));
+    heapPane.addRow(row++, new Label("Maksimum (-Xmx)"), new Label(s.maxHeap > 0 ? toReadableBytes(s.maxHeap) : "-"));
+    heapPane.addRow(row++, new Label("Prügikoristusi"), new Label(String.format("%d (%d ms)", s.gcCount, s.gcTime)));
+    heapPane.addRow(row++, new Label("Isikuid / registreeringuid"), new Label(s.people + " / " + s.registrations));
+    heapPane.addRow(row++, new Label("Ühe isiku kohta"), new Label(toReadableBytes(s.getEstimatedPerPerson())));
+    heapPane.addRow(row, new Label("Avatud hetktõmmised"), new Label(s.openListSnapshots > 0 ?
+        String.format("%d (vanim %d s)", s.openListSnapshots, s.oldestListSnapshotAge / 1000) : "0"));
+
+    subsystemsPane.getChildren().clear();
+    row = 0;
+    for (MemoryDiagnostics.Subsystem subsystem : s.subsystems) {
+      subsystemsPane.addRow(row++, new Label(subsystem.name), new Label(String.valueOf(subsystem.count)),
+          new Label(toReadableBytes(subsystem.bytes)));
+    }
+    subsystemsPane.addRow(row, new Label("Kokku"), new Label(), new Label(toReadableBytes(s.getEstimatedTotal())));
+
+    long remaining = s.getRemainingPeopleCapacity();
+    if (remaining >= 0) {
+      capacityLabel.setText(String.format("Mällu mahub hinnanguliselt veel %d isikut.", remaining));
+    } else {
+      capacityLabel.setText("");
+    }
+  }
+
+}
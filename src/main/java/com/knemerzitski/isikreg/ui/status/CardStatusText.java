@@ -136,6 +136,10 @@ public class CardStatusText {
     set("Loen andmeid ID-kaardilt...", Color.BLACK);
   }
 
+  public void readingCard(ColumnProperties props) {
+    set(props, "Loen andmeid ID-kaardilt...", Color.BLACK);
+  }
+
   // RED
 
   public void notRegistered(ColumnProperties props) {
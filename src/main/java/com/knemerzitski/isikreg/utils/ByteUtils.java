@@ -23,5 +23,16 @@ public class ByteUtils {
     return sb.toString();
   }
 
+  public static String toReadableBytes(long bytes) {
+    String[] type = {"B", "KB", "MB", "GB", "TB"};
+    if (bytes < 1000) return bytes + " " + type[0];
+    double val = bytes / 1024d;
+    int i;
+    for (i = 1; i < type.length - 1; i++) {
+      if (val < 1000) break;
+      val /= 1024;
+    }
+    return Math.round(val * 10) / 10d + " " + type[i];
+  }
 
 }
@@ -6,12 +6,53 @@ import java.util.Date;
 
 public class ExcelUtils {
 
+  private static final int MAX_COLUMN_WIDTH = 255 * 256;
+  private static final double COLUMN_PADDING = 1.5; // characters
+
   private ExcelUtils() {
   }
 
+  /**
+   * Estimates column width needed for text without font metrics.
+   *
+   * @return Width in units of 1/256th of a character width, as in {@link Sheet#setColumnWidth(int, int)}
+   */
+  public static int estimateColumnWidth(String text) {
+    double maxLineWidth = 0;
+    double lineWidth = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        lineWidth = 0;
+      } else {
+        lineWidth += estimateCharWidth(c);
+        maxLineWidth = Math.max(maxLineWidth, lineWidth);
+      }
+    }
+    return (int) Math.min(MAX_COLUMN_WIDTH, (maxLineWidth + COLUMN_PADDING) * 256);
+  }
+
+  /**
+   * @return Width relative to digit width in default font
+   */
+  private static double estimateCharWidth(char c) {
+    if ("iljI.,:;'|!".indexOf(c) != -1)
+      return 0.5;
+    if ("frt ()[]{}-/\\\"".indexOf(c) != -1)
+      return 0.7;
+    if ("mwMW@%".indexOf(c) != -1)
+      return 1.5;
+    if (Character.isUpperCase(c))
+      return 1.25;
+    return 1;
+  }
+
   public static boolean isDateTimeStyle(CellStyle style) {
-    String s = style.getDataFormatString();
-    return s.contains("h") || s.contains("s");
+    return isDateTimeFormat(style.getDataFormatString());
+  }
+
+  public static boolean isDateTimeFormat(String format) {
+    return format != null && (format.contains("h") || format.contains("s"));
   }
 
   public static boolean isEmpty(Cell cell, FormulaEvaluator fe) {
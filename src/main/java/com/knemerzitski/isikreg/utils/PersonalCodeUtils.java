@@ -0,0 +1,85 @@
+package com.knemerzitski.isikreg.utils;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Estonian personal code GYYMMDDSSSC. G - century and sex, YYMMDD - date of birth, SSS - serial number, C - checksum.
+ */
+public class PersonalCodeUtils {
+
+  // Same values as on the card
+  public static final String MALE = "M";
+  public static final String FEMALE = "N";
+
+  private static final int[] WEIGHTS1 = {1, 2, 3, 4, 5, 6, 7, 8, 9, 1};
+  private static final int[] WEIGHTS2 = {3, 4, 5, 6, 7, 8, 9, 1, 2, 3};
+
+  /**
+   * @return true if code has correct format, checksum and date of birth
+   */
+  public static boolean isValid(String personalCode) {
+    return getDateOfBirth(personalCode) != null;
+  }
+
+  /**
+   * @return Date of birth or null if personal code isn't valid
+   */
+  public static LocalDate getDateOfBirth(String personalCode) {
+    if (!isValidChecksum(personalCode))
+      return null;
+    int century = 1800 + (personalCode.charAt(0) - '1') / 2 * 100;
+    try {
+      return LocalDate.of(century + parse(personalCode, 1, 3), parse(personalCode, 3, 5), parse(personalCode, 5, 7));
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return {@link #MALE}, {@link #FEMALE} or null if personal code isn't valid
+   */
+  public static String getSex(String personalCode) {
+    if (!isValid(personalCode))
+      return null;
+    return (personalCode.charAt(0) - '0') % 2 == 1 ? MALE : FEMALE;
+  }
+
+  private static boolean isValidChecksum(String personalCode) {
+    if (personalCode == null || personalCode.length() != 11)
+      return false;
+    for (int i = 0; i < personalCode.length(); i++) {
+      char c = personalCode.charAt(i);
+      if (c < '0' || c > '9')
+        return false;
+    }
+    char first = personalCode.charAt(0);
+    if (first < '1' || first > '8')
+      return false;
+
+    int checksum = checksum(personalCode, WEIGHTS1);
+    if (checksum == 10) {
+      checksum = checksum(personalCode, WEIGHTS2);
+      if (checksum == 10)
+        checksum = 0;
+    }
+    return checksum == personalCode.charAt(10) - '0';
+  }
+
+  private static int checksum(String personalCode, int[] weights) {
+    int sum = 0;
+    for (int i = 0; i < weights.length; i++) {
+      sum += (personalCode.charAt(i) - '0') * weights[i];
+    }
+    return sum % 11;
+  }
+
+  private static int parse(String str, int start, int end) {
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      value = value * 10 + str.charAt(i) - '0';
+    }
+    return value;
+  }
+
+}
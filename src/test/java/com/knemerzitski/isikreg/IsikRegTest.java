@@ -1404,6 +1404,49 @@ public class IsikRegTest {
     actions.assertStatusText("Sisesta ID-kaart");
   }
 
+  @Test
+  public void testQuickProcessingRegistrationDuringGracePeriod(FxRobot robot) throws ExecutionException, InterruptedException, CardException {
+    settings.smartCard.quickExistingPersonRegistration = true;
+    settings.smartCard.quickNewPersonRegistration = true;
+    settings.smartCard.registerExpiredCards = Settings.Rule.ALLOW;
+    settings.general.registerDuringGracePeriod = Settings.Rule.CONFIRM;
+    assertFalse(IsikReg.canRegisterCardWithoutDialogs(settings, null)); // Card waits for the dialog
+    settings.general.registerDuringGracePeriod = Settings.Rule.ALLOW;
+    assertTrue(IsikReg.canRegisterCardWithoutDialogs(settings, null));
+    settings.general.registerSameTypeInRow = Settings.Rule.DENY;
+    assertFalse(IsikReg.canRegisterCardWithoutDialogs(settings, null));
+    settings.general.registerSameTypeInRow = Settings.Rule.ALLOW;
+    settings.general.registerDuringGracePeriod = Settings.Rule.CONFIRM;
+    start();
+
+    Actions actions = new Actions(isikReg, terminalSimulator, robot, 4234235);
+    actions.populateTable(10);
+
+    String registrationType = "Välja";
+    String personalCode = "34215133";
+    String lastName = "PERENIMI";
+    String firstName = "EESNIMI";
+
+    Person existingPerson = actions.newPerson(personalCode);
+    existingPerson.setLastName(lastName);
+    existingPerson.setFirstName(firstName);
+
+    Registration existingRegistration = existingPerson.getOrNewNextRegistration();
+    existingRegistration.setRegistered(true, true);
+    existingRegistration.setRegisteredDate(new Date(ZonedDateTime.now().minusMinutes(1)));
+
+    actions.assertStatusText("Sisesta ID-kaart");
+    FakeTerminalSimulator.FakeCard card = FakeCards.createEstIdCardBasic(personalCode, lastName, firstName);
+    actions.insertCard(card);
+
+    actions.assertConfirmGracePeriod(true, existingRegistration, registrationType);
+    actions.assertStatusText(registrationType + " registreeritud!");
+    actions.assertExistingPersonJustRegistration(true, existingPerson, existingRegistration, registrationType);
+
+    card.eject();
+    actions.assertStatusText("Sisesta ID-kaart");
+  }
+
   @ParameterizedTest
   @MethodSource("settingsGracePeriodProvider")
   public void testNewRegistrationExistingPersonWithCardDuringGracePeriod(ObjFieldValueSet conf, FxRobot robot) throws ExecutionException, InterruptedException, CardException, IllegalAccessException {
@@ -0,0 +1,84 @@
+package com.knemerzitski.isikreg.diagnostics;
+
+import com.google.common.jimfs.Jimfs;
+import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.person.Person;
+import com.knemerzitski.isikreg.person.PersonList;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.threading.TaskExecutor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryDiagnosticsTest {
+
+  private Settings settings;
+  private PersonList personList;
+
+  @BeforeEach
+  public void setupThis() throws IOException {
+    FileSystem fileSystem = Jimfs.newFileSystem();
+    settings = Settings.newDefault(fileSystem.getPath("./settings.json"));
+    settings.general.saveDelay = 1;
+    settings.general.archiveKeepLatestRegistrations = 1;
+
+    TaskExecutor taskExecutor = new TaskExecutor((t, e) -> fail(e));
+    personList = new PersonList(settings, fileSystem.getPath(settings.general.savePath), taskExecutor);
+  }
+
+  @Test
+  public void testCounts() {
+    ZonedDateTime now = ZonedDateTime.now();
+    Person p1 = new Person(settings);
+    p1.setPersonalCode("1");
+    for (int i = 3; i > 0; i--) {
+      p1.getOrNewRegistration().setRegisteredNoConfirm(new Date(now.minusHours(i)));
+    }
+    Person p2 = new Person(settings);
+    p2.setPersonalCode("2");
+    p2.getOrNewRegistration().setRegisteredNoConfirm(new Date(now));
+    personList.add(p1);
+    personList.add(p2);
+
+    MemoryDiagnostics diagnostics = new MemoryDiagnostics(settings, personList);
+    MemoryDiagnostics.Snapshot s = diagnostics.snapshot();
+    assertEquals(2, s.people);
+    assertEquals(4, s.registrations);
+    Map<String, MemoryDiagnostics.Subsystem> subsystems = bySubsystem(s);
+    assertEquals(2, subsystems.get("Isikud").count);
+    assertEquals(4, subsystems.get("Registreeringud").count);
+    assertEquals(0, subsystems.get("Arhiiv").count);
+    assertTrue(s.getEstimatedTotal() > 0);
+    assertEquals(s.getEstimatedTotal() / 2, s.getEstimatedPerPerson());
+
+    long registrationBytes = subsystems.get("Registreeringud").bytes;
+    assertEquals(2, personList.archiveRegistrations());
+    s = diagnostics.snapshot();
+    subsystems = bySubsystem(s);
+    assertEquals(2, s.registrations);
+    assertEquals(2, subsystems.get("Arhiiv").count);
+    assertTrue(subsystems.get("Registreeringud").bytes < registrationBytes);
+  }
+
+  @Test
+  public void testNearLimit() {
+    assertTrue(MemoryDiagnostics.isNearLimit(85, 100, 85));
+    assertFalse(MemoryDiagnostics.isNearLimit(84, 100, 85));
+    assertFalse(MemoryDiagnostics.isNearLimit(100, 100, 0)); // Disabled
+    assertFalse(MemoryDiagnostics.isNearLimit(100, -1, 85)); // Max heap undefined
+  }
+
+  private static Map<String, MemoryDiagnostics.Subsystem> bySubsystem(MemoryDiagnostics.Snapshot s) {
+    Map<String, MemoryDiagnostics.Subsystem> map = new HashMap<>();
+    s.subsystems.forEach(subsystem -> map.put(subsystem.name, subsystem));
+    return map;
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.knemerzitski.isikreg.person;
+
+import com.google.common.jimfs.Jimfs;
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.threading.TaskExecutor;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.testfx.framework.junit5.ApplicationExtension;
+import org.testfx.framework.junit5.Start;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(ApplicationExtension.class)
+public class FolderImporterTest {
+
+  private FileSystem fileSystem;
+  private Settings settings;
+  private TaskExecutor taskExecutor;
+  private ConcurrentLinkedQueue<Throwable> uncaughtExceptions;
+
+  private PersonList personList;
+  private Path folder;
+
+  @Start
+  public void start(Stage stage) {
+  }
+
+  @BeforeEach
+  public void setupThis() throws IOException {
+    fileSystem = Jimfs.newFileSystem();
+    settings = Settings.newDefault(fileSystem.getPath("./settings.json"));
+
+    settings.general.saveDelay = 1;
+    settings.general.autoImportDelay = 1;
+
+    uncaughtExceptions = new ConcurrentLinkedQueue<>();
+    Thread.UncaughtExceptionHandler uncaughtExceptionHandler = (t, e) -> {
+      uncaughtExceptions.offer(e);
+    };
+
+    taskExecutor = new TaskExecutor(uncaughtExceptionHandler);
+
+    personList = new PersonList(settings, fileSystem.getPath(settings.general.savePath), taskExecutor);
+    folder = fileSystem.getPath("import");
+    Files.createDirectory(folder);
+  }
+
+  @AfterEach
+  public void assertNoExceptions() {
+    Throwable t;
+    while ((t = uncaughtExceptions.poll()) != null) {
+      fail(t);
+    }
+  }
+
+  @Test
+  public void testUnchangedRowsSkippedAfterRestart() throws Exception {
+    Path path = folder.resolve("list.csv");
+    writeLines(path, "Isikukood;Perekonnanimi", "1;a", "2;b");
+
+    FolderImporter importer = new FolderImporter(settings, personList, taskExecutor);
+    importer.start(folder);
+    waitFor(() -> contains("1") && contains("2") && Files.exists(importer.getRowHashesPath()));
+    importer.stop();
+
+    // Removed in the app while not running
+    personList.getCommandQueue().submit(list -> {
+      list.remove(list.get("2"));
+      return null;
+    }).get();
+
+    writeLines(path, "Isikukood;Perekonnanimi", "1;a", "2;b", "3;c");
+    FolderImporter restartedImporter = new FolderImporter(settings, personList, taskExecutor);
+    restartedImporter.start(folder);
+    waitFor(() -> contains("3"));
+    restartedImporter.stop();
+
+    assertTrue(contains("1"));
+    assertFalse(contains("2"));
+  }
+
+  // ##################################### Helper methods ############################
+
+  private static void writeLines(Path path, String... lines) throws IOException {
+    Files.write(path, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private boolean contains(String personalCode) {
+    try {
+      return personList.getCommandQueue().submit(list -> list.get(personalCode) != null).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < end, "Timed out");
+      Thread.sleep(10);
+    }
+  }
+
+}
@@ -2,7 +2,9 @@ package com.knemerzitski.isikreg.person;
 
 import com.google.common.jimfs.Jimfs;
 import com.knemerzitski.isikreg.date.Date;
+import com.knemerzitski.isikreg.settings.ColumnProperties;
 import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.threading.TaskExecutor;
 import com.knemerzitski.isikreg.utils.ExcelUtils;
 import org.apache.poi.ss.usermodel.*;
@@ -14,6 +16,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -30,8 +33,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class PersonListExcelReaderWriterTest {
 
@@ -203,6 +205,55 @@ public class PersonListExcelReaderWriterTest {
     assertExcelReader(personList);
   }
 
+  @Test
+  public void testCsv() throws InterruptedException, IOException {
+    List<Person> personList = new ArrayList<>();
+    Person p = new Person(settings);
+    p.setPersonalCode("1");
+    p.setLastName("ok; \"quoted\"");
+    Registration r = p.getOrNewNextRegistration();
+    r.setRegistered(true, true);
+    r.setRegisteredDate(new Date(LocalDate.of(2000, 10, 15)));
+    personList.add(p);
+
+    PersonListExcelWriter writer = new PersonListExcelWriter(settings, taskExecutor);
+    Path path = fileSystem.getPath("test.csv");
+    writer.writeAsync(path, personList, false);
+    writer.waitForWritingFinished(5, TimeUnit.SECONDS);
+
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    assertEquals("\uFEFFRegistreerimise tüüp;Registreerimise aeg;Isikukood;Perekonnanimi;Eesnimi", lines.get(0));
+    assertEquals("Sisse;15.10.2000;1;\"ok; \"\"quoted\"\"\";", lines.get(1));
+
+    assertExcelReader(personList, path);
+  }
+
+  @Test
+  public void testCheckboxText() {
+    // Any text in Excel cell is checked, CSV has its own parsing
+    assertTrue(ExcelUtils.getCellBoolean(new CellValue("FALSE")));
+    assertTrue(ExcelUtils.getCellBoolean(new CellValue("0")));
+    assertFalse(ExcelUtils.getCellBoolean(new CellValue(" ")));
+
+    assertFalse(CsvSheet.parseBoolean("FALSE"));
+    assertFalse(CsvSheet.parseBoolean("0"));
+    assertFalse(CsvSheet.parseBoolean(""));
+    assertTrue(CsvSheet.parseBoolean("TRUE"));
+    assertTrue(CsvSheet.parseBoolean("x"));
+  }
+
+  @Test
+  public void testMergeCheckboxValues() {
+    // Checkbox on a later duplicate row is kept
+    Column column = settings.getColumn(Column.Id.REGISTERED);
+    assertEquals(true, ColumnProperties.mergeValue(column, false, true));
+    assertEquals(true, ColumnProperties.mergeValue(column, true, false));
+    assertEquals(false, ColumnProperties.mergeValue(column, false, false));
+    assertEquals(true, ColumnProperties.mergeValue(column, null, true));
+    assertEquals(false, ColumnProperties.mergeValue(column, false, null));
+  }
+
 
   // ##################################### Helper methods ############################
 
@@ -221,16 +272,18 @@ public class PersonListExcelReaderWriterTest {
   }
 
   private void assertExcelReader(List<Person> expected) throws InterruptedException {
+    assertExcelReader(expected, fileSystem.getPath("test.xlsx"));
+  }
+
+  private void assertExcelReader(List<Person> expected, Path path) throws InterruptedException {
     List<Person> personList = new ArrayList<>();
     PersonListExcelReader reader = new PersonListExcelReader(settings, taskExecutor) {
       @Override
-      protected void process(Person person) {
-        personList.add(person);
+      protected void process(List<Person> people) {
+        personList.addAll(people);
       }
     };
 
-    Path path = fileSystem.getPath("test.xlsx");
-
     reader.readAsync(Stream.of(path).collect(Collectors.toList()));
     reader.waitForReadingFinished(5, TimeUnit.SECONDS);
 
@@ -1,8 +1,11 @@
 package com.knemerzitski.isikreg.person;
 
 import com.google.common.jimfs.Jimfs;
+import com.knemerzitski.isikreg.date.Date;
 import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.threading.TaskExecutor;
+import javafx.beans.property.Property;
 import javafx.collections.ObservableMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,8 +13,17 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.file.FileSystem;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -98,6 +110,212 @@ public class PersonListTest {
     assertTrue(personList.verifyWritten());
   }
 
+  @Test
+  public void testArchivedRegistrationsWritten() throws IOException, InterruptedException {
+    settings.general.archiveKeepLatestRegistrations = 1;
+
+    Person p = new Person(settings);
+    p.setPersonalCode("1");
+    ZonedDateTime now = ZonedDateTime.now();
+    for (int i = 3; i > 0; i--) {
+      p.getOrNewRegistration().setRegisteredNoConfirm(new Date(now.minusHours(i)));
+    }
+    personList.add(p);
+
+    assertEquals(2, personList.archiveRegistrations());
+    assertEquals(1, p.getRegistrations().size());
+    assertEquals(2, p.getArchivedRegistrationCount());
+    assertEquals(3, p.getAllRegistrations().size());
+    assertSame(p.getAllRegistrations().get(0), p.getAllRegistrations().get(0)); // Archive is parsed once
+    assertTrue(personList.verifyWritten());
+
+    personList.restoreArchivedRegistrations(p);
+    assertEquals(3, p.getRegistrations().size());
+    assertFalse(p.hasArchivedRegistrations());
+    assertTrue(personList.verifyWritten());
+  }
+
+  @Test
+  public void testImportDiffDoesNotModifyList() {
+    ZonedDateTime now = ZonedDateTime.now();
+    Person p = new Person(settings);
+    p.setPersonalCode("1");
+    p.setLastName("a");
+    p.getOrNewRegistration().setRegisteredNoConfirm(new Date(now.minusHours(2)));
+    personList.add(p);
+
+    Person imported1 = new Person(settings);
+    imported1.setPersonalCode("1");
+    imported1.setLastName("b");
+    imported1.getOrNewRegistration().setRegisteredNoConfirm(new Date(now.minusHours(2)));
+    imported1.getOrNewRegistration().setRegisteredNoConfirm(new Date(now.minusHours(1)));
+    Person imported2 = new Person(settings);
+    imported2.setPersonalCode("2");
+    imported2.getOrNewRegistration().setRegisteredNoConfirm(new Date(now));
+
+    ImportDiff diff = ImportDiff.compute(personList, Stream.of(imported1, imported2).collect(Collectors.toList()));
+    assertEquals(1, diff.getNewPeople());
+    assertEquals(1, diff.getChangedPeople());
+    assertEquals(0, diff.getUnchangedPeople());
+    assertEquals(2, diff.getAddedRegistrations());
+    assertEquals(1, (int) diff.getConflicts().get(settings.getColumn(Column.Id.LAST_NAME)));
+    assertEquals(1, personList.getPersonMap().size());
+    assertEquals(1, p.getRegistrations().size());
+
+    diff.apply(personList);
+    assertEquals(2, personList.getPersonMap().size());
+    assertEquals(2, p.getRegistrations().size());
+    assertEquals("a", p.getLastName());
+  }
+
+  @Test
+  public void testChangeSequence() {
+    Person p1 = new Person(settings);
+    p1.setPersonalCode("1");
+    Registration r1 = p1.getOrNewRegistration();
+    Person p2 = new Person(settings);
+    p2.setPersonalCode("2");
+    personList.add(p1);
+    personList.add(p2);
+    long sequence = personList.getChangeSequence();
+    assertTrue(p1.getChangeSequence() > 0);
+    assertTrue(r1.getChangeSequence() > 0);
+
+    r1.setRegisteredNoConfirm(new Date(ZonedDateTime.now()));
+    assertTrue(r1.getChangeSequence() > sequence);
+    assertTrue(p1.getChangeSequence() > sequence);
+    assertTrue(p1.getPropertiesChangeSequence() <= sequence);
+    assertTrue(p2.getChangeSequence() <= sequence);
+
+    p2.setLastName("a");
+    assertTrue(p2.getPropertiesChangeSequence() > sequence);
+    assertEquals(personList.getChangeSequence(), personList.getChangeSequenceAt(System.currentTimeMillis() + 1000));
+  }
+
+  @Test
+  public void testChangeSequenceRemoved() {
+    Person p1 = new Person(settings);
+    p1.setPersonalCode("1");
+    p1.getOrNewRegistration().setRegisteredNoConfirm(new Date(ZonedDateTime.now().minusHours(1)));
+    p1.newRegistration().setRegisteredNoConfirm(new Date(ZonedDateTime.now()));
+    Person p2 = new Person(settings);
+    p2.setPersonalCode("2");
+    p2.getOrNewRegistration().setRegisteredNoConfirm(new Date(ZonedDateTime.now()));
+    personList.add(p1);
+    personList.add(p2);
+    long sequence = personList.getChangeSequence();
+
+    p1.getRegistrations().get(0).remove();
+    personList.remove(p2);
+    assertTrue(p1.getChangeSequence() > sequence);
+
+    // Removals are not exported
+    List<Person> people = new ArrayList<>(personList.values());
+    assertEquals(1, people.size());
+    PersonListSheetLayout layout = new PersonListSheetLayout(settings, false);
+    List<Integer> rows = new ArrayList<>();
+    layout.writeRows(people, sequence, new PersonListSheetLayout.RowWriter() {
+      @Override
+      public void startRow(int rowIndex) {
+        rows.add(rowIndex);
+      }
+
+      @Override
+      public void cell(int columnIndex, Property<?> property) {
+      }
+    });
+    assertTrue(rows.isEmpty());
+  }
+
+  @Test
+  public void testMergeChangeSequenceTimes() {
+    NavigableMap<Long, Long> times = new TreeMap<>();
+    for (long i = 1; i <= 5; i++)
+      times.put(i * 1000, i * 10);
+    PersonList.mergeChangeSequenceTimes(times);
+    assertEquals(3, times.size());
+    assertEquals(10, times.ceilingEntry(1000L).getValue()); // (1000, 2000] merged
+    assertEquals(10, times.ceilingEntry(1500L).getValue());
+    assertEquals(30, times.ceilingEntry(3000L).getValue());
+    assertEquals(50, times.ceilingEntry(5000L).getValue());
+  }
+
+  @Test
+  public void testSnapshotSharesUnchangedPeople() {
+    Person p1 = new Person(settings);
+    p1.setPersonalCode("1");
+    Person p2 = new Person(settings);
+    p2.setPersonalCode("2");
+    p2.setLastName("a");
+    personList.add(p1);
+    personList.add(p2);
+
+    try (PersonListSnapshot s1 = personList.snapshot()) {
+      assertTrue(personList.getRetainedSnapshotCopies().isEmpty()); // Copied on first read
+      p2.setLastName("b");
+      try (PersonListSnapshot s2 = personList.snapshot()) {
+        assertSame(findPerson(s1, "1"), findPerson(s2, "1"));
+        assertEquals("a", findPerson(s1, "2").getLastName());
+        assertEquals("b", findPerson(s2, "2").getLastName());
+        assertEquals(2, personList.getOpenSnapshotCount());
+        assertEquals(3, personList.getRetainedSnapshotCopies().size());
+      }
+    }
+    assertEquals(0, personList.getOpenSnapshotCount());
+    assertEquals(2, personList.getRetainedSnapshotCopies().size()); // Kept for the next snapshot
+  }
+
+  @Test
+  public void testSnapshotIncludesArchivedRegistrations() {
+    settings.general.archiveKeepLatestRegistrations = 1;
+
+    Person p = new Person(settings);
+    p.setPersonalCode("1");
+    p.setLastName("a");
+    ZonedDateTime now = ZonedDateTime.now();
+    for (int i = 3; i > 0; i--) {
+      p.getOrNewRegistration().setRegisteredNoConfirm(new Date(now.minusHours(i)));
+    }
+    personList.add(p);
+    assertEquals(2, personList.archiveRegistrations());
+
+    try (PersonListSnapshot s = personList.snapshot()) {
+      Person copy = findPerson(s, "1");
+      assertNotSame(p, copy);
+      assertEquals("a", copy.getLastName());
+      assertEquals(3, copy.getRegistrations().size());
+      Registration latest = copy.getRegistrations().get(2);
+      assertEquals(p.getRegistrations().get(0).getRegisteredDate(), latest.getRegisteredDate());
+      assertEquals(p.getRegistrations().get(0).getChangeSequence(), latest.getChangeSequence());
+      assertEquals(p.getChangeSequence(), copy.getChangeSequence());
+    }
+  }
+
+  @Test
+  public void testCommandQueueRunsOnWriterThread() throws Exception {
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      Thread writerThread = writer.submit(Thread::currentThread).get();
+      PersonListCommandQueue commandQueue = new PersonListCommandQueue(personList, writer);
+      List<CompletableFuture<Thread>> results = IntStream.range(0, 100).parallel().mapToObj(i -> commandQueue.submit(list -> {
+        Person p = new Person(settings);
+        p.setPersonalCode(String.valueOf(i));
+        list.add(p);
+        return Thread.currentThread();
+      })).collect(Collectors.toList());
+      for (CompletableFuture<Thread> result : results)
+        assertSame(writerThread, result.get());
+      assertEquals(100, personList.size());
+      assertEquals(0, commandQueue.getQueuedCount());
+    } finally {
+      writer.shutdown();
+    }
+  }
+
+  private static Person findPerson(PersonListSnapshot snapshot, String personalCode) {
+    return snapshot.getPeople().stream().filter(p -> p.getPersonalCode().equals(personalCode)).findFirst().orElse(null);
+  }
+
   private void assertMapCorrect(){
     personList.getPersonMap().forEach((key, value) -> {
       assertNotNull(key);
@@ -0,0 +1,69 @@
+package com.knemerzitski.isikreg.smartcard;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadTimingTest {
+
+  @Test
+  public void testFixedTiming() {
+    ReadTiming timing = new ReadTiming(false, 250, 2000);
+    timing.readSucceeded(true, 100);
+    assertEquals(250, timing.getSettleDelay());
+    assertEquals(2000, timing.getRetryDelay(1));
+    assertEquals(2000, timing.getRetryDelay(3));
+  }
+
+  @Test
+  public void testSettleDelayShortened() {
+    ReadTiming timing = new ReadTiming(true, 250, 2000);
+    assertEquals(250, timing.getSettleDelay());
+    assertFalse(timing.isSettleDelayReduced());
+
+    timing.readSucceeded(false, 1200); // Needed retries
+    assertEquals(250, timing.getSettleDelay());
+
+    timing.readSucceeded(true, 300);
+    assertEquals(187, timing.getSettleDelay());
+    for (int i = 0; i < 32; i++) {
+      timing.readSucceeded(true, 120);
+    }
+    assertEquals(10, timing.getSettleDelay());
+    assertTrue(timing.isSettleDelayReduced());
+
+    // Card wasn't ready, wait isn't shortened below the doubled wait anymore
+    timing.settleFailed();
+    assertEquals(20, timing.getSettleDelay());
+    for (int i = 0; i < 32; i++) {
+      timing.readSucceeded(true, 120);
+    }
+    assertEquals(20, timing.getSettleDelay());
+
+    // Not longer than in settings
+    for (int i = 0; i < 8; i++) {
+      timing.settleFailed();
+    }
+    assertEquals(250, timing.getSettleDelay());
+    assertFalse(timing.isSettleDelayReduced());
+  }
+
+  @Test
+  public void testRetryBackoff() {
+    ReadTiming timing = new ReadTiming(true, 250, 2000);
+    assertEquals(100, timing.getRetryDelay(1));
+    assertEquals(200, timing.getRetryDelay(2));
+    assertEquals(400, timing.getRetryDelay(3));
+    assertEquals(2000, timing.getRetryDelay(10));
+    assertEquals(2000, timing.getRetryDelay(100));
+  }
+
+  @Test
+  public void testRetryableStatus() {
+    assertFalse(new APDUException(0x6D00, "").isRetryable());
+    assertFalse(new APDUException(0x6A82, "").isRetryable());
+    assertTrue(new APDUException(0x6F00, "").isRetryable());
+    assertTrue(new APDUException(0x6400, "").isRetryable());
+  }
+
+}
@@ -6,6 +6,7 @@ import com.knemerzitski.isikreg.settings.Settings;
 import com.knemerzitski.isikreg.settings.columns.Column;
 import com.knemerzitski.isikreg.settings.columns.TextColumn;
 import com.knemerzitski.isikreg.smartcard.records.CardRecords;
+import com.knemerzitski.isikreg.threading.TaskExecutor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -59,7 +60,7 @@ public class TerminalsManagerTest extends TaskExecutorTestExtension {
         getTaskExecutor());
 
     ObservableChanges<TerminalsManager.Status> initComplete = ObservableChanges.observableOldChange(handler.statusProperty()).value(INIT).get();
-    getTaskExecutor().execute(handler);
+    getTaskExecutor().execute(TaskExecutor.Pool.CARD_IO, handler);
 
     // Wait for init to complete before accessing reader
     initComplete.await(20, TimeUnit.MILLISECONDS);
@@ -143,7 +144,7 @@ public class TerminalsManagerTest extends TaskExecutorTestExtension {
         getTaskExecutor());
 
     ObservableChanges<TerminalsManager.Status> initComplete = ObservableChanges.observableOldChange(handler.statusProperty()).value(INIT).get();
-    getTaskExecutor().execute(handler);
+    getTaskExecutor().execute(TaskExecutor.Pool.CARD_IO, handler);
 
     // Wait for init to complete before accessing reader
     initComplete.await(1, TimeUnit.SECONDS);
@@ -160,21 +161,23 @@ public class TerminalsManagerTest extends TaskExecutorTestExtension {
     handlerChange.await(1, TimeUnit.SECONDS);
     reader0Change.await(1, TimeUnit.SECONDS);
 
-    // Insert badAtrCard to terminal 1
+    // Insert badAtrCard to terminal 1, handler processes it while card 0 is still in terminal 0
     ObservableChanges<TerminalsManager.Status> reader1Change = ObservableChanges.observableNewChange(reader1.statusProperty())
       .values(READING_CARD, SUCCESS).get();
-    badAtrCard.insert(terminalSimulator.getTerminal(1));
-
-    // Eject card 0 from terminal 0, then handler will process next card
     handlerChange = ObservableChanges.observableNewChange(handler.statusProperty())
         .value(READING_CARD).optional()
         .value(PROCESSING_CARD).get();
+    badAtrCard.insert(terminalSimulator.getTerminal(1));
+    reader1Change.await(1, TimeUnit.SECONDS);
+    handlerChange.await(1, TimeUnit.SECONDS);
+    assertTrue(handler.waitForResult(1, TimeUnit.SECONDS).hasRecords());
+    assertTrue(handler.waitForResult(1, TimeUnit.SECONDS).hasRecords());
+
+    // Eject card 0 from terminal 0
     reader0Change = ObservableChanges.observableNewChange(reader0.statusProperty())
         .value(WAITING_CARD).get();
     goodCard.eject();
     reader0Change.await(1, TimeUnit.SECONDS);
-    reader1Change.await(1, TimeUnit.SECONDS);
-    handlerChange.await(1, TimeUnit.SECONDS);
 
     // Eject cart 1 from terminal 1
     handlerChange = ObservableChanges.observableNewChange(handler.statusProperty())
@@ -198,7 +201,7 @@ public class TerminalsManagerTest extends TaskExecutorTestExtension {
         getTaskExecutor());
 
     ObservableChanges<TerminalsManager.Status> initComplete = ObservableChanges.observableOldChange(handler.statusProperty()).value(INIT).get();
-    getTaskExecutor().execute(handler);
+    getTaskExecutor().execute(TaskExecutor.Pool.CARD_IO, handler);
 
     // Wait for init to complete before accessing reader
     initComplete.await(1, TimeUnit.SECONDS);
@@ -244,7 +247,7 @@ public class TerminalsManagerTest extends TaskExecutorTestExtension {
         getTaskExecutor());
 
     ObservableChanges<TerminalsManager.Status> initComplete = ObservableChanges.observableOldChange(handler.statusProperty()).value(INIT).get();
-    getTaskExecutor().execute(handler);
+    getTaskExecutor().execute(TaskExecutor.Pool.CARD_IO, handler);
 
     // Wait for init to complete before continuing
     initComplete.await(1, TimeUnit.SECONDS);
@@ -305,7 +308,7 @@ public class TerminalsManagerTest extends TaskExecutorTestExtension {
         getTaskExecutor());
 
     ObservableChanges<TerminalsManager.Status> initComplete = ObservableChanges.observableOldChange(handler.statusProperty()).value(INIT).get();
-    getTaskExecutor().execute(handler);
+    getTaskExecutor().execute(TaskExecutor.Pool.CARD_IO, handler);
 
     // Wait for init to complete before accessing reader
     initComplete.await(1, TimeUnit.SECONDS);
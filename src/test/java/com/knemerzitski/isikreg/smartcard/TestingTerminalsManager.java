@@ -21,7 +21,7 @@ public class TestingTerminalsManager extends TerminalsManager {
   private void processReader(ProcessedReader reader) {
     results.offer(reader);
     if (reader.getRecords() != null) {
-      successReaderSignal();
+      successReaderSignal(reader);
     }
   }
 
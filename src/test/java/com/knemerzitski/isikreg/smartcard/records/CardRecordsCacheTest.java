@@ -0,0 +1,87 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.TextColumn;
+import com.knemerzitski.isikreg.smartcard.FakeCards;
+import com.knemerzitski.isikreg.smartcard.FakeTerminalSimulator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.smartcardio.CardTerminal;
+import java.util.Arrays;
+
+import static com.knemerzitski.isikreg.settings.columns.Column.Group.PERSON;
+import static com.knemerzitski.isikreg.settings.columns.Column.Id.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardRecordsCacheTest {
+
+  private Settings settings;
+
+  @BeforeEach
+  public void setupThis() {
+    settings = new Settings();
+    Column[] columns = {
+        new TextColumn(PERSON, PERSONAL_CODE, Column.Type.TEXT, "Isikukood", true, true, false),
+        new TextColumn(PERSON, LAST_NAME, Column.Type.TEXT, "Perekonnanimi", true, false, false),
+        new TextColumn(PERSON, FIRST_NAME, Column.Type.TEXT, "Eesnimi", true, false, false)
+    };
+    settings.columns.addAll(Arrays.asList(columns));
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    assertFalse(CardRecordsCache.isEnabled(settings));
+    RecordsReadPlan plan = EstIdCardRecordsV2018.createReadPlan(settings);
+    assertEquals(0, plan.getDocumentNrRecordNumber());
+    assertEquals("[6, 1, 2]", Arrays.toString(plan.getRecordNumbers()));
+  }
+
+  @Test
+  public void testReadFromCache() throws Exception {
+    settings.smartCard.cardCacheTime = 60000;
+    RecordsReadPlan plan = EstIdCardRecordsV2018.createReadPlan(settings);
+    assertEquals(2, plan.getKeyRecordCount());
+    assertEquals("[6, 7, 1, 2]", Arrays.toString(plan.getRecordNumbers()));
+
+    CardRecordsCache cache = new CardRecordsCache(settings);
+    FakeTerminalSimulator terminalSimulator = new FakeTerminalSimulator(1);
+    CardTerminal terminal = terminalSimulator.getTerminal();
+
+    FakeTerminalSimulator.FakeCard fakeCard = FakeCards.builder()
+        .personalCode("39503180000").lastName("Last").firstName("First-Name")
+        .build();
+    fakeCard.insert(terminal);
+    CountingCardChannel channel = new CountingCardChannel(terminal.connect("T=1").getBasicChannel());
+
+    CardRecords records = new EstIdCardRecordsV2018(settings, plan, channel, null, cache);
+    cache.readFinished(records, 1000000);
+    assertFalse(records.isFromCache());
+    assertEquals(10, channel.getTransmitCount());
+
+    // Put in again, only personal code and document number are read
+    channel.resetTransmitCount();
+    records = new EstIdCardRecordsV2018(settings, plan, channel, null, cache);
+    cache.readFinished(records, 0);
+    assertTrue(records.isFromCache());
+    assertEquals(6, channel.getTransmitCount());
+    assertEquals("39503180000", records.getPersonalCode());
+    assertEquals("Last", records.getLastName());
+    assertEquals("First-Name", records.getFirstName());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // New card of the same person has different document number
+    fakeCard.eject();
+    fakeCard = FakeCards.builder()
+        .personalCode("39503180000").lastName("Last").firstName("First-Name").documentNr("AB0000000")
+        .build();
+    fakeCard.insert(terminal);
+    channel = new CountingCardChannel(terminal.connect("T=1").getBasicChannel());
+    records = new EstIdCardRecordsV2018(settings, plan, channel, null, cache);
+    assertFalse(records.isFromCache());
+    assertEquals(10, channel.getTransmitCount());
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.TextColumn;
+import com.knemerzitski.isikreg.smartcard.FakeCards;
+import com.knemerzitski.isikreg.smartcard.FakeTerminalSimulator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.smartcardio.*;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import static com.knemerzitski.isikreg.settings.columns.Column.Group.PERSON;
+import static com.knemerzitski.isikreg.settings.columns.Column.Id.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Excluded from the default test run, run with "mvn test -Pbenchmark"
+ */
+@Tag("benchmark")
+public class CardRecordsReadBenchmarkTest {
+
+  private static final int WARMUP_READS = 200;
+  private static final int READS = 1000;
+
+  private interface RecordsReader {
+    CardRecords read(CardChannel channel) throws Exception;
+  }
+
+  private Settings settings;
+
+  @BeforeEach
+  public void setupThis() {
+    settings = new Settings();
+    Column[] columns = {
+        new TextColumn(PERSON, PERSONAL_CODE, Column.Type.TEXT, "Isikukood", true, true, false),
+        new TextColumn(PERSON, LAST_NAME, Column.Type.TEXT, "Perekonnanimi", true, false, false),
+        new TextColumn(PERSON, FIRST_NAME, Column.Type.TEXT, "Eesnimi", true, false, false)
+    };
+    settings.columns.addAll(Arrays.asList(columns));
+  }
+
+  @Test
+  public void testReadV2018() throws Exception {
+    FakeTerminalSimulator.FakeCard fakeCard = FakeCards.builder()
+        .personalCode("39503180000").lastName("Last").firstName("First-Name")
+        .build();
+    RecordsReadPlan plan = EstIdCardRecordsV2018.createReadPlan(settings);
+
+    benchmark("V2018", fakeCard, 8, channel -> new EstIdCardRecordsV2018(settings, plan, channel));
+  }
+
+  @Test
+  public void testReadV2011() throws Exception {
+    FakeTerminalSimulator.FakeCard fakeCard = FakeCards.createEstIdCardV2011(
+        "Last", "First", "Name", "M", "EST", "18.03.1995", "39503180000", "AA5342423", "20.10.2025", "EST",
+        "17.05.2019", "Type of residence permit", "Notes line 1", "Notes line 2", "Notes line 3", "Notes line 4");
+    RecordsReadPlan plan = EstIdCardRecordsV2011.createReadPlan(settings);
+
+    benchmark("V2011", fakeCard, 7, channel -> new EstIdCardRecordsV2011(settings, plan, channel));
+  }
+
+  private void benchmark(String name, FakeTerminalSimulator.FakeCard fakeCard, int expectedCommands,
+                         RecordsReader reader) throws Exception {
+    FakeTerminalSimulator terminalSimulator = new FakeTerminalSimulator(1);
+    CardTerminal terminal = terminalSimulator.getTerminal();
+    fakeCard.insert(terminal);
+    Card card = terminal.connect("T=1");
+    CountingCardChannel channel = new CountingCardChannel(card.getBasicChannel());
+
+    CardRecords records = reader.read(channel);
+    assertEquals("39503180000", records.getPersonalCode());
+    assertEquals("Last", records.getLastName());
+    assertEquals("First-Name", records.getFirstName());
+    assertEquals(expectedCommands, channel.getTransmitCount());
+
+    // Records print the protocol on every read
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    long allocatedBytes;
+    long nanos;
+    try {
+      for (int i = 0; i < WARMUP_READS; i++)
+        reader.read(channel);
+
+      allocatedBytes = getAllocatedBytes(threadBean);
+      nanos = System.nanoTime();
+      for (int i = 0; i < READS; i++)
+        reader.read(channel);
+      nanos = System.nanoTime() - nanos;
+      allocatedBytes = getAllocatedBytes(threadBean) - allocatedBytes;
+    } finally {
+      System.setOut(out);
+    }
+
+    System.out.printf("[Card read %s] %d commands, %.1f us, %s bytes allocated per read (n.%d)%n", name,
+        expectedCommands, nanos / 1000.0 / READS, getAllocatedBytes(threadBean) >= 0 ? allocatedBytes / READS : "?", READS);
+  }
+
+  private static long getAllocatedBytes(ThreadMXBean threadBean) {
+    if (threadBean instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    return -1;
+  }
+
+}
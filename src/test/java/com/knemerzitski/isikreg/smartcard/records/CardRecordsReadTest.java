@@ -0,0 +1,74 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.TextColumn;
+import com.knemerzitski.isikreg.smartcard.FakeCards;
+import com.knemerzitski.isikreg.smartcard.FakeTerminalSimulator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.smartcardio.CardTerminal;
+import java.util.Arrays;
+
+import static com.knemerzitski.isikreg.settings.columns.Column.Group.PERSON;
+import static com.knemerzitski.isikreg.settings.columns.Column.Id.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardRecordsReadTest {
+
+  private Settings settings;
+
+  @BeforeEach
+  public void setupThis() {
+    settings = new Settings();
+    Column[] columns = {
+        new TextColumn(PERSON, PERSONAL_CODE, Column.Type.TEXT, "Isikukood", true, true, false),
+        new TextColumn(PERSON, LAST_NAME, Column.Type.TEXT, "Perekonnanimi", true, false, false),
+        new TextColumn(PERSON, FIRST_NAME, Column.Type.TEXT, "Eesnimi", true, false, false)
+    };
+    settings.columns.addAll(Arrays.asList(columns));
+  }
+
+  @Test
+  public void testReadV2018() throws Exception {
+    FakeTerminalSimulator.FakeCard fakeCard = FakeCards.builder()
+        .personalCode("39503180000").lastName("Last").firstName("First-Name")
+        .build();
+    RecordsReadPlan plan = EstIdCardRecordsV2018.createReadPlan(settings);
+    CountingCardChannel channel = insert(fakeCard);
+
+    CardRecords records = new EstIdCardRecordsV2018(settings, plan, channel);
+    assertRecords(records);
+    // Select AID, select 5000 and select + read binary for 3 records
+    assertEquals(8, channel.getTransmitCount());
+  }
+
+  @Test
+  public void testReadV2011() throws Exception {
+    FakeTerminalSimulator.FakeCard fakeCard = FakeCards.createEstIdCardV2011(
+        "Last", "First", "Name", "M", "EST", "18.03.1995", "39503180000", "AA5342423", "20.10.2025", "EST",
+        "17.05.2019", "Type of residence permit", "Notes line 1", "Notes line 2", "Notes line 3", "Notes line 4");
+    RecordsReadPlan plan = EstIdCardRecordsV2011.createReadPlan(settings);
+    CountingCardChannel channel = insert(fakeCard);
+
+    CardRecords records = new EstIdCardRecordsV2011(settings, plan, channel);
+    assertRecords(records);
+    // Select MF, EEEE, 5044 and read record for 4 records
+    assertEquals(7, channel.getTransmitCount());
+  }
+
+  private static CountingCardChannel insert(FakeTerminalSimulator.FakeCard fakeCard) throws Exception {
+    FakeTerminalSimulator terminalSimulator = new FakeTerminalSimulator(1);
+    CardTerminal terminal = terminalSimulator.getTerminal();
+    fakeCard.insert(terminal);
+    return new CountingCardChannel(terminal.connect("T=1").getBasicChannel());
+  }
+
+  private static void assertRecords(CardRecords records) {
+    assertEquals("39503180000", records.getPersonalCode());
+    assertEquals("Last", records.getLastName());
+    assertEquals("First-Name", records.getFirstName());
+  }
+
+}
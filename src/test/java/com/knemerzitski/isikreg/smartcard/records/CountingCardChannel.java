@@ -0,0 +1,56 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.nio.ByteBuffer;
+
+/**
+ * Counts commands sent to the card
+ */
+public class CountingCardChannel extends CardChannel {
+
+  private final CardChannel channel;
+  private int transmitCount;
+
+  public CountingCardChannel(CardChannel channel) {
+    this.channel = channel;
+  }
+
+  public int getTransmitCount() {
+    return transmitCount;
+  }
+
+  public void resetTransmitCount() {
+    transmitCount = 0;
+  }
+
+  @Override
+  public Card getCard() {
+    return channel.getCard();
+  }
+
+  @Override
+  public int getChannelNumber() {
+    return channel.getChannelNumber();
+  }
+
+  @Override
+  public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+    transmitCount++;
+    return channel.transmit(command);
+  }
+
+  @Override
+  public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+    transmitCount++;
+    return channel.transmit(command, response);
+  }
+
+  @Override
+  public void close() throws CardException {
+    channel.close();
+  }
+}
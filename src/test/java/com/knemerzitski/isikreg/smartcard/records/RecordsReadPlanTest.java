@@ -0,0 +1,53 @@
+package com.knemerzitski.isikreg.smartcard.records;
+
+import com.knemerzitski.isikreg.settings.Settings;
+import com.knemerzitski.isikreg.settings.columns.Column;
+import com.knemerzitski.isikreg.settings.columns.DateColumn;
+import com.knemerzitski.isikreg.settings.columns.TextColumn;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static com.knemerzitski.isikreg.settings.columns.Column.Group.PERSON;
+import static com.knemerzitski.isikreg.settings.columns.Column.Id.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordsReadPlanTest {
+
+  private Settings settings;
+
+  @BeforeEach
+  public void setupThis() {
+    settings = new Settings();
+    Column[] columns = {
+        new TextColumn(PERSON, PERSONAL_CODE, Column.Type.TEXT, "Isikukood", true, true, false),
+        new TextColumn(PERSON, LAST_NAME, Column.Type.TEXT, "Perekonnanimi", true, false, false),
+        new TextColumn(PERSON, FIRST_NAME, Column.Type.TEXT, "Eesnimi", true, false, false)
+    };
+    settings.columns.addAll(Arrays.asList(columns));
+  }
+
+  @Test
+  public void testReadPlanOnlyHasRecordsInSettings() {
+    RecordsReadPlan planV2018 = EstIdCardRecordsV2018.createReadPlan(settings);
+    assertEquals(1, planV2018.getPersonalCodeRecordCount());
+    assertEquals("[6, 1, 2]", Arrays.toString(planV2018.getRecordNumbers()));
+
+    RecordsReadPlan planV2011 = EstIdCardRecordsV2011.createReadPlan(settings);
+    assertEquals(1, planV2011.getPersonalCodeRecordCount());
+    assertEquals("[7, 1, 2, 3]", Arrays.toString(planV2011.getRecordNumbers()));
+  }
+
+  @Test
+  public void testReadPlanDerivesFromPersonalCode() {
+    settings.columns.add(new TextColumn(PERSON, SEX, Column.Type.TEXT, "Sugu", true, false, false));
+    settings.columns.add(new DateColumn(PERSON, DATE_OF_BIRTH, Column.Type.DATE, "Sünniaeg", true, false, false, "dd.MM.yyyy"));
+    assertEquals("[6, 1, 2, 3, 5]", Arrays.toString(EstIdCardRecordsV2018.createReadPlan(settings).getRecordNumbers()));
+
+    settings.general.derivePersonalCodeColumns = true;
+    assertEquals("[6, 1, 2]", Arrays.toString(EstIdCardRecordsV2018.createReadPlan(settings).getRecordNumbers()));
+    assertEquals("[7, 1, 2, 3]", Arrays.toString(EstIdCardRecordsV2011.createReadPlan(settings).getRecordNumbers()));
+  }
+
+}
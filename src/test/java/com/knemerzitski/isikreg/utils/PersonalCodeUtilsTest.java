@@ -0,0 +1,36 @@
+package com.knemerzitski.isikreg.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersonalCodeUtilsTest {
+
+  @Test
+  public void testDateOfBirthAndSex() {
+    assertEquals(LocalDate.of(1976, 5, 3), PersonalCodeUtils.getDateOfBirth("37605030299"));
+    assertEquals(PersonalCodeUtils.MALE, PersonalCodeUtils.getSex("37605030299"));
+
+    assertEquals(LocalDate.of(1994, 3, 13), PersonalCodeUtils.getDateOfBirth("49403136526"));
+    assertEquals(PersonalCodeUtils.FEMALE, PersonalCodeUtils.getSex("49403136526"));
+
+    assertEquals(LocalDate.of(2012, 2, 29), PersonalCodeUtils.getDateOfBirth("51202291236"));
+    assertEquals(PersonalCodeUtils.MALE, PersonalCodeUtils.getSex("51202291236"));
+  }
+
+  @Test
+  public void testInvalid() {
+    assertFalse(PersonalCodeUtils.isValid("37605030298")); // Wrong checksum
+    assertFalse(PersonalCodeUtils.isValid("60102290006")); // No 29th February in 2001
+    assertFalse(PersonalCodeUtils.isValid("3760503029"));
+    assertFalse(PersonalCodeUtils.isValid("3760503029a"));
+    assertFalse(PersonalCodeUtils.isValid(""));
+    assertFalse(PersonalCodeUtils.isValid(null));
+
+    assertNull(PersonalCodeUtils.getDateOfBirth("37605030298"));
+    assertNull(PersonalCodeUtils.getSex("37605030298"));
+  }
+
+}